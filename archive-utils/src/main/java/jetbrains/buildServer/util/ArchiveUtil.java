@@ -16,13 +16,19 @@
 
 package jetbrains.buildServer.util;
 
+import com.github.luben.zstd.RecyclingBufferPool;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdInputStream;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.io.StreamUtil;
 import com.intellij.util.PathUtil;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
 import java.util.*;
 import java.util.regex.Pattern;
 import java.util.zip.*;
@@ -32,16 +38,39 @@ import jetbrains.buildServer.serverSide.TeamCityProperties;
 import jetbrains.buildServer.util.impl.FileAware;
 import jetbrains.buildServer.util.impl.SevenZArchiveInputStream;
 import net.quasardb.teamcity.compression.ZstdExtractor;
+import net.quasardb.teamcity.compression.cache.ZipFileCache;
+import net.quasardb.teamcity.compression.config.ZstdProperties;
+import net.quasardb.teamcity.compression.detect.ArchiveFormat;
+import net.quasardb.teamcity.compression.detect.ArchiveFormatDetector;
+import net.quasardb.teamcity.compression.extract.EntryWriter;
+import net.quasardb.teamcity.compression.extract.impl.ParallelEntryWriter;
+import net.quasardb.teamcity.compression.extract.impl.SequentialEntryWriter;
 import net.quasardb.teamcity.compression.extractor.ZstdServerArchiveExtractor;
+import net.quasardb.teamcity.compression.filesystem.StagingArea;
+import net.quasardb.teamcity.compression.filesystem.impl.TempStagingArea;
+import net.quasardb.teamcity.compression.index.DirectoryTrie;
+import net.quasardb.teamcity.compression.index.DirectoryTrieCache;
+import net.quasardb.teamcity.compression.parallel.ParallelZipWriter;
+import net.quasardb.teamcity.compression.seekable.ZipFileArchiveInputStream;
+import net.quasardb.teamcity.compression.utils.ZipZstdSupport;
+import net.quasardb.teamcity.compression.utils.ZstdCompressionUtils;
+import net.quasardb.teamcity.compression.utils.ZstdZipArchiveOutputStream;
 import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.archivers.ArchiveInputStream;
 import org.apache.commons.compress.archivers.ArchiveOutputStream;
 import org.apache.commons.compress.archivers.jar.JarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
 import org.apache.commons.compress.archivers.zip.UnixStat;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
 import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.archivers.zip.ZipMethod;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.io.output.CloseShieldOutputStream;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -63,6 +92,7 @@ public abstract class ArchiveUtil extends BaseArchiveUtil {
 
   private static final Logger LOG = Logger.getInstance(ArchiveUtil.class.getName());
   private static final String GZ = ".gz";
+  private static final String ZST = ".zst";
   private static final String TEAMCITY_ARCHIVE_BUFFER_SIZE_PROPERTY = "teamcity.archiveUtil.bufferSize";
   private static final int ARCHIVE_BUFFER_SIZE_BYTES_DEFAULT = 64 * 1024;
 
@@ -131,7 +161,16 @@ public abstract class ArchiveUtil extends BaseArchiveUtil {
           @Override
           public void postRegister() {}
         };
-        return tmpExtractor.decompressAndGetInputStream(inputStream);
+        if (inputStream instanceof FileAware) {
+          final ArchiveInputStream seekableStream = tmpExtractor.openSeekableArchiveInputStream(((FileAware)inputStream).getFile());
+          if (seekableStream != null) {
+            return new ApacheZipSlipAwareArchiveInputStream(seekableStream);
+          }
+        }
+        final ArchiveInputStream stream = tmpExtractor.decompressAndGetInputStream(inputStream);
+        return stream instanceof ZipFileArchiveInputStream
+               ? new RandomAccessZipArchiveInputStream((ZipFileArchiveInputStream)stream)
+               : new ApacheZipSlipAwareArchiveInputStream(stream);
       } catch (Exception e){
         LOG.error("Could not handle ZSTD archive", e);
         return null;
@@ -144,6 +183,16 @@ public abstract class ArchiveUtil extends BaseArchiveUtil {
         : null;
     }
 
+    if (archiveType == ArchiveType.ZIP && inputStream instanceof FileAware) {
+      final File file = ((FileAware)inputStream).getFile();
+      try {
+        final ZipFileCache.Lease lease = ZipFileCache.open(file, DEFAULT_ZIP_ENCODING);
+        return new RandomAccessZipArchiveInputStream(new ZipFileArchiveInputStream(lease.getZipFile(), lease));
+      } catch (IOException e) {
+        LOG.warn("Could not read central directory of " + file + ", reading it sequentially: " + e.getMessage());
+      }
+    }
+
     switch (archiveType) {
       case ZIP:
         return new ApacheZipSlipAwareArchiveInputStream(new ZipArchiveInputStream(inputStream, DEFAULT_ZIP_ENCODING, true));
@@ -185,8 +234,8 @@ public abstract class ArchiveUtil extends BaseArchiveUtil {
    */
   public static boolean unpackZip(@NotNull final File zip, @NotNull final String pathPrefix, @NotNull final File targetDir) {
     logStartUnpacking(zip, pathPrefix, targetDir);
-    try (ZipInputStream file = new ZipSlipAwareZipInputStream(new BufferedInputStream(new FileInputStream(zip)))) {
-      unpackZip(file, targetDir, pathPrefix);
+    try {
+      unpackZip(zip, targetDir, pathPrefix, ZstdProperties.getUnzipWorkers());
     } catch (IOException e) {
       LOG.warnAndDebugDetails("Failed to unpack zip " + zip.getAbsolutePath() + "!" + pathPrefix + " to " + targetDir.getAbsolutePath(), e);
       return false;
@@ -206,14 +255,18 @@ public abstract class ArchiveUtil extends BaseArchiveUtil {
    *
    * @param input     zip input stream
    * @param targetDir the target directory
-   * @return true in case of success, false otherwise
+   * @return true in case of success, false otherwise, e.g. when the zip has entries compressed with zstd, which need
+   * its central directory
    */
   public static boolean unpackZip(@NotNull ZipInputStream input, @NotNull File targetDir) {
     if (!(input instanceof ZipSlipAwareZipInputStream)) {
       LOG.warn("Unsafe usage of ArchiveUtil.unpackZip");
     }
     try {
-      unpackZip(input, targetDir, "");
+      if (!unpackZip(input, targetDir, "")) {
+        LOG.warn("Failed to unpack zip input stream to " + targetDir.getAbsolutePath() + ": entries compressed with zstd cannot be unpacked from a stream");
+        return false;
+      }
     } catch (IOException e) {
       LOG.warnAndDebugDetails("Failed to unpack zip input stream to " + targetDir.getAbsolutePath(), e);
       return false;
@@ -233,13 +286,29 @@ public abstract class ArchiveUtil extends BaseArchiveUtil {
                                       @NotNull final String pathPrefix,
                                       @NotNull final File targetDir,
                                       final boolean clearTargetDir) throws IOException {
+    unpackZipOrThrow(zip, pathPrefix, targetDir, clearTargetDir, ZstdProperties.getUnzipWorkers());
+  }
+
+  /**
+   * Same as {@link #unpackZipOrThrow(File, String, File, boolean)}, but writes up to {@code workers} entries concurrently.
+   * Entries are read through the central directory, so each of them is decoded independently of the others,
+   * whether it is deflated or compressed with zstd.
+   *
+   * @param workers number of entries written concurrently, 1 or less unpacks on the calling thread, as a stream unless
+   *                the central directory lists entries compressed with zstd
+   */
+  public static void unpackZipOrThrow(@NotNull final File zip,
+                                      @NotNull final String pathPrefix,
+                                      @NotNull final File targetDir,
+                                      final boolean clearTargetDir,
+                                      final int workers) throws IOException {
     logStartUnpacking(zip, pathPrefix, targetDir);
     if (clearTargetDir) {
       FileUtil.delete(targetDir);
       FileUtil.createEmptyDir(targetDir);
     }
-    try (ZipInputStream file = new ZipSlipAwareZipInputStream(new BufferedInputStream(new FileInputStream(zip)))) {
-      unpackZip(file, targetDir, pathPrefix);
+    try {
+      unpackZip(zip, targetDir, pathPrefix, workers);
     } catch (IOException e) {
       if (clearTargetDir) {
         FileUtil.delete(targetDir);
@@ -252,15 +321,88 @@ public abstract class ArchiveUtil extends BaseArchiveUtil {
     LOG.debug("Unpacking zip " + zip.getAbsolutePath() + "!" + pathPrefix + " to " + targetDir.getAbsolutePath());
   }
 
-  private static void unpackZip(@NotNull final ZipInputStream file,
+  private static void unpackZip(@NotNull final File zip,
                                 @NotNull final File targetDir,
-                                @NotNull final String pathPrefix) throws IOException {
+                                @NotNull final String pathPrefix,
+                                final int workers) throws IOException {
+    final ZipFile zipFile;
+    try {
+      zipFile = ZipFileCache.openZipFile(zip, StandardCharsets.UTF_8.name());
+    } catch (IOException e) {
+      LOG.warn("Could not read central directory of " + zip + ", unpacking it sequentially: " + e.getMessage());
+      try (ZipInputStream file = new ZipSlipAwareZipInputStream(new BufferedInputStream(new FileInputStream(zip)))) {
+        if (!unpackZip(file, targetDir, pathPrefix)) {
+          throw new IOException("Entries of " + zip + " compressed with zstd cannot be unpacked without its central directory", e);
+        }
+      }
+      return;
+    }
+    if (workers <= 1 && !hasZstdEntries(zipFile, pathPrefix)) {
+      zipFile.close();
+      try (ZipInputStream file = new ZipSlipAwareZipInputStream(new BufferedInputStream(new FileInputStream(zip)))) {
+        if (!unpackZip(file, targetDir, pathPrefix)) {
+          throw new IOException("Zip " + zip + " has entries compressed with zstd that its central directory does not list");
+        }
+      }
+      return;
+    }
+    final String targetPath = targetDir.getCanonicalPath() + File.separator;
+    try (ZipFile ignored = zipFile;
+         EntryWriter writer = workers > 1 ? new ParallelEntryWriter(workers, ZstdProperties.getWriterMaxInFlightBytes()) : new SequentialEntryWriter()) {
+      for (final ZipArchiveEntry entry : Collections.list(zipFile.getEntriesInPhysicalOrder())) {
+        if (!entry.getName().startsWith(pathPrefix)) {
+          continue;
+        }
+        final File file = getUnpackedFile(targetDir, entry, pathPrefix);
+        if (!isNameAllowed(entry.getName()) || !(file.getCanonicalPath() + File.separator).startsWith(targetPath)) {
+          throw new IOException("Zip entry \"" + entry.getName() + "\" is outside of the target directory " + targetDir.getAbsolutePath());
+        }
+        LOG.debug("Extracting zip entry \"" + entry.getName() + "\" to \"" + file.getAbsolutePath() + "\"");
+        if (entry.isDirectory()) {
+          writer.writeDirectory(file);
+        } else {
+          writer.writeFile(() -> ZipZstdSupport.getInputStream(zipFile, entry), entry.getSize(), EntryWriter.UNKNOWN_MODE, EntryWriter.UNKNOWN_TIME, file);
+        }
+      }
+      writer.finish();
+    }
+  }
+
+  private static boolean hasZstdEntries(@NotNull final ZipFile zipFile, @NotNull final String pathPrefix) {
+    for (final ZipArchiveEntry entry : Collections.list(zipFile.getEntries())) {
+      if (entry.getMethod() == ZipZstdSupport.ZSTD_METHOD && entry.getName().startsWith(pathPrefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return false if the zip has an entry compressed with zstd, which ZipInputStream cannot decode; the entries up to it
+   * are unpacked
+   */
+  private static boolean unpackZip(@NotNull final ZipInputStream file,
+                                   @NotNull final File targetDir,
+                                   @NotNull final String pathPrefix) throws IOException {
     ZipEntry ze;
     while ((ze = file.getNextEntry()) != null) {
       if (ze.getName().startsWith(pathPrefix)) {
+        if (ze.getMethod() == ZipZstdSupport.ZSTD_METHOD) {
+          return false;
+        }
         saveEntry(targetDir, file, ze, pathPrefix);
       }
     }
+    return true;
+  }
+
+  @NotNull
+  private static File getUnpackedFile(@NotNull final File parentDir, @NotNull final ZipEntry entry, @NotNull final String pathPrefix) {
+    String relativePath = entry.getName().substring(pathPrefix.length());
+    if (relativePath.startsWith("/") || relativePath.startsWith("\\")) {
+      relativePath = relativePath.substring(1);
+    }
+    return new File(parentDir, relativePath);
   }
 
   private static void saveEntry(@NotNull final File parentDir,
@@ -269,12 +411,7 @@ public abstract class ArchiveUtil extends BaseArchiveUtil {
                                 @NotNull final String pathPrefix)
     throws IOException {
 
-    String relativePath = entry.getName().substring(pathPrefix.length());
-    if (relativePath.startsWith("/") || relativePath.startsWith("\\")) {
-      relativePath = relativePath.substring(1);
-    }
-
-    final File file = new File(parentDir, relativePath);
+    final File file = getUnpackedFile(parentDir, entry, pathPrefix);
 
     LOG.debug("Extracting zip entry \"" + entry.getName() + "\" to \"" + file.getAbsolutePath() + "\"");
     FileUtil.createParentDirs(file);
@@ -377,10 +514,72 @@ public abstract class ArchiveUtil extends BaseArchiveUtil {
                              @NotNull final File resultZip,
                              @NotNull final Map<String, Integer> entitiesUnixPermissions,
                              final boolean markExecutableFiles) throws IOException {
-    try (ArchiveOutputStream out = new ZipArchiveOutputStream(new FileOutputStream(resultZip))) {
-      for (final File sourceFile : sourceFiles) {
-        final byte[] buffer = new byte[TeamCityProperties.getInteger(TEAMCITY_ARCHIVE_BUFFER_SIZE_PROPERTY, ARCHIVE_BUFFER_SIZE_BYTES_DEFAULT)];  // a reusable buffer
-        traverseAndWrite(sourceFile, out, new StringBuilder(), true, buffer, entitiesUnixPermissions, markExecutableFiles);
+    packZip(sourceFiles, resultZip, entitiesUnixPermissions, markExecutableFiles, ZstdProperties.getZipWorkers());
+  }
+
+  /**
+   * Same as {@link #packZip(Collection, File, Map, boolean)}, but deflates the entries on {@code workers} threads,
+   * or compresses them with zstd when {@link ZstdProperties#isZipZstdEntriesEnabled()}.
+   *
+   * @see #packZip(Collection, File, Map, boolean, int, int)
+   */
+  public static void packZip(@NotNull final Collection<File> sourceFiles,
+                             @NotNull final File resultZip,
+                             @NotNull final Map<String, Integer> entitiesUnixPermissions,
+                             final boolean markExecutableFiles,
+                             final int workers) throws IOException {
+    final int method = ZstdProperties.isZipZstdEntriesEnabled() ? ZipZstdSupport.ZSTD_METHOD : ZipEntry.DEFLATED;
+    packZip(sourceFiles, resultZip, entitiesUnixPermissions, markExecutableFiles, workers, method);
+  }
+
+  /**
+   * Same as {@link #packZip(Collection, File, Map, boolean)}, but compresses the entries on {@code workers} threads.
+   * Each entry is compressed into its own buffer and the buffers are written to the zip in traversal order,
+   * so the result has the same entries in the same order as a zip packed on one thread.
+   * <p>
+   * With {@link ZipZstdSupport#ZSTD_METHOD} entries are compressed with zstd at the configured level: they keep
+   * random access and decompress several times faster than deflated ones, but only zstd-aware tools can read them.
+   *
+   * @param workers number of threads compressing entries, 1 or less deflates on the calling thread
+   * @param method  {@link ZipEntry#DEFLATED} or {@link ZipZstdSupport#ZSTD_METHOD}
+   * @throws IOException
+   */
+  public static void packZip(@NotNull final Collection<File> sourceFiles,
+                             @NotNull final File resultZip,
+                             @NotNull final Map<String, Integer> entitiesUnixPermissions,
+                             final boolean markExecutableFiles,
+                             final int workers,
+                             final int method) throws IOException {
+    if (method != ZipEntry.DEFLATED && method != ZipZstdSupport.ZSTD_METHOD) {
+      throw new IllegalArgumentException("Zip method " + method + " is not supported");
+    }
+    if (method == ZipZstdSupport.ZSTD_METHOD) {
+      try (ZstdZipArchiveOutputStream out = new ZstdZipArchiveOutputStream(new FileOutputStream(resultZip));
+           ParallelZipWriter writer = new ParallelZipWriter(out, ZstdProperties.getCompressionLevel(), Math.max(workers, 1))) {
+        for (final File sourceFile : sourceFiles) {
+          traverseAndSubmit(sourceFile, writer, new StringBuilder(), true, entitiesUnixPermissions, markExecutableFiles);
+        }
+        writer.finish();
+        out.finish();
+      } catch (Exception e) {
+        LOG.warnAndDebugDetails("Failed to pack zip \"" + resultZip.getAbsolutePath() + "\". " + e.getMessage(), e);
+        throw e;
+      }
+      return;
+    }
+    try (ZipArchiveOutputStream out = new ZipArchiveOutputStream(new FileOutputStream(resultZip))) {
+      if (workers > 1) {
+        try (ParallelZipWriter writer = new ParallelZipWriter(out, Deflater.DEFAULT_COMPRESSION, workers)) {
+          for (final File sourceFile : sourceFiles) {
+            traverseAndSubmit(sourceFile, writer, new StringBuilder(), true, entitiesUnixPermissions, markExecutableFiles);
+          }
+          writer.finish();
+        }
+      } else {
+        for (final File sourceFile : sourceFiles) {
+          final byte[] buffer = new byte[TeamCityProperties.getInteger(TEAMCITY_ARCHIVE_BUFFER_SIZE_PROPERTY, ARCHIVE_BUFFER_SIZE_BYTES_DEFAULT)];  // a reusable buffer
+          traverseAndWrite(sourceFile, out, new StringBuilder(), true, buffer, entitiesUnixPermissions, markExecutableFiles);
+        }
       }
       out.finish();
     } catch (Exception e) {
@@ -404,6 +603,227 @@ public abstract class ArchiveUtil extends BaseArchiveUtil {
     return true;
   }
 
+  /**
+   * Packs files and folders to a tar archive compressed with zstd at the configured level and number of workers,
+   * with the configured dictionary if any.
+   *
+   * @see #packTarZst(File, Collection, int, int, ZstdDictCompress)
+   */
+  public static void packTarZst(@NotNull final File destFile, @NotNull final Collection<File> sourceFiles) throws IOException {
+    final int level = ZstdProperties.getCompressionLevel();
+    packTarZst(destFile, sourceFiles, level, ZstdProperties.getCompressionWorkers(), ZstdCompressionUtils.getConfiguredDictionary(level));
+  }
+
+  /**
+   * Packs files and folders to a tar archive compressed with zstd. In case of directory all inner files are added recursively,
+   * with relative names as in {@link #packZip(File, ZipOutputStream)}. Unix permissions of files and symbolic links are kept.
+   * <p>
+   * With more than one worker the tar stream is cut into independent zstd frames compressed in parallel and written in
+   * the seekable format, so neither packing nor unpacking is bound by a single core.
+   *
+   * @param destFile    destination file, usually with the ".tar.zst" extension
+   * @param sourceFiles files or folders to pack
+   * @param level       zstd compression level
+   * @param workers     number of compressing threads, 0 or 1 compresses on the calling thread
+   * @throws IOException if a problem occurs during file operations
+   */
+  public static void packTarZst(@NotNull final File destFile,
+                                @NotNull final Collection<File> sourceFiles,
+                                final int level,
+                                final int workers) throws IOException {
+    packTarZst(destFile, sourceFiles, level, workers, null);
+  }
+
+  /**
+   * Same as {@link #packTarZst(File, Collection, int, int)}, compressing with the dictionary; the extractor finds it
+   * in the dictionary registry by the ID recorded in the frame headers.
+   *
+   * @param dictionary  dictionary to compress with, or null
+   */
+  public static void packTarZst(@NotNull final File destFile,
+                                @NotNull final Collection<File> sourceFiles,
+                                final int level,
+                                final int workers,
+                                @Nullable final ZstdDictCompress dictionary) throws IOException {
+    LOG.debug("Packing " + sourceFiles.size() + " file" + (sourceFiles.size() == 1 ? "" : "s") + " to " + destFile.getAbsolutePath());
+    try (OutputStream zstd = ZstdCompressionUtils.newCompressingStream(new FileOutputStream(destFile), level, workers, dictionary);
+         TarArchiveOutputStream out = new TarArchiveOutputStream(zstd, StandardCharsets.UTF_8.name())) {
+      out.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+      out.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+      final byte[] buffer = new byte[TeamCityProperties.getInteger(TEAMCITY_ARCHIVE_BUFFER_SIZE_PROPERTY, ARCHIVE_BUFFER_SIZE_BYTES_DEFAULT)];  // a reusable buffer
+      for (final File sourceFile : sourceFiles) {
+        traverseAndWriteTar(sourceFile, out, new StringBuilder(), true, buffer);
+      }
+      out.finish();
+    } catch (IOException e) {
+      LOG.warnAndDebugDetails("Failed to pack tar.zst \"" + destFile.getAbsolutePath() + "\". " + e.getMessage(), e);
+      throw e;
+    }
+  }
+
+  /**
+   * Packs files and folders to a zip archive compressed with zstd at the configured level and number of workers,
+   * with the configured dictionary if any.
+   *
+   * @see #packZipZst(File, Collection, int, int, ZstdDictCompress)
+   */
+  public static void packZipZst(@NotNull final File destFile, @NotNull final Collection<File> sourceFiles) throws IOException {
+    final int level = ZstdProperties.getCompressionLevel();
+    packZipZst(destFile, sourceFiles, level, ZstdProperties.getCompressionWorkers(), ZstdCompressionUtils.getConfiguredDictionary(level));
+  }
+
+  /**
+   * Packs files and folders to a zip archive whose entries are stored uncompressed, and compresses the whole zip with zstd
+   * on {@code workers} threads, as independent frames in the seekable format when there is more than one.
+   * Entry names are the same as in {@link #packZip(Collection, File, Map, boolean)}; as in {@link #packTarZst(File, Collection, int, int)},
+   * Unix permissions of files are kept and symbolic links are packed as links. Stored entries need their CRC up front,
+   * so every file is read twice.
+   *
+   * @param destFile    destination file, usually with the ".zip.zst" extension
+   * @param sourceFiles files or folders to pack
+   * @param level       zstd compression level
+   * @param workers     number of compressing threads, 0 or 1 compresses on the calling thread
+   * @throws IOException if a problem occurs during file operations
+   */
+  public static void packZipZst(@NotNull final File destFile,
+                                @NotNull final Collection<File> sourceFiles,
+                                final int level,
+                                final int workers) throws IOException {
+    packZipZst(destFile, sourceFiles, level, workers, null);
+  }
+
+  /**
+   * Same as {@link #packZipZst(File, Collection, int, int)}, compressing with the dictionary; the extractor finds it
+   * in the dictionary registry by the ID recorded in the frame headers.
+   *
+   * @param dictionary  dictionary to compress with, or null
+   */
+  public static void packZipZst(@NotNull final File destFile,
+                                @NotNull final Collection<File> sourceFiles,
+                                final int level,
+                                final int workers,
+                                @Nullable final ZstdDictCompress dictionary) throws IOException {
+    LOG.debug("Packing " + sourceFiles.size() + " file" + (sourceFiles.size() == 1 ? "" : "s") + " to " + destFile.getAbsolutePath());
+    try (OutputStream zstd = ZstdCompressionUtils.newCompressingStream(new FileOutputStream(destFile), level, workers, dictionary);
+         ZipArchiveOutputStream out = new ZipArchiveOutputStream(zstd)) {
+      out.setMethod(ZipMethod.STORED.getCode());
+      final byte[] buffer = new byte[TeamCityProperties.getInteger(TEAMCITY_ARCHIVE_BUFFER_SIZE_PROPERTY, ARCHIVE_BUFFER_SIZE_BYTES_DEFAULT)];  // a reusable buffer
+      for (final File sourceFile : sourceFiles) {
+        traverseAndWriteStoredZip(sourceFile, out, new StringBuilder(), true, buffer);
+      }
+      out.finish();
+    } catch (IOException e) {
+      LOG.warnAndDebugDetails("Failed to pack zip.zst \"" + destFile.getAbsolutePath() + "\". " + e.getMessage(), e);
+      throw e;
+    }
+  }
+
+  private static void traverseAndWriteTar(@NotNull final File file,
+                                          @NotNull final TarArchiveOutputStream output,
+                                          @NotNull final StringBuilder pathBuilder,
+                                          final boolean isFirst,
+                                          @NotNull final byte[] buffer) throws IOException {
+    final Path filePath = file.toPath();
+    if (!isFirst && Files.isSymbolicLink(filePath)) {
+      final TarArchiveEntry linkEntry = new TarArchiveEntry(pathBuilder + file.getName(), TarConstants.LF_SYMLINK);
+      linkEntry.setLinkName(Files.readSymbolicLink(filePath).toString());
+      linkEntry.setMode(UnixStat.LINK_FLAG | UnixStat.DEFAULT_LINK_PERM);
+      linkEntry.setModTime(Files.getLastModifiedTime(filePath, LinkOption.NOFOLLOW_LINKS).toMillis());
+      output.putArchiveEntry(linkEntry);
+      output.closeArchiveEntry();
+      return;
+    }
+    appendPath(file, pathBuilder, isFirst);
+    if (file.isFile()) {
+      final TarArchiveEntry tarEntry = new TarArchiveEntry(file, pathBuilder.toString());
+      tarEntry.setMode(TarArchiveEntry.DEFAULT_FILE_MODE & ~0777 | getUnixPermissions(filePath, TarArchiveEntry.DEFAULT_FILE_MODE & 0777));
+      output.putArchiveEntry(tarEntry);
+      writeFileToZip(file, output, buffer);
+    } else {
+      if (pathBuilder.length() > 0) {
+        final TarArchiveEntry dirEntry = new TarArchiveEntry(file, pathBuilder.toString());
+        dirEntry.setMode(TarArchiveEntry.DEFAULT_DIR_MODE & ~0777 | getUnixPermissions(filePath, TarArchiveEntry.DEFAULT_DIR_MODE & 0777));
+        output.putArchiveEntry(dirEntry);
+        output.closeArchiveEntry();
+      }
+      final File[] files = file.listFiles();
+      if (files != null) {
+        int length = pathBuilder.length();
+        for (File innerFile : files) {
+          traverseAndWriteTar(innerFile, output, pathBuilder, false, buffer);
+          pathBuilder.setLength(length);
+        }
+      }
+    }
+  }
+
+  private static void traverseAndWriteStoredZip(@NotNull final File file,
+                                                @NotNull final ZipArchiveOutputStream output,
+                                                @NotNull final StringBuilder pathBuilder,
+                                                final boolean isFirst,
+                                                @NotNull final byte[] buffer) throws IOException {
+    final Path filePath = file.toPath();
+    if (!isFirst && Files.isSymbolicLink(filePath)) {
+      final byte[] target = Files.readSymbolicLink(filePath).toString().getBytes(StandardCharsets.UTF_8);
+      final CRC32 crc = new CRC32();
+      crc.update(target, 0, target.length);
+      final ZipArchiveEntry linkEntry = new ZipArchiveEntry(pathBuilder + file.getName());
+      linkEntry.setMethod(ZipMethod.STORED.getCode());
+      linkEntry.setSize(target.length);
+      linkEntry.setCrc(crc.getValue());
+      linkEntry.setUnixMode(UnixStat.LINK_FLAG | UnixStat.DEFAULT_LINK_PERM);
+      linkEntry.setTime(Files.getLastModifiedTime(filePath, LinkOption.NOFOLLOW_LINKS).toMillis());
+      output.putArchiveEntry(linkEntry);
+      output.write(target);
+      output.closeArchiveEntry();
+      return;
+    }
+    appendPath(file, pathBuilder, isFirst);
+    if (file.isFile()) {
+      final ZipArchiveEntry zipEntry = new ZipArchiveEntry(pathBuilder.toString());
+      zipEntry.setMethod(ZipMethod.STORED.getCode());
+      setSizeAndCrc(zipEntry, file, buffer);
+      zipEntry.setTime(file.lastModified());
+      zipEntry.setUnixMode(UnixStat.FILE_FLAG | getUnixPermissions(filePath, UnixStat.DEFAULT_FILE_PERM));
+      output.putArchiveEntry(zipEntry);
+      writeFileToZip(file, output, buffer);
+    } else {
+      final File[] files = file.listFiles();
+      if (files != null) {
+        int length = pathBuilder.length();
+        for (File innerFile : files) {
+          traverseAndWriteStoredZip(innerFile, output, pathBuilder, false, buffer);
+          pathBuilder.setLength(length);
+        }
+      }
+    }
+  }
+
+  private static void setSizeAndCrc(@NotNull final ZipArchiveEntry zipEntry, @NotNull final File file, @NotNull final byte[] buffer) throws IOException {
+    final CRC32 crc = new CRC32();
+    long size = 0;
+    try (InputStream input = new FileInputStream(file)) {
+      for (int read = input.read(buffer); read != -1; read = input.read(buffer)) {
+        crc.update(buffer, 0, read);
+        size += read;
+      }
+    }
+    zipEntry.setSize(size);
+    zipEntry.setCrc(crc.getValue());
+  }
+
+  private static int getUnixPermissions(@NotNull final Path path, final int defaultPermissions) {
+    try {
+      int permissions = 0;
+      for (PosixFilePermission permission : Files.getPosixFilePermissions(path)) {
+        permissions |= 1 << (8 - permission.ordinal());
+      }
+      return permissions;
+    } catch (UnsupportedOperationException | IOException e) {
+      return defaultPermissions;
+    }
+  }
+
   @SuppressWarnings("MethodWithTooManyParameters")
   private static void traverseAndWrite(@NotNull File file,
                                        @Nullable FilenameFilter filter,
@@ -445,23 +865,10 @@ public abstract class ArchiveUtil extends BaseArchiveUtil {
                                        final boolean markExecutableFiles) throws IOException {
     appendPath(file, pathBuilder, isFirst);
     if (file.isFile()) {
-      final String path = pathBuilder.toString();
-      final ZipArchiveEntry zipEntry = new ZipArchiveEntry(path);
-      zipEntry.setTime(file.lastModified());
-      if (TeamCityProperties.getBooleanOrTrue("teamcity.archiveUtil.settingEntrySize.enabled")) {
-        final long fileLength = file.length();
-        if (fileLength > 0) {
-          zipEntry.setSize(fileLength);
-        }
-      }
-      if (markExecutableFiles && file.getName().toLowerCase().endsWith(".sh")) {
-        zipEntry.setUnixMode(FILE_RWXR_XR_X);
-      } else if (entitiesUnixPermissions.containsKey(path)) {
-        zipEntry.setUnixMode(entitiesUnixPermissions.get(path));
-      }
+      final ZipArchiveEntry zipEntry = newZipArchiveEntry(file, pathBuilder.toString(), entitiesUnixPermissions, markExecutableFiles);
       output.putArchiveEntry(zipEntry);
 
-      if ((zipEntry.getUnixMode() & UnixStat.LINK_FLAG) == UnixStat.LINK_FLAG){
+      if (isSymbolicLink(zipEntry)) {
         writeSymbolicLink(file, output);
       } else {
         writeFileToZip(file, output, buffer);
@@ -478,6 +885,57 @@ public abstract class ArchiveUtil extends BaseArchiveUtil {
     }
   }
 
+  private static void traverseAndSubmit(@NotNull final File file,
+                                        @NotNull final ParallelZipWriter writer,
+                                        @NotNull final StringBuilder pathBuilder,
+                                        final boolean isFirst,
+                                        @NotNull final Map<String, Integer> entitiesUnixPermissions,
+                                        final boolean markExecutableFiles) throws IOException {
+    appendPath(file, pathBuilder, isFirst);
+    if (file.isFile()) {
+      final ZipArchiveEntry zipEntry = newZipArchiveEntry(file, pathBuilder.toString(), entitiesUnixPermissions, markExecutableFiles);
+      if (isSymbolicLink(zipEntry)) {
+        writer.add(zipEntry, () -> new ByteArrayInputStream(Files.readSymbolicLink(file.toPath()).toString().getBytes(StandardCharsets.UTF_8)));
+      } else {
+        writer.add(zipEntry, () -> new FileInputStream(file));
+      }
+    } else {
+      final File[] files = file.listFiles();
+      if (files != null) {
+        int length = pathBuilder.length();
+        for (File innerFile : files) {
+          traverseAndSubmit(innerFile, writer, pathBuilder, false, entitiesUnixPermissions, markExecutableFiles);
+          pathBuilder.setLength(length);
+        }
+      }
+    }
+  }
+
+  @NotNull
+  private static ZipArchiveEntry newZipArchiveEntry(@NotNull final File file,
+                                                    @NotNull final String path,
+                                                    @NotNull final Map<String, Integer> entitiesUnixPermissions,
+                                                    final boolean markExecutableFiles) {
+    final ZipArchiveEntry zipEntry = new ZipArchiveEntry(path);
+    zipEntry.setTime(file.lastModified());
+    if (TeamCityProperties.getBooleanOrTrue("teamcity.archiveUtil.settingEntrySize.enabled")) {
+      final long fileLength = file.length();
+      if (fileLength > 0) {
+        zipEntry.setSize(fileLength);
+      }
+    }
+    if (markExecutableFiles && file.getName().toLowerCase().endsWith(".sh")) {
+      zipEntry.setUnixMode(FILE_RWXR_XR_X);
+    } else if (entitiesUnixPermissions.containsKey(path)) {
+      zipEntry.setUnixMode(entitiesUnixPermissions.get(path));
+    }
+    return zipEntry;
+  }
+
+  private static boolean isSymbolicLink(@NotNull final ZipArchiveEntry zipEntry) {
+    return (zipEntry.getUnixMode() & UnixStat.LINK_FLAG) == UnixStat.LINK_FLAG;
+  }
+
   private static void appendPath(@NotNull final File file, @NotNull final StringBuilder pathBuilder, final boolean isFirst) {
     if (!isFirst || file.isFile()) { // Don't add the name of root directory.
       pathBuilder.append(file.getName());
@@ -522,15 +980,41 @@ public abstract class ArchiveUtil extends BaseArchiveUtil {
     }
   }
 
+  /**
+   * Packs the entire content of the input stream with zstd and puts it into the output stream.
+   * The caller is responsible for closing both streams.
+   *
+   * @param out output stream
+   * @param in  input stream
+   */
+  public static void packStreamZst(@NotNull final OutputStream out, @NotNull final InputStream in) throws IOException {
+    try (OutputStream zstd = ZstdCompressionUtils.newCompressingStream(CloseShieldOutputStream.wrap(out), ZstdProperties.getCompressionLevel(), 0)) {
+      StreamUtil.copyStreamContent(in, zstd);
+    }
+  }
+
   /**
    * Unpacks the entire content of the input stream and puts it into the output stream.
+   * The format is detected by its magic bytes, so both gzip data of {@link #packStream} and zstd data
+   * of {@link #packStreamZst} are accepted.
    * The caller is responsible for closing both streams.
    *
    * @param out output stream
    * @param in  input stream
    */
   public static void unpackStream(@NotNull final OutputStream out, @NotNull final InputStream in) throws IOException {
-    StreamUtil.copyStreamContent(new GZIPInputStream(in), out);
+    final InputStream packed = in.markSupported() ? in : new BufferedInputStream(in);
+    packed.mark(ArchiveFormat.HEADER_SIZE);
+    final ArchiveFormat format = ArchiveFormatDetector.detect(packed);
+    packed.reset();
+    if (format == ArchiveFormat.ZSTD) {
+      try (ZstdInputStream zstd = new ZstdInputStream(CloseShieldInputStream.wrap(packed), RecyclingBufferPool.INSTANCE)) {
+        zstd.setLongMax(ZstdProperties.getDecompressWindowLogMax());
+        StreamUtil.copyStreamContent(zstd, out);
+      }
+    } else {
+      StreamUtil.copyStreamContent(new GZIPInputStream(packed), out);
+    }
   }
 
   @Nullable
@@ -545,6 +1029,21 @@ public abstract class ArchiveUtil extends BaseArchiveUtil {
     }
   }
 
+  @Nullable
+  public static byte[] packBytesZst(@Nullable byte[] unpacked) {
+    try {
+      if (unpacked == null) return null;
+      ByteArrayOutputStream bas = new ByteArrayOutputStream();
+      packStreamZst(bas, new ByteArrayInputStream(unpacked));
+      return bas.toByteArray();
+    } catch (IOException e) {
+      throw new RuntimeException("Failed to pack bytes", e);
+    }
+  }
+
+  /**
+   * Unpacks bytes packed by {@link #packBytes} or {@link #packBytesZst}.
+   */
   @Nullable
   public static byte[] unpackBytes(@Nullable byte[] packed) {
     try {
@@ -603,12 +1102,36 @@ public abstract class ArchiveUtil extends BaseArchiveUtil {
     return fileName + GZ;
   }
 
+  /**
+   * Adds ".zst" to the file name
+   *
+   * @param file file
+   * @return new file in the same location
+   */
+  @NotNull
+  public static File getZstPackedFile(@NotNull final File file) {
+    final File parentFile = file.getParentFile();
+    final String packedFileName = getZstPackedFileName(file.getName());
+    return parentFile != null ? new File(parentFile, packedFileName) : new File(packedFileName);
+  }
+
+  /**
+   * adds ".zst" to the given file name
+   *
+   * @param fileName file name
+   * @return fileName + ".zst"
+   */
+  @NotNull
+  public static String getZstPackedFileName(@NotNull final String fileName) {
+    return fileName + ZST;
+  }
+
   public static boolean isPackedFile(@NotNull final File file) {
     return isPackedFileName(file.getName());
   }
 
   public static boolean isPackedFileName(@NotNull final String fileName) {
-    return fileName.endsWith(GZ);
+    return fileName.endsWith(GZ) || fileName.endsWith(ZST);
   }
 
   /**
@@ -641,17 +1164,40 @@ public abstract class ArchiveUtil extends BaseArchiveUtil {
     }
   }
 
+  /**
+   * Creates a zstd packed file "file.ext.zst" from the given file "file.ext".
+   * If the target file exists before calling this method it will be overwritten.
+   *
+   * @param srcFile the given file
+   * @return the packed file
+   * @throws IOException if a problem occurs during file operations
+   */
+  @NotNull
+  public static File packFileZst(@NotNull final File srcFile) throws IOException {
+    final File packedFile = getZstPackedFile(srcFile);
+    packFileToZst(packedFile, srcFile);
+    return packedFile;
+  }
+
+  /**
+   * Packs the content of the source file to the destination file with zstd.
+   * If the destination file exists it will be overwritten.
+   *
+   * @param dstFile destination file
+   * @param srcFile source file
+   * @throws IOException if a problem occurs during file operations
+   */
+  public static void packFileToZst(@NotNull final File dstFile, @NotNull final File srcFile) throws IOException {
+    try (FileInputStream input = new FileInputStream(srcFile);
+         FileOutputStream output = new FileOutputStream(dstFile)) {
+      packStreamZst(output, input);
+    }
+  }
+
   // copied from com.intellij.util.io.ZipUtil
   public static boolean isZipContainsEntry(File zip, String relativePath) throws IOException {
-    try (ZipFile zipFile = new ZipFile(zip)) {
-      final Enumeration<? extends ZipEntry> en = zipFile.entries();
-      while (en.hasMoreElements()) {
-        ZipEntry zipEntry = en.nextElement();
-        if (relativePath.equals(zipEntry.getName())) {
-          return true;
-        }
-      }
-      return false;
+    try (ZipFileCache.Lease lease = ZipFileCache.open(zip, StandardCharsets.UTF_8.name())) {
+      return lease.getZipFile().getEntry(relativePath) != null;
     }
   }
 
@@ -668,43 +1214,25 @@ public abstract class ArchiveUtil extends BaseArchiveUtil {
   @NotNull
   public static Collection<ArchivedFileInfo> getArchivedFolderEntries(@NotNull final ArchiveFileDescriptor archive, @NotNull final String innerPathToFolder) throws IOException {
     final Deque<String> segments = new LinkedList<>(splitByArchivePathSeparator(innerPathToFolder, true));
+    final String folder = segments.peekLast();
     final InputStream archiveInputStream = archive.getInputStream();
     final List<Closeable> toClose = new ArrayList<>();
     toClose.add(archiveInputStream);
     try {
-      ArchiveInputStream stream = getArchiveInputStream(archive.getName(), archiveInputStream);
-      while (true) {
-        if (stream == null) {
-          throw new FileNotFoundException("File " + innerPathToFolder + " not found in " + archive + ": archive not supported");
-        }
-        toClose.add(stream);
-        final String segment = StringUtil.removeLeadingSlash(StringUtil.convertAndCollapseSlashes(segments.poll()));
-        if (segments.isEmpty()) {
-          final ArchiveEntryToArchivedFileInfoConverter converter = new ArchiveEntryToArchivedFileInfoConverter();
-          for (ArchiveEntry entry = stream.getNextEntry(); entry != null; entry = stream.getNextEntry()) {
-            final String name = StringUtil.removeLeadingSlash(StringUtil.convertAndCollapseSlashes(entry.getName()));
-            if (equalsIgnoringTLSlashes(innerPathToFolder, name)) {
-              continue;
-            }
-            if (!name.startsWith(segment)) {
-              continue;
-            }
-            final String nta = StringUtil.removeLeadingAndTailingSlash(name.substring(segment.length()));
-            if (StringUtil.isEmptyOrSpaces(nta)) {
-              continue;
-            }
-            converter.add(nta, entry);
-          }
-          return converter.convert();
-        } else {
-          final ArchiveEntry entry = positionArchivedPath(stream, segment);
-          if (entry == null) {
-            throw new FileNotFoundException("File " + innerPathToFolder + " not found in " + archive);
-          }
-          final String name = StringUtil.convertAndCollapseSlashes(entry.getName());
-          stream = getArchiveInputStream(name, new BufferedInputStream(stream));
+      final DirectoryTrieCache cache = archiveInputStream instanceof FileAware ? DirectoryTrieCache.getDefault() : null;
+      final String key = cache != null ? DirectoryTrieCache.computeKey(((FileAware)archiveInputStream).getFile(), getInnerArchivePath(innerPathToFolder)) : null;
+      DirectoryTrie trie = cache != null ? cache.get(key) : null;
+      if (trie == null) {
+        trie = buildDirectoryTrie(archive, innerPathToFolder, segments, archiveInputStream, toClose);
+        if (cache != null) {
+          cache.put(key, trie);
         }
       }
+      final List<DirectoryTrie.Node> children = trie.list(folder);
+      if (children == null) {
+        return Collections.emptyList();
+      }
+      return CollectionsUtil.convertCollection(children, node -> new ArchivedFileInfo(node.getName(), node.getSize(), node.getTimestamp(), node.isDirectory()));
     } finally {
       Collections.reverse(toClose);
       for (Closeable closeable : toClose) {
@@ -713,6 +1241,76 @@ public abstract class ArchiveUtil extends BaseArchiveUtil {
     }
   }
 
+  /**
+   * Reads the directory structure of the innermost archive of the path; the archive streams opened on the way
+   * are added to toClose.
+   */
+  @NotNull
+  private static DirectoryTrie buildDirectoryTrie(@NotNull final ArchiveFileDescriptor archive,
+                                                  @NotNull final String innerPathToFolder,
+                                                  @NotNull final Deque<String> segments,
+                                                  @NotNull final InputStream archiveInputStream,
+                                                  @NotNull final List<Closeable> toClose) throws IOException {
+    ArchiveInputStream stream = getArchiveInputStream(archive.getName(), archiveInputStream);
+    while (true) {
+      if (stream == null) {
+        throw new FileNotFoundException("File " + innerPathToFolder + " not found in " + archive + ": archive not supported");
+      }
+      toClose.add(stream);
+      final String segment = StringUtil.removeLeadingSlash(StringUtil.convertAndCollapseSlashes(segments.poll()));
+      if (segments.isEmpty()) {
+        final DirectoryTrie.Builder trie = DirectoryTrie.builder();
+        for (ArchiveEntry entry = stream.getNextEntry(); entry != null; entry = stream.getNextEntry()) {
+          final Date lastModified = entry.getLastModifiedDate();
+          trie.add(entry.getName(), entry.getSize(), lastModified != null ? lastModified.getTime() : ArchivedFileInfo.SIZE_UNKNOWN, entry.isDirectory());
+        }
+        return trie.build();
+      }
+      final ArchiveEntry entry = positionArchivedPath(stream, segment);
+      if (entry == null) {
+        throw new FileNotFoundException("File " + innerPathToFolder + " not found in " + archive);
+      }
+      stream = openNestedArchive(StringUtil.convertAndCollapseSlashes(entry.getName()), stream);
+    }
+  }
+
+  /**
+   * Opens an archive stored as an entry of another one. A nested zip is copied to a temp file and read through its
+   * central directory, so its entries are looked up directly and zstd compressed entries can be decoded;
+   * the temp file is deleted when the returned stream is closed.
+   */
+  @Nullable
+  private static ArchiveInputStream openNestedArchive(@NotNull final String name, @NotNull final InputStream stream) throws IOException {
+    if (getArchiveType(name) != ArchiveType.ZIP) {
+      return getArchiveInputStream(name, new BufferedInputStream(stream));
+    }
+    final StagingArea stagingArea = new TempStagingArea(true);
+    try {
+      final File file = stagingArea.createTempFile();
+      Files.copy(stream, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      final ZipFile zipFile = ZipFileCache.openZipFile(file, DEFAULT_ZIP_ENCODING);
+      return new RandomAccessZipArchiveInputStream(new ZipFileArchiveInputStream(zipFile, () -> {
+        try {
+          zipFile.close();
+        } finally {
+          stagingArea.cleanup();
+        }
+      }));
+    } catch (IOException | RuntimeException e) {
+      stagingArea.cleanup();
+      throw e;
+    }
+  }
+
+  /**
+   * @return the path up to the last "!/" separator, i.e. the nested archive holding the folder, or "" for the outer archive
+   */
+  @NotNull
+  private static String getInnerArchivePath(@NotNull final String innerPathToFolder) {
+    final int separator = innerPathToFolder.lastIndexOf(ARCHIVE_PATH_SEPARATOR);
+    return separator >= 0 ? innerPathToFolder.substring(0, separator) : "";
+  }
+
   /**
    * Splits path by #ARCHIVE_PATH_SEPARATOR ("!/").
    *
@@ -732,6 +1330,13 @@ public abstract class ArchiveUtil extends BaseArchiveUtil {
 
   @Nullable
   private static ArchiveEntry positionArchivedPath(@NotNull final ArchiveInputStream stream, @NotNull String path) throws IOException {
+    if (stream instanceof RandomAccessZipArchiveInputStream) {
+      final ArchiveEntry entry = ((RandomAccessZipArchiveInputStream)stream).positionAt(StringUtil.removeLeadingAndTailingSlash(path));
+      if (entry != null) {
+        return entry;
+      }
+      // names with leading or repeated slashes are only found by comparing them normalized
+    }
     for (ArchiveEntry entry = stream.getNextEntry(); entry != null; entry = stream.getNextEntry()) {
       final String name = StringUtil.convertAndCollapseSlashes(entry.getName());
       if (equalsIgnoringTLSlashes(name, path)) {
@@ -810,7 +1415,7 @@ public abstract class ArchiveUtil extends BaseArchiveUtil {
           }
           return result;
         }
-        stream = getArchiveInputStream(found, new BufferedInputStream(stream));
+        stream = openNestedArchive(found, stream);
       }
     } finally {
       if (closeRequired) {
@@ -921,41 +1526,22 @@ public abstract class ArchiveUtil extends BaseArchiveUtil {
     return parent;
   }
 
-  private static class ArchiveEntryToArchivedFileInfoConverter {
-    // value is ArchiveEntry or null for directory
-    private final Map<String, ArchiveEntry> myMap = new LinkedHashMap<>();
+  /**
+   * Zip stream backed by a zip file, which looks up entries by name through the central directory.
+   */
+  private static class RandomAccessZipArchiveInputStream extends ApacheZipSlipAwareArchiveInputStream {
+    private final ZipFileArchiveInputStream myZipStream;
 
-    public void add(@NotNull String name, @NotNull ArchiveEntry entry) {
-      name = StringUtil.removeLeadingAndTailingSlash(name);
-      if (name.contains("/")) {
-        // generated new directory
-        //noinspection ConstantConditions
-        myMap.put(name.substring(0, name.indexOf('/')), null);
-      } else {
-        // 'entry' may be used
-        myMap.put(name, entry);
-      }
-    }
-
-    @NotNull
-    public Collection<ArchivedFileInfo> convert() {
-      return CollectionsUtil.convertCollection(myMap.entrySet(), source -> {
-        final String name = source.getKey();
-        long size;
-        long timestamp;
-        boolean isDirectory;
-        final ArchiveEntry entry = source.getValue();
-        if (entry != null) {
-          size = entry.getSize();
-          timestamp = entry.getLastModifiedDate() != null ? entry.getLastModifiedDate().getTime() : ArchivedFileInfo.SIZE_UNKNOWN;
-          isDirectory = entry.isDirectory();
-        } else {
-          size = ArchivedFileInfo.SIZE_UNKNOWN;
-          timestamp = 0;
-          isDirectory = true;
-        }
-        return new ArchivedFileInfo(name, size, timestamp, isDirectory);
-      });
+    RandomAccessZipArchiveInputStream(@NotNull final ZipFileArchiveInputStream zipStream) {
+      super(zipStream);
+      myZipStream = zipStream;
+    }
+
+    @Nullable
+    ArchiveEntry positionAt(@NotNull final String name) throws IOException {
+      final ArchiveEntry entry = myZipStream.positionAt(name);
+      // unsafe names are left to the sequential scan, which applies the zip slip checks
+      return entry != null && isNameAllowed(entry.getName()) ? entry : null;
     }
   }
 
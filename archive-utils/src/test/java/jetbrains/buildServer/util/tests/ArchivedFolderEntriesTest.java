@@ -0,0 +1,101 @@
+package jetbrains.buildServer.util.tests;
+
+import jetbrains.buildServer.util.ArchiveUtil;
+import jetbrains.buildServer.util.impl.FileAware;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ArchivedFolderEntriesTest extends BaseArchiveTest {
+
+  private static class FileAwareInputStream extends FileInputStream implements FileAware {
+    private final File file;
+
+    FileAwareInputStream(File file) throws IOException {
+      super(file);
+      this.file = file;
+    }
+
+    @Override
+    public File getFile() {
+      return file;
+    }
+  }
+
+  private static ArchiveUtil.ArchiveFileDescriptor descriptor(File archive) {
+    return new ArchiveUtil.ArchiveFileDescriptor() {
+      @Override
+      public InputStream getInputStream() throws IOException {
+        return new FileAwareInputStream(archive);
+      }
+
+      @Override
+      public String getName() {
+        return archive.getName();
+      }
+
+      @NotNull
+      @Override
+      public String toString() {
+        return archive.getAbsolutePath();
+      }
+    };
+  }
+
+  @Test
+  public void testFoldersOfPackedArchivesAreListed() throws IOException {
+    File tar = new File(TMP_ROOT, "listed.tar.zst");
+    ArchiveUtil.packTarZst(tar, Collections.singletonList(SOURCE), 3, 2);
+    File zip = new File(TMP_ROOT, "listed.zip.zst");
+    ArchiveUtil.packZipZst(zip, Collections.singletonList(SOURCE), 3, 1);
+
+    for (File archive : new File[]{tar, zip}) {
+      for (int i = 0; i < 2; i++) {
+        Map<String, ArchiveUtil.ArchivedFileInfo> root = list(archive, "/");
+        assertEquals(4, root.size(), archive.getName() + ": " + root.keySet());
+        assertTrue(root.get("bin").isDirectory());
+        assertEquals(new File(SOURCE, "text.txt").length(), root.get("text.txt").getSize());
+
+        Map<String, ArchiveUtil.ArchivedFileInfo> bin = list(archive, "bin/");
+        assertEquals(new File(SOURCE, "bin/data.bin").length(), bin.get("data.bin").getSize());
+        assertTrue(list(archive, "missing/").isEmpty());
+      }
+    }
+  }
+
+  @Test
+  public void testFoldersOfNestedArchivesAreListed() throws IOException {
+    File inner = new File(TMP_ROOT, "inner.zip");
+    ArchiveUtil.packZip(Collections.singletonList(SOURCE), inner, Collections.emptyMap(), false, 1, ZipArchiveEntry.DEFLATED);
+    File outer = new File(TMP_ROOT, "outer.zip");
+    try (ZipArchiveOutputStream out = new ZipArchiveOutputStream(outer)) {
+      out.putArchiveEntry(new ZipArchiveEntry(inner, "nested/inner.zip"));
+      Files.copy(inner.toPath(), out);
+      out.closeArchiveEntry();
+    }
+
+    Map<String, ArchiveUtil.ArchivedFileInfo> nested = list(outer, "nested/");
+    assertEquals(Collections.singleton("inner.zip"), nested.keySet());
+    Map<String, ArchiveUtil.ArchivedFileInfo> bin = list(outer, "nested/inner.zip!/bin/");
+    assertEquals(Collections.singleton("data.bin"), bin.keySet());
+    assertEquals(new File(SOURCE, "bin/data.bin").length(), bin.get("data.bin").getSize());
+  }
+
+  private static Map<String, ArchiveUtil.ArchivedFileInfo> list(File archive, String folder) throws IOException {
+    Collection<ArchiveUtil.ArchivedFileInfo> entries = ArchiveUtil.getArchivedFolderEntries(descriptor(archive), folder);
+    return entries.stream().collect(Collectors.toMap(ArchiveUtil.ArchivedFileInfo::getName, info -> info));
+  }
+}
@@ -0,0 +1,66 @@
+package jetbrains.buildServer.util.tests;
+
+import org.junit.jupiter.api.BeforeAll;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BaseArchiveTest {
+
+  static File TMP_ROOT = null;
+  static File SOURCE = null;
+
+  /**
+  * Target of the symbolic link {@code link} in the source folder.
+  */
+  static final String LINK_TARGET = "text.txt";
+
+  @BeforeAll
+  public static void beforeAll() throws IOException {
+    TMP_ROOT = Files.createTempDirectory("archive_utils_test_run").toFile();
+    System.out.println("Running tests in " + TMP_ROOT.getAbsoluteFile());
+    SOURCE = new File(TMP_ROOT, "source");
+    createSourceFolder(SOURCE);
+  }
+
+  /**
+  * Creates text.txt, run.sh (mode 755), link (a symbolic link to text.txt), bin/data.bin with incompressible
+  * content and bin/empty/ as an empty folder.
+  */
+  static void createSourceFolder(File root) throws IOException {
+    File bin = new File(root, "bin");
+    assertTrue(new File(bin, "empty").mkdirs());
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      text.append("line ").append(i).append(" of a build log\n");
+    }
+    Files.write(new File(root, "text.txt").toPath(), text.toString().getBytes(StandardCharsets.UTF_8));
+    Path script = new File(root, "run.sh").toPath();
+    Files.write(script, "#!/bin/sh\necho run\n".getBytes(StandardCharsets.UTF_8));
+    Files.setPosixFilePermissions(script, PosixFilePermissions.fromString("rwxr-xr-x"));
+    byte[] data = new byte[300 * 1024];
+    new Random(42).nextBytes(data);
+    Files.write(new File(bin, "data.bin").toPath(), data);
+    Files.createSymbolicLink(new File(root, "link").toPath(), new File(LINK_TARGET).toPath());
+  }
+
+  static byte[] read(File root, String path) throws IOException {
+    return Files.readAllBytes(new File(root, path).toPath());
+  }
+
+  /**
+  * Checks that the regular files of the source folder were unpacked into the target.
+  */
+  static void assertUnpacked(File target) throws IOException {
+    assertArrayEquals(read(SOURCE, "text.txt"), read(target, "text.txt"));
+    assertArrayEquals(read(SOURCE, "run.sh"), read(target, "run.sh"));
+    assertArrayEquals(read(SOURCE, "bin/data.bin"), read(target, "bin/data.bin"));
+  }
+}
@@ -0,0 +1,80 @@
+package jetbrains.buildServer.util.tests;
+
+import jetbrains.buildServer.util.ArchiveUtil;
+import jetbrains.buildServer.util.ZipSlipAwareZipInputStream;
+import net.quasardb.teamcity.compression.utils.ZipZstdSupport;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.zip.ZipEntry;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ZipUnpackingTest extends BaseArchiveTest {
+
+  @Test
+  public void testDeflatedZipIsUnpackedOnWorkers() throws IOException {
+    File zip = new File(TMP_ROOT, "deflated.zip");
+    ArchiveUtil.packZip(Collections.singletonList(SOURCE), zip, Collections.emptyMap(), false, 2, ZipEntry.DEFLATED);
+
+    for (int workers : new int[]{1, 4}) {
+      File target = new File(TMP_ROOT, "deflated_" + workers);
+      ArchiveUtil.unpackZipOrThrow(zip, "", target, true, workers);
+      assertUnpacked(target);
+    }
+    File prefixed = new File(TMP_ROOT, "deflated_prefix");
+    assertTrue(ArchiveUtil.unpackZip(zip, "bin/", prefixed));
+    assertArrayEquals(read(SOURCE, "bin/data.bin"), read(prefixed, "data.bin"));
+    assertFalse(new File(prefixed, "text.txt").exists());
+  }
+
+  @Test
+  public void testZstdEntriesAreUnpackedThroughCentralDirectory() throws IOException {
+    File zip = new File(TMP_ROOT, "zstd_entries.zip");
+    ArchiveUtil.packZip(Collections.singletonList(SOURCE), zip, Collections.emptyMap(), false, 2, ZipZstdSupport.ZSTD_METHOD);
+    try (ZipFile zipFile = ZipFile.builder().setFile(zip).get()) {
+      ZipArchiveEntry entry = zipFile.getEntry("bin/data.bin");
+      assertNotNull(entry);
+      assertEquals(ZipZstdSupport.ZSTD_METHOD, entry.getMethod());
+    }
+
+    for (int workers : new int[]{1, 4}) {
+      File target = new File(TMP_ROOT, "zstd_entries_" + workers);
+      ArchiveUtil.unpackZipOrThrow(zip, "", target, true, workers);
+      assertUnpacked(target);
+    }
+    File unpacked = new File(TMP_ROOT, "zstd_entries_default");
+    assertTrue(ArchiveUtil.unpackZip(zip, unpacked));
+    assertUnpacked(unpacked);
+  }
+
+  @Test
+  public void testZstdEntriesAreReportedWhenStreamed() throws IOException {
+    File zip = new File(TMP_ROOT, "zstd_streamed.zip");
+    ArchiveUtil.packZip(Collections.singletonList(SOURCE), zip, Collections.emptyMap(), false, 1, ZipZstdSupport.ZSTD_METHOD);
+
+    assertFalse(ArchiveUtil.unpackZip(new ZipSlipAwareZipInputStream(new FileInputStream(zip)), new File(TMP_ROOT, "zstd_streamed")));
+
+    File deflated = new File(TMP_ROOT, "deflated_streamed.zip");
+    ArchiveUtil.packZip(Collections.singletonList(SOURCE), deflated, Collections.emptyMap(), false, 1, ZipEntry.DEFLATED);
+    File target = new File(TMP_ROOT, "deflated_streamed");
+    assertTrue(ArchiveUtil.unpackZip(new ZipSlipAwareZipInputStream(new FileInputStream(deflated)), target));
+    assertUnpacked(target);
+  }
+
+  @Test
+  public void testLegacyZipIsUnpacked() throws IOException {
+    File zip = new File(TMP_ROOT, "legacy.zip");
+    assertTrue(ArchiveUtil.packZip(zip, Collections.singletonList(SOURCE)));
+
+    File target = new File(TMP_ROOT, "legacy");
+    assertTrue(ArchiveUtil.unpackZip(zip, target));
+    assertUnpacked(target);
+    assertTrue(ArchiveUtil.isZipContainsEntry(zip, "bin/data.bin"));
+  }
+}
@@ -0,0 +1,135 @@
+package jetbrains.buildServer.util.tests;
+
+import jetbrains.buildServer.util.ArchiveUtil;
+import net.quasardb.teamcity.compression.seekable.SeekableZstdChannel;
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ZstdPackingTest extends BaseArchiveTest {
+
+  @Test
+  public void testTarZstRoundTrip() throws IOException {
+    for (int workers : new int[]{1, 2}) {
+      File archive = new File(TMP_ROOT, "packed_" + workers + ".tar.zst");
+      ArchiveUtil.packTarZst(archive, Collections.singletonList(SOURCE), 3, workers);
+      assertEquals(workers > 1, SeekableZstdChannel.isSeekable(archive));
+
+      Map<String, ArchiveEntry> entries = new HashMap<>();
+      Map<String, byte[]> contents = readArchive(archive, entries);
+      assertArrayEquals(read(SOURCE, "text.txt"), contents.get("text.txt"));
+      assertArrayEquals(read(SOURCE, "bin/data.bin"), contents.get("bin/data.bin"));
+      assertTrue(entries.get("bin/empty/").isDirectory());
+
+      TarArchiveEntry script = (TarArchiveEntry) entries.get("run.sh");
+      assertEquals(0755, script.getMode() & 0777);
+      TarArchiveEntry link = (TarArchiveEntry) entries.get("link");
+      assertTrue(link.isSymbolicLink());
+      assertEquals(LINK_TARGET, link.getLinkName());
+    }
+  }
+
+  @Test
+  public void testZipZstRoundTrip() throws IOException {
+    for (int workers : new int[]{1, 2}) {
+      File archive = new File(TMP_ROOT, "packed_" + workers + ".zip.zst");
+      ArchiveUtil.packZipZst(archive, Collections.singletonList(SOURCE), 3, workers);
+      assertEquals(workers > 1, SeekableZstdChannel.isSeekable(archive));
+
+      Map<String, ArchiveEntry> entries = new HashMap<>();
+      Map<String, byte[]> contents = readArchive(archive, entries);
+      assertArrayEquals(read(SOURCE, "text.txt"), contents.get("text.txt"));
+      assertArrayEquals(read(SOURCE, "bin/data.bin"), contents.get("bin/data.bin"));
+
+      ZipArchiveEntry script = (ZipArchiveEntry) entries.get("run.sh");
+      assertEquals(0755, script.getUnixMode() & 0777);
+      ZipArchiveEntry link = (ZipArchiveEntry) entries.get("link");
+      assertTrue(link.isUnixSymlink());
+      assertEquals(LINK_TARGET, new String(contents.get("link"), StandardCharsets.UTF_8));
+    }
+  }
+
+  @Test
+  public void testStreamFormatIsDetected() throws IOException {
+    byte[] content = read(SOURCE, "text.txt");
+
+    ByteArrayOutputStream zstd = new ByteArrayOutputStream();
+    ArchiveUtil.packStreamZst(zstd, new ByteArrayInputStream(content));
+    ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+    ArchiveUtil.packStream(gzip, new ByteArrayInputStream(content));
+    assertTrue(zstd.size() < content.length);
+    assertTrue(gzip.size() < content.length);
+
+    for (ByteArrayOutputStream packed : new ByteArrayOutputStream[]{zstd, gzip}) {
+      ByteArrayOutputStream unpacked = new ByteArrayOutputStream();
+      ArchiveUtil.unpackStream(unpacked, new ByteArrayInputStream(packed.toByteArray()));
+      assertArrayEquals(content, unpacked.toByteArray());
+    }
+    assertArrayEquals(content, ArchiveUtil.unpackBytes(ArchiveUtil.packBytesZst(content)));
+    assertArrayEquals(content, ArchiveUtil.unpackBytes(ArchiveUtil.packBytes(content)));
+  }
+
+  @Test
+  public void testPackedFileIsUnpacked() throws IOException {
+    File packed = ArchiveUtil.packFileZst(new File(SOURCE, "bin/data.bin"));
+    try {
+      assertEquals("data.bin.zst", packed.getName());
+      ByteArrayOutputStream unpacked = new ByteArrayOutputStream();
+      try (InputStream in = new FileInputStream(packed)) {
+        ArchiveUtil.unpackStream(unpacked, in);
+      }
+      assertArrayEquals(read(SOURCE, "bin/data.bin"), unpacked.toByteArray());
+    } finally {
+      Files.delete(packed.toPath());
+    }
+  }
+
+  @Test
+  public void testGzipTarIsStillRead() throws IOException {
+    File archive = new File(TMP_ROOT, "legacy.tar.gz");
+    try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(archive.toPath()));
+      TarArchiveOutputStream tar = new TarArchiveOutputStream(out, StandardCharsets.UTF_8.name())) {
+      File text = new File(SOURCE, "text.txt");
+      tar.putArchiveEntry(new TarArchiveEntry(text, "logs/text.txt"));
+      Files.copy(text.toPath(), tar);
+      tar.closeArchiveEntry();
+    }
+
+    Map<String, byte[]> contents = readArchive(archive, new HashMap<>());
+    assertArrayEquals(read(SOURCE, "text.txt"), contents.get("logs/text.txt"));
+  }
+
+  private static Map<String, byte[]> readArchive(File archive, Map<String, ArchiveEntry> entries) throws IOException {
+    Map<String, byte[]> contents = new HashMap<>();
+    try (ArchiveInputStream<?> in = ArchiveUtil.getArchiveInputStream(archive.getName(), new FileInputStream(archive))) {
+      assertNotNull(in, "no reader for " + archive.getName());
+      for (ArchiveEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+        entries.put(entry.getName(), entry);
+        if (!entry.isDirectory()) {
+          contents.put(entry.getName(), IOUtils.toByteArray(in));
+        }
+      }
+    }
+    return contents;
+  }
+}
@@ -3,19 +3,32 @@ package net.quasardb.teamcity.compression.agent.extractor;
 import com.github.luben.zstd.util.ZstdVersion;
 import jetbrains.buildServer.ExtensionHolder;
 import jetbrains.buildServer.agent.AgentExtension;
+import jetbrains.buildServer.agent.BuildAgentConfiguration;
 import net.quasardb.teamcity.compression.ZstdExtractor;
+import net.quasardb.teamcity.compression.cache.DecompressedCache;
+import net.quasardb.teamcity.compression.cache.impl.LruDecompressedCache;
+import net.quasardb.teamcity.compression.config.ZstdProperties;
+import net.quasardb.teamcity.compression.filesystem.StagingManager;
 import net.quasardb.teamcity.compression.logging.Logger;
 
+import java.io.File;
+
 public class ZstdAgentArchiveExtractor implements ZstdExtractor, AgentExtension {
 
+    private static final String CACHE_KEY = "zstd";
+
     private final ExtensionHolder extensionHolder;
+    private final BuildAgentConfiguration agentConfiguration;
+    private volatile DecompressedCache decompressedCache;
     private static ZstdExtractor INSTANCE;
 
-    public ZstdAgentArchiveExtractor(ExtensionHolder extensionHolder) {
+    public ZstdAgentArchiveExtractor(ExtensionHolder extensionHolder, BuildAgentConfiguration agentConfiguration) {
         this.extensionHolder = extensionHolder;
+        this.agentConfiguration = agentConfiguration;
         Logger.info("ZSTD Agent Extractor loaded");
         loadNativeZstdLib();
         Logger.info("ZSTD Agent Lib version: " + ZstdVersion.VERSION);
+        StagingManager.getInstance().sweepOrphansAsync();
     }
 
     @Override
@@ -23,6 +36,24 @@ public class ZstdAgentArchiveExtractor implements ZstdExtractor, AgentExtension
         return this.extensionHolder;
     }
 
+    @Override
+    public DecompressedCache getDecompressedCache() {
+        if (!ZstdProperties.isCacheEnabled()) {
+            return null;
+        }
+        if (decompressedCache == null) {
+            synchronized (this) {
+                if (decompressedCache == null) {
+                    String cacheDir = ZstdProperties.getCacheDir();
+                    File directory = cacheDir != null ? new File(cacheDir) : agentConfiguration.getCacheDirectory(CACHE_KEY);
+                    Logger.info("ZSTD decompressed payload cache: " + directory);
+                    decompressedCache = new LruDecompressedCache(directory, ZstdProperties.getCacheMaxSizeBytes());
+                }
+            }
+        }
+        return decompressedCache;
+    }
+
     @Override
     public void postRegister() {
         INSTANCE = this;
@@ -1,28 +1,71 @@
 package net.quasardb.teamcity.compression;
 
+import com.github.luben.zstd.RecyclingBufferPool;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdInputStream;
 import com.github.luben.zstd.util.Native;
 import jetbrains.buildServer.ExtensionHolder;
 import jetbrains.buildServer.util.ArchiveExtractor;
 import jetbrains.buildServer.util.ArchiveFileSelector;
+import net.quasardb.teamcity.compression.cache.DecompressedCache;
+import net.quasardb.teamcity.compression.cache.ZipFileCache;
+import net.quasardb.teamcity.compression.config.ZstdProperties;
+import net.quasardb.teamcity.compression.detect.ArchiveFormat;
+import net.quasardb.teamcity.compression.detect.ArchiveFormatDetector;
+import net.quasardb.teamcity.compression.detect.ArchiveTypeDispatcher;
+import net.quasardb.teamcity.compression.dictionary.DictionaryRegistry;
+import net.quasardb.teamcity.compression.dictionary.impl.FileDictionaryRegistry;
+import net.quasardb.teamcity.compression.extract.EntryWriter;
+import net.quasardb.teamcity.compression.extract.impl.ParallelEntryWriter;
+import net.quasardb.teamcity.compression.extract.impl.SequentialEntryWriter;
+import net.quasardb.teamcity.compression.filesystem.PreallocatedFileOutputStream;
 import net.quasardb.teamcity.compression.filesystem.StagingArea;
 import net.quasardb.teamcity.compression.filesystem.impl.TempStagingArea;
+import net.quasardb.teamcity.compression.flight.SingleFlight;
+import net.quasardb.teamcity.compression.frame.ZstdFrameHeader;
+import net.quasardb.teamcity.compression.frame.ZstdFrameScanner;
+import net.quasardb.teamcity.compression.index.EntryIndex;
+import net.quasardb.teamcity.compression.index.EntryIndexStore;
 import net.quasardb.teamcity.compression.logging.Logger;
+import net.quasardb.teamcity.compression.mapped.MappedZstdDecompressor;
+import net.quasardb.teamcity.compression.memory.MemoryGovernor;
+import net.quasardb.teamcity.compression.parallel.ParallelZstdInputStream;
+import net.quasardb.teamcity.compression.seekable.SeekableTarArchiveInputStream;
+import net.quasardb.teamcity.compression.seekable.SeekableZstdChannel;
+import net.quasardb.teamcity.compression.seekable.ZipFileArchiveInputStream;
+import net.quasardb.teamcity.compression.utils.ArchiveStreamUtils;
+import net.quasardb.teamcity.compression.utils.FileSystemUtils;
 import net.quasardb.teamcity.compression.utils.ZstdCompressionUtils;
 import org.apache.commons.compress.archivers.ArchiveException;
 import org.apache.commons.compress.archivers.ArchiveInputStream;
 import org.apache.commons.compress.archivers.ArchiveStreamFactory;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.apache.commons.compress.compressors.CompressorException;
-import org.apache.commons.compress.compressors.CompressorInputStream;
-import org.apache.commons.compress.compressors.CompressorStreamFactory;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.TeeInputStream;
+import org.apache.commons.io.output.NullOutputStream;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
 import java.util.*;
 
 public interface ZstdExtractor extends ArchiveExtractor {
 
     String ZSTD_COMPRESSION = "zstd";
+    int TAR_HEADER_SIZE = 512;
+    long DEFAULT_WINDOW_SIZE = 8 * 1024 * 1024;
+    String TAR_ENCODING = "UTF-8";
+    String ZIP_ENCODING = "UTF-8";
+    SingleFlight<DecompressedCache.Lease> PAYLOAD_FLIGHTS = new SingleFlight<>();
+    String[] SINGLE_FILE_EXTENSIONS = {".zst", ".zstd"};
 
     ExtensionHolder getExtensionHolder();
 
@@ -31,15 +74,25 @@ public interface ZstdExtractor extends ArchiveExtractor {
     }
 
     default ArchiveExtractor getArchiveType(@NotNull File archive) {
+        return getArchiveType(archive, archive.getName());
+    }
+
+    /**
+     * @param name name the archive is dispatched by; a staged payload has a temp name and goes by its archive's name
+     */
+    default ArchiveExtractor getArchiveType(@NotNull File archive, @NotNull String name) {
         Logger.debug("Call isSupportedArchiveType for " + archive.getName());
 
-        for( ArchiveExtractor ae: getAvailableArchiveExtractors()){
-            if(ae.isSupported(archive)){
-                Logger.debug("File "+archive.getName()+" type: " + ae);
-                return ae;
-            }
+        ArchiveFormat format = ArchiveFormat.UNKNOWN;
+        try {
+            format = ArchiveFormatDetector.detect(archive);
+        } catch (IOException e) {
+            Logger.error("Caught exception during format detection of archive", e);
         }
-        return null;
+        Collection<ArchiveExtractor> extractors = getExtensionHolder().getExtensions(ArchiveExtractor.class);
+        ArchiveExtractor ae = ArchiveTypeDispatcher.forOwner(getExtensionHolder()).getExtractor(archive, name, extractors, format);
+        Logger.debug("File "+archive.getName()+" type: " + ae);
+        return ae;
     }
 
     @Override
@@ -47,9 +100,7 @@ public interface ZstdExtractor extends ArchiveExtractor {
         Logger.debug("Call isSupported for " + archive.getName());
         boolean result = false;
         try {
-            try (InputStream inputStream = new BufferedInputStream(Files.newInputStream(archive.toPath()))) {
-                result = ZstdCompressionUtils.isZstdCompressed(inputStream);
-            }
+            result = ArchiveFormatDetector.detect(archive) == ArchiveFormat.ZSTD;
         } catch (IOException e) {
             Logger.error("Caught exception during compression test of archive", e);
         }
@@ -62,76 +113,645 @@ public interface ZstdExtractor extends ArchiveExtractor {
         }
     }
 
+    default boolean isZipFile(File file) throws IOException {
+        return ArchiveFormatDetector.detect(file) == ArchiveFormat.ZIP;
+    }
+
     default void processSingleFile(Path file, ArchiveFileSelector archiveFileSelector) throws IOException {
-        File destinationFile = archiveFileSelector.getDestinationFile(file.toFile().getName());
+        processSingleFile(file, file.toFile().getName(), archiveFileSelector);
+    }
+
+    default void processSingleFile(Path file, String entryName, ArchiveFileSelector archiveFileSelector) throws IOException {
+        File destinationFile = archiveFileSelector.getDestinationFile(entryName);
         if (destinationFile != null) {
-            File parentDir = destinationFile.getParentFile();
-            if (parentDir != null) {
-                parentDir.mkdirs();
+            File partialFile = FileSystemUtils.createPartialFile(destinationFile);
+            try {
+                Files.copy(file, partialFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                FileSystemUtils.moveReplacing(partialFile.toPath(), destinationFile.toPath());
+            } finally {
+                Files.deleteIfExists(partialFile.toPath());
             }
-            Files.copy(file, destinationFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
         }
     }
 
+    /**
+     * Name under which a compressed single file is passed to the selector: the archive name without its zstd extension.
+     */
+    default String getSingleFileEntryName(@NotNull File archive) {
+        String name = archive.getName();
+        for (String extension : SINGLE_FILE_EXTENSIONS) {
+            if (name.length() > extension.length() && name.regionMatches(true, name.length() - extension.length(), extension, 0, extension.length())) {
+                return name.substring(0, name.length() - extension.length());
+            }
+        }
+        return name;
+    }
+
+    /**
+     * Checks the first decompressed block for a known archive signature. A compressed payload (gzip, zstd) holds
+     * no entries of its own, so it is a single file as well.
+     * The stream must support mark/reset; it is reset to the start before returning.
+     *
+     * @return true if the payload is a plain file rather than an archive
+     */
+    default boolean isSingleFilePayload(@NotNull InputStream decompressed) throws IOException {
+        decompressed.mark(ArchiveFormat.HEADER_SIZE);
+        ArchiveFormat format;
+        try {
+            format = ArchiveFormatDetector.detect(decompressed);
+        } finally {
+            decompressed.reset();
+        }
+        return format.getArchiverName() == null && ZstdCompressionUtils.detectArchiver(decompressed) == null;
+    }
+
+    /**
+     * Decompresses a single-file archive into a partial file next to its destination and moves it into place,
+     * so that the payload is written once and the destination never holds a truncated file.
+     */
+    default void extractSingleFile(@NotNull File archive, @NotNull InputStream decompressed, @NotNull ArchiveFileSelector archiveFileSelector) throws IOException {
+        String entryName = getSingleFileEntryName(archive);
+        File destinationFile = archiveFileSelector.getDestinationFile(entryName);
+        if (destinationFile == null) {
+            Logger.debug("Single file " + entryName + " is not selected");
+            return;
+        }
+        Logger.debug("Decompressing single file " + entryName + " to " + destinationFile);
+        long decompressedSize = getDecompressedSize(archive);
+        File partialFile = FileSystemUtils.createPartialFile(destinationFile);
+        try {
+            FileSystemUtils.checkFreeSpace(partialFile.getParentFile(), decompressedSize, ZstdProperties.getStagingMinFreeBytes());
+            if (!decompressOneShot(archive, partialFile)) {
+                writePayload(decompressed, partialFile, decompressedSize);
+            }
+            FileSystemUtils.moveReplacing(partialFile.toPath(), destinationFile.toPath());
+        } finally {
+            Files.deleteIfExists(partialFile.toPath());
+        }
+    }
+
+    /**
+     * Extracts entries straight from the decompressed stream when its payload can be read sequentially (tar).
+     * The stream must support mark/reset; it is left untouched when false is returned.
+     *
+     * @return true if the stream was consumed and all selected entries were written
+     */
+    default boolean processArchiveStream(InputStream decompressed, ArchiveFileSelector archiveFileSelector) throws IOException {
+        String archiver = ZstdCompressionUtils.detectArchiver(decompressed);
+        if (!ArchiveStreamFactory.TAR.equals(archiver)) {
+            return false;
+        }
+        Logger.debug("Streaming tar payload without staging");
+        try (EntryWriter entryWriter = createEntryWriter()) {
+            ArchiveStreamUtils.extractTarStream(decompressed, archiveFileSelector, entryWriter);
+        }
+        return true;
+    }
+
+    /**
+     * Creates the writer for extracted entries: a bounded pool of writer threads unless configured to a single thread.
+     */
+    default EntryWriter createEntryWriter() {
+        int writerThreads = ZstdProperties.getWriterThreads();
+        if (writerThreads > 1) {
+            return new ParallelEntryWriter(writerThreads, ZstdProperties.getWriterMaxInFlightBytes());
+        }
+        return new SequentialEntryWriter();
+    }
+
+    /**
+     * Opens the decompressed content of the archive. Multi-frame archives are decoded in parallel,
+     * everything else goes through the sequential zstd decoder. The memory the stream needs is reserved
+     * from the {@link MemoryGovernor} first, so this call waits while concurrent decompressions use the budget.
+     */
+    default InputStream openDecompressedStream(@NotNull File archive) throws IOException {
+        ZstdFrameHeader frameHeader;
+        try (InputStream is = Files.newInputStream(archive.toPath())) {
+            frameHeader = readFrameHeader(is);
+        }
+        ZstdDictDecompress dictionary = findDictionary(frameHeader);
+        ParallelZstdInputStream parallelStream = ParallelZstdInputStream.open(archive, dictionary);
+        if (parallelStream != null) {
+            return MemoryGovernor.getInstance().govern(parallelStream, parallelStream.getMaxBufferedBytes(), archive.getName());
+        }
+        InputStream is = Files.newInputStream(archive.toPath());
+        try {
+            InputStream decompressed = openZstdInputStream(is, dictionary);
+            return MemoryGovernor.getInstance().govern(decompressed, estimateDecoderMemory(frameHeader), archive.getName());
+        } catch (IOException e) {
+            is.close();
+            throw e;
+        }
+    }
+
+    default DictionaryRegistry getDictionaryRegistry() {
+        return FileDictionaryRegistry.getDefault();
+    }
+
+    /**
+     * Reads the header of the first frame from the current position of the stream; use mark/reset to keep it untouched.
+     *
+     * @return the header or null if the stream does not start with a zstd frame
+     */
+    default ZstdFrameHeader readFrameHeader(@NotNull InputStream compressed) throws IOException {
+        byte[] header = new byte[ZstdFrameHeader.MAX_HEADER_SIZE];
+        int length = IOUtils.read(compressed, header);
+        return ZstdFrameHeader.parse(ByteBuffer.wrap(header, 0, length));
+    }
+
+    /**
+     * Looks up the dictionary whose ID is recorded in the frame header.
+     *
+     * @return the dictionary or null if the frame was compressed without one
+     * @throws IOException if the frame needs a dictionary that is not registered
+     */
+    default ZstdDictDecompress findDictionary(@Nullable ZstdFrameHeader frameHeader) throws IOException {
+        if (frameHeader == null || frameHeader.isSkippable() || frameHeader.getDictId() == 0) {
+            return null;
+        }
+        long dictionaryId = frameHeader.getDictId();
+        ZstdDictDecompress dictionary = getDictionaryRegistry().getDecompressDictionary(dictionaryId);
+        if (dictionary == null) {
+            throw new IOException("zstd dictionary " + dictionaryId + " is not registered");
+        }
+        Logger.debug("Decompressing with zstd dictionary " + dictionaryId);
+        return dictionary;
+    }
+
+    /**
+     * Memory of the streaming decoder: the window declared by the frame plus the decoder and read buffers.
+     * Frames without a readable header are assumed to use the default window of the compression levels.
+     */
+    default long estimateDecoderMemory(@Nullable ZstdFrameHeader frameHeader) {
+        long windowSize = frameHeader != null && !frameHeader.isSkippable() && frameHeader.getWindowSize() > 0
+                ? frameHeader.getWindowSize()
+                : DEFAULT_WINDOW_SIZE;
+        return windowSize + ZstdInputStream.recommendedDInSize() + ZstdInputStream.recommendedDOutSize() + ZstdProperties.STREAM_BUFFER_SIZE;
+    }
+
+    /**
+     * Wraps a compressed stream into a zstd decoder using the given dictionary, if any.
+     * Windows up to {@link ZstdProperties#getDecompressWindowLogMax()} are accepted, so long-distance archives decode.
+     * The decoder buffers are recycled between streams.
+     */
+    default InputStream openZstdInputStream(@NotNull InputStream compressed, @Nullable ZstdDictDecompress dictionary) throws IOException {
+        ZstdInputStream decompressed = new ZstdInputStream(compressed, RecyclingBufferPool.INSTANCE);
+        try {
+            decompressed.setLongMax(ZstdProperties.getDecompressWindowLogMax());
+            if (dictionary != null) {
+                decompressed.setDict(dictionary);
+            }
+        } catch (IOException e) {
+            decompressed.close();
+            throw e;
+        }
+        return decompressed;
+    }
+
+    /**
+     * Opens the decompressed content of a compressed stream with the sequential zstd decoder; the memory it needs
+     * is reserved from the {@link MemoryGovernor} first. Closing the returned stream closes the compressed one.
+     */
+    default InputStream openDecompressedStream(@NotNull InputStream inputStream) throws IOException {
+        InputStream compressed = new BufferedInputStream(inputStream);
+        compressed.mark(ZstdFrameHeader.MAX_HEADER_SIZE);
+        ZstdFrameHeader frameHeader = readFrameHeader(compressed);
+        compressed.reset();
+        InputStream decompressed = openZstdInputStream(compressed, findDictionary(frameHeader));
+        return MemoryGovernor.getInstance().govern(decompressed, estimateDecoderMemory(frameHeader), "archive stream");
+    }
+
+    /**
+     * Opens the archive held by a compressed stream. Tar payloads are read entry by entry straight from the decoder,
+     * so the first entry is available after the first block; other payloads are decompressed into a staged temp file,
+     * which is deleted when the returned stream is closed.
+     */
     default ArchiveInputStream decompressAndGetInputStream(@NotNull InputStream inputStream) throws CompressorException, IOException, ArchiveException {
+        InputStream decompressed = new BufferedInputStream(openDecompressedStream(inputStream), ZstdProperties.STREAM_BUFFER_SIZE);
+        try {
+            String archiver = ZstdCompressionUtils.detectArchiver(decompressed);
+            if (ZstdProperties.isStreamingEnabled() && ArchiveStreamFactory.TAR.equals(archiver)) {
+                Logger.debug("Streaming tar entries of archive stream");
+                return new TarArchiveInputStream(decompressed, TAR_ENCODING);
+            }
+            return stageArchiveInputStream(decompressed, archiver);
+        } catch (IOException | ArchiveException | RuntimeException e) {
+            decompressed.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Copies the decompressed stream into a staged temp file, closes it and opens the copy as an archive.
+     * Zip payloads are opened through their central directory, so entries can be looked up without reading
+     * the ones before them. The temp file is deleted when the returned stream is closed.
+     */
+    default ArchiveInputStream stageArchiveInputStream(@NotNull InputStream decompressed, String archiver) throws IOException, ArchiveException {
         StagingArea stagingArea = new TempStagingArea(true);
-        File decompressedTempFile = stagingArea.createTempFile();
-        Path decompressedTempFilePath = decompressedTempFile.toPath();
-        try (CompressorInputStream in = new CompressorStreamFactory().createCompressorInputStream(ZSTD_COMPRESSION, inputStream)) {
-            Files.copy(in, decompressedTempFilePath, StandardCopyOption.REPLACE_EXISTING);
+        InputStream staged = null;
+        try {
+            File decompressedTempFile = stagingArea.createTempFile();
+            Path decompressedTempFilePath = decompressedTempFile.toPath();
+            try (InputStream in = decompressed) {
+                Files.copy(in, decompressedTempFilePath, StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (ArchiveStreamFactory.ZIP.equals(archiver)) {
+                ZipFile zipFile = ZipFileCache.openZipFile(decompressedTempFile, ZIP_ENCODING);
+                return new ZipFileArchiveInputStream(zipFile, () -> {
+                    try {
+                        zipFile.close();
+                    } finally {
+                        stagingArea.cleanup();
+                    }
+                });
+            }
+            staged = new FilterInputStream(new BufferedInputStream(Files.newInputStream(decompressedTempFilePath))) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        stagingArea.cleanup();
+                    }
+                }
+            };
+            return new ArchiveStreamFactory().createArchiveInputStream(staged);
+        } catch (IOException | ArchiveException | RuntimeException e) {
+            if (staged != null) {
+                staged.close();
+            } else {
+                stagingArea.cleanup();
+            }
+            throw e;
         }
-        InputStream is = new BufferedInputStream(Files.newInputStream(decompressedTempFilePath));
-        return new ArchiveStreamFactory().createArchiveInputStream(is);
     }
 
     @Override
     default void extractFiles(@NotNull File archive, @NotNull ArchiveFileSelector archiveFileSelector) throws IOException {
         Logger.debug("Call extractFiles " + archive.getName());
-        StagingArea stagingArea = new TempStagingArea();
 
         try {
-            String archiveParentFolder = archive.getParent();
-            Logger.debug("Folder for decompressed file: " + archiveParentFolder);
-            stagingArea.setParent(archiveParentFolder);
-            File decompressedTempFile = stagingArea.createTempFile();
+            if (extractFromCache(archive, archiveFileSelector)) {
+                return;
+            }
+            String flightKey = "staged:" + getArchiveIdentity(archive);
+            try (SingleFlight<DecompressedCache.Lease>.Lease shared = PAYLOAD_FLIGHTS.joinExisting(flightKey)) {
+                if (shared != null) {
+                    processPayload(shared.get().getFile(), getSingleFileEntryName(archive), archiveFileSelector);
+                    return;
+                }
+            }
+            SingleFlight<DecompressedCache.Lease>.Lease shared;
+            try (InputStream is = openDecompressedStream(archive)) {
+                InputStream decompressed = new BufferedInputStream(is, ZstdProperties.STREAM_BUFFER_SIZE);
+                if (isSingleFilePayload(decompressed)) {
+                    extractSingleFile(archive, decompressed, archiveFileSelector);
+                    return;
+                }
+                boolean[] streamed = new boolean[1];
+                if (ZstdProperties.isStreamingEnabled() && ArchiveStreamFactory.TAR.equals(ZstdCompressionUtils.detectArchiver(decompressed))) {
+                    shared = PAYLOAD_FLIGHTS.join(flightKey, () -> {
+                        streamed[0] = true;
+                        return streamPayload(archive, decompressed, archiveFileSelector);
+                    });
+                } else {
+                    shared = PAYLOAD_FLIGHTS.join(flightKey, () -> stagePayload(archive, decompressed));
+                }
+                if (streamed[0]) {
+                    shared.close();
+                    return;
+                }
+            }
+            try {
+                processPayload(shared.get().getFile(), getSingleFileEntryName(archive), archiveFileSelector);
+            } finally {
+                shared.close();
+            }
+        } catch (Exception e) {
+            Logger.error("ZSTD Exception during decompression", e);
+            throw new IOException(e.getMessage(), e);
+        }
+    }
 
-            Path archivePath = archive.toPath();
-            Path decompressedTempFilePath = decompressedTempFile.toPath();
+    /**
+     * @return the decompressed size recorded in the frame headers of the archive, or -1 if a frame does not record it
+     */
+    default long getDecompressedSize(@NotNull File archive) throws IOException {
+        try (FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ)) {
+            return ZstdFrameScanner.getContentSize(channel);
+        }
+    }
+
+    /**
+     * Writes a decompressed payload into the target, setting the final length up front when the size is known.
+     */
+    default void writePayload(@NotNull InputStream decompressed, @NotNull File target, long expectedSize) throws IOException {
+        if (expectedSize < 0) {
+            Files.copy(decompressed, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return;
+        }
+        try (PreallocatedFileOutputStream out = new PreallocatedFileOutputStream(target, expectedSize)) {
+            IOUtils.copy(decompressed, out, ZstdProperties.STREAM_BUFFER_SIZE);
+            if (out.getWritten() != expectedSize) {
+                Logger.debug("Frame headers of " + target.getName() + " recorded " + expectedSize + " bytes, " + out.getWritten() + " were written");
+            }
+        }
+    }
+
+    /**
+     * Identifies an archive file for in-process sharing of its decompression.
+     */
+    default String getArchiveIdentity(@NotNull File archive) throws IOException {
+        return archive.getCanonicalPath() + '|' + archive.length() + '|' + archive.lastModified();
+    }
+
+    /**
+     * Writes the decompressed payload into a temp file next to the archive; the file is deleted when the lease is closed.
+     */
+    default DecompressedCache.Lease stagePayload(@NotNull File archive, @NotNull InputStream decompressed) throws IOException {
+        StagingArea stagingArea = new TempStagingArea();
+        String archiveParentFolder = archive.getParent();
+        Logger.debug("Folder for decompressed file: " + archiveParentFolder);
+        stagingArea.setParent(archiveParentFolder);
+        long decompressedSize = getDecompressedSize(archive);
+        File decompressedTempFile = stagingArea.createTempFile(decompressedSize);
+        try {
+            if (!decompressOneShot(archive, decompressedTempFile)) {
+                Logger.debug("Writing byte array to file: " + decompressedTempFile);
+                writePayload(decompressed, decompressedTempFile, decompressedSize);
+            }
+        } catch (IOException | RuntimeException e) {
+            stagingArea.cleanup();
+            throw e;
+        }
+        return newStagedLease(stagingArea, decompressedTempFile);
+    }
+
+    /**
+     * Extracts a tar payload entry by entry while copying it into a temp file next to the archive, so that concurrent
+     * extractions of the same archive replay the staged payload instead of decompressing it again.
+     * The file is deleted when the lease is closed.
+     */
+    default DecompressedCache.Lease streamPayload(@NotNull File archive, @NotNull InputStream decompressed, @NotNull ArchiveFileSelector archiveFileSelector) throws IOException {
+        StagingArea stagingArea = new TempStagingArea();
+        stagingArea.setParent(archive.getParent());
+        File decompressedTempFile = stagingArea.createTempFile(getDecompressedSize(archive));
+        try (OutputStream staged = new BufferedOutputStream(Files.newOutputStream(decompressedTempFile.toPath()), ZstdProperties.STREAM_BUFFER_SIZE)) {
+            InputStream tee = new BufferedInputStream(new TeeInputStream(decompressed, staged), ZstdProperties.STREAM_BUFFER_SIZE);
+            processArchiveStream(tee, archiveFileSelector);
+            IOUtils.copy(tee, NullOutputStream.INSTANCE, ZstdProperties.STREAM_BUFFER_SIZE);
+        } catch (IOException | RuntimeException e) {
+            stagingArea.cleanup();
+            throw e;
+        }
+        return newStagedLease(stagingArea, decompressedTempFile);
+    }
 
-            Logger.debug("Writing byte array to file: " + decompressedTempFilePath);
+    /**
+     * @return a lease on the staged payload that cleans up the staging area when closed
+     */
+    default DecompressedCache.Lease newStagedLease(@NotNull StagingArea stagingArea, @NotNull File decompressedTempFile) {
+        return new DecompressedCache.Lease() {
+            @Override
+            public File getFile() {
+                return decompressedTempFile;
+            }
 
-            try (InputStream is = Files.newInputStream(archivePath)) {
-                try (CompressorInputStream in = new CompressorStreamFactory().createCompressorInputStream(ZSTD_COMPRESSION, is)) {
-                    Files.copy(in, decompressedTempFilePath, StandardCopyOption.REPLACE_EXISTING);
+            @Override
+            public void close() {
+                Logger.debug("Executing cleanup for temp files");
+                boolean cleaned = stagingArea.cleanup();
+                Logger.debug("Cleanup status: " + cleaned);
+            }
+        };
+    }
 
-                    ArchiveExtractor supportedExtractor = getArchiveType(decompressedTempFile);
-                    if (supportedExtractor!=null) {
-                        processArchive(decompressedTempFilePath, archiveFileSelector, supportedExtractor);
-                    } else {
-                        processSingleFile(decompressedTempFilePath, archiveFileSelector);
+    /**
+     * Cache of decompressed payloads, or null when payloads are not cached.
+     */
+    default DecompressedCache getDecompressedCache() {
+        return null;
+    }
+
+    /**
+     * Extracts the archive from its cached payload, decompressing it into the cache first on a miss.
+     *
+     * @return false if there is no cache or the payload does not fit into it
+     */
+    default boolean extractFromCache(@NotNull File archive, @NotNull ArchiveFileSelector archiveFileSelector) throws IOException, ArchiveException {
+        DecompressedCache cache = getDecompressedCache();
+        if (cache == null) {
+            return false;
+        }
+        String key = cache.computeKey(archive);
+        DecompressedCache.Lease lease = cache.acquire(key);
+        if (lease != null) {
+            try {
+                processPayload(lease.getFile(), getSingleFileEntryName(archive), archiveFileSelector);
+            } finally {
+                lease.close();
+            }
+            return true;
+        }
+        try (SingleFlight<DecompressedCache.Lease>.Lease shared = PAYLOAD_FLIGHTS.join("cache:" + key, () -> storeInCache(cache, key, archive))) {
+            if (shared.get() == null) {
+                return false;
+            }
+            processPayload(shared.get().getFile(), getSingleFileEntryName(archive), archiveFileSelector);
+        }
+        return true;
+    }
+
+    /**
+     * Decompresses the archive into the cache unless a concurrent extraction has just stored it.
+     *
+     * @return the stored payload or null if it does not fit into the cache
+     */
+    default DecompressedCache.Lease storeInCache(@NotNull DecompressedCache cache, @NotNull String key, @NotNull File archive) throws IOException {
+        DecompressedCache.Lease lease = cache.acquire(key);
+        if (lease != null) {
+            return lease;
+        }
+        if (getOneShotSize(archive) >= 0) {
+            return cache.store(key, target -> {
+                if (!decompressOneShot(archive, target)) {
+                    try (InputStream is = openDecompressedStream(archive)) {
+                        Files.copy(is, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
                     }
+                }
+                return target.length();
+            });
+        }
+        try (InputStream is = openDecompressedStream(archive)) {
+            return cache.store(key, is);
+        }
+    }
+
+    /**
+     * @return the content size of the archive if it is small enough to be decompressed in one call, -1 otherwise
+     */
+    default long getOneShotSize(@NotNull File archive) throws IOException {
+        try (InputStream is = Files.newInputStream(archive.toPath())) {
+            return MappedZstdDecompressor.getOneShotSize(readFrameHeader(is));
+        }
+    }
+
+    /**
+     * Decompresses a single-frame archive with a recorded content size in one call between memory mappings.
+     *
+     * @return false if the archive is not eligible or does not consist of a single frame
+     */
+    default boolean decompressOneShot(@NotNull File archive, @NotNull File target) throws IOException {
+        ZstdFrameHeader frameHeader;
+        try (InputStream is = Files.newInputStream(archive.toPath())) {
+            frameHeader = readFrameHeader(is);
+        }
+        long contentSize = MappedZstdDecompressor.getOneShotSize(frameHeader);
+        if (contentSize < 0) {
+            return false;
+        }
+        Logger.debug("One-shot decompression of " + archive.getName() + " (" + contentSize + " bytes)");
+        return MappedZstdDecompressor.decompress(archive, target, contentSize, findDictionary(frameHeader));
+    }
 
+    /**
+     * Extracts selected entries of a decompressed payload held in a file.
+     */
+    default void processPayload(@NotNull File payload, @NotNull ArchiveFileSelector archiveFileSelector) throws IOException, ArchiveException {
+        processPayload(payload, payload.getName(), archiveFileSelector);
+    }
+
+    /**
+     * Extracts selected entries of a decompressed payload held in a file; a payload that is not an archive
+     * is passed to the selector as a single file with the given name.
+     */
+    default void processPayload(@NotNull File payload, @NotNull String singleFileName, @NotNull ArchiveFileSelector archiveFileSelector) throws IOException, ArchiveException {
+        if (ZstdProperties.isStreamingEnabled()) {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(payload.toPath()), ZstdProperties.STREAM_BUFFER_SIZE)) {
+                if (processArchiveStream(in, archiveFileSelector)) {
+                    return;
                 }
             }
-        } catch (Exception e) {
-            Logger.error("ZSTD Exception during decompression", e);
-            throw new IOException(e.getMessage());
-        } finally {
-            Logger.debug("Executing cleanup for temp files");
-            boolean cleaned = stagingArea.cleanup();
-            Logger.debug("Cleanup status: "+ cleaned);
         }
+
+        if (isZipFile(payload)) {
+            try (EntryWriter entryWriter = createEntryWriter()) {
+                ArchiveStreamUtils.extractZipFile(payload, archiveFileSelector, entryWriter);
+            }
+            return;
+        }
+
+        ArchiveExtractor supportedExtractor = getArchiveType(payload, singleFileName);
+        if (supportedExtractor!=null) {
+            processArchive(payload.toPath(), archiveFileSelector, supportedExtractor);
+        } else {
+            processSingleFile(payload.toPath(), singleFileName, archiveFileSelector);
+        }
+    }
+
+    /**
+     * Opens a tar payload of a seekable zstd archive for random access.
+     *
+     * @return the stream or null if the archive is not seekable or does not hold a tar payload
+     */
+    default ArchiveInputStream<TarArchiveEntry> openSeekableArchiveInputStream(@NotNull File archive) throws IOException {
+        ZstdDictDecompress dictionary;
+        try (InputStream is = Files.newInputStream(archive.toPath())) {
+            dictionary = findDictionary(readFrameHeader(is));
+        }
+        SeekableZstdChannel channel = SeekableZstdChannel.open(archive, dictionary);
+        if (channel == null) {
+            return null;
+        }
+        try {
+            ByteBuffer header = ByteBuffer.allocate(TAR_HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) > 0) {
+                // read the first tar header
+            }
+            String archiver = ZstdCompressionUtils.detectArchiver(new ByteArrayInputStream(header.array(), 0, header.position()));
+            if (ArchiveStreamFactory.TAR.equals(archiver)) {
+                channel.position(0);
+                return new SeekableTarArchiveInputStream(channel);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        channel.close();
+        return null;
+    }
+
+    /**
+     * Lists the entries of the archive, from its persisted index when there is one.
+     *
+     * @return the index or null if the payload is not a tar or zip archive
+     */
+    default EntryIndex getEntryIndex(@NotNull File archive) throws IOException {
+        EntryIndexStore indexStore = EntryIndexStore.getDefault();
+        if (indexStore == null) {
+            return buildEntryIndex(archive);
+        }
+        return indexStore.getOrBuild(archive, this::buildEntryIndex);
+    }
+
+    /**
+     * Scans the payload of the archive for its entries. Entry data is skipped, not written anywhere;
+     * seekable archives are listed through their tar headers only.
+     */
+    default EntryIndex buildEntryIndex(@NotNull File archive) throws IOException {
+        Logger.debug("Indexing entries of " + archive.getName());
+        try (ArchiveInputStream<TarArchiveEntry> seekableStream = openSeekableArchiveInputStream(archive)) {
+            if (seekableStream != null) {
+                EntryIndex index = new EntryIndex();
+                for (TarArchiveEntry entry = seekableStream.getNextEntry(); entry != null; entry = seekableStream.getNextEntry()) {
+                    index.add(entry.getName(), entry.getSize(), entry.getMode(), entry.getDataOffset());
+                }
+                return index;
+            }
+        }
+        try (InputStream is = openDecompressedStream(archive)) {
+            InputStream decompressed = new BufferedInputStream(is, ZstdProperties.STREAM_BUFFER_SIZE);
+            String archiver = ZstdCompressionUtils.detectArchiver(decompressed);
+            EntryIndex index = new EntryIndex();
+            if (ArchiveStreamFactory.TAR.equals(archiver)) {
+                TarArchiveInputStream tarStream = new TarArchiveInputStream(decompressed);
+                for (TarArchiveEntry entry = tarStream.getNextEntry(); entry != null; entry = tarStream.getNextEntry()) {
+                    index.add(entry.getName(), entry.getSize(), entry.getMode(), tarStream.getBytesRead());
+                }
+                return index;
+            }
+            if (ArchiveStreamFactory.ZIP.equals(archiver)) {
+                ZipArchiveInputStream zipStream = new ZipArchiveInputStream(decompressed);
+                for (ZipArchiveEntry entry = zipStream.getNextEntry(); entry != null; entry = zipStream.getNextEntry()) {
+                    if (entry.getSize() < 0) {
+                        // size of streamed entries is only known from their data descriptor
+                        IOUtils.consume(zipStream);
+                    }
+                    index.add(entry.getName(), entry.getSize(), entry.getUnixMode(), EntryIndex.UNKNOWN_OFFSET);
+                }
+                return index;
+            }
+        }
+        return null;
     }
 
     @Override
     default Map<String, Long> getEntitiesSize(@NotNull File archive) throws IOException {
         Logger.debug("Call getEntitiesSize for " + archive.getName());
+        EntryIndex index = getEntryIndex(archive);
+        if (index != null) {
+            return index.getSizes();
+        }
         return ArchiveExtractor.super.getEntitiesSize(archive);
     }
 
     @Override
     default Map<String, Integer> getEntitiesUnixPermissions(@NotNull File archive) throws IOException {
         Logger.debug("Call getEntitiesUnixPermissions for " + archive.getName());
+        EntryIndex index = getEntryIndex(archive);
+        if (index != null) {
+            return index.getPermissions();
+        }
         return ArchiveExtractor.super.getEntitiesUnixPermissions(archive);
     }
 
@@ -0,0 +1,27 @@
+package net.quasardb.teamcity.compression.buffer;
+
+import com.github.luben.zstd.ZstdDecompressCtx;
+import com.github.luben.zstd.ZstdDictDecompress;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * One zstd decompression context per thread, reused for every frame decoded on that thread
+ * instead of setting up a native context per frame.
+ */
+public class DecompressContexts {
+
+    private static final ThreadLocal<ZstdDecompressCtx> CONTEXTS = ThreadLocal.withInitial(ZstdDecompressCtx::new);
+
+    /**
+     * @return the context of the current thread, reset and loaded with the dictionary if any;
+     * it must not be closed and must not be used after the next call on the same thread
+     */
+    public static ZstdDecompressCtx forCurrentThread(@Nullable ZstdDictDecompress dictionary) {
+        ZstdDecompressCtx decompressCtx = CONTEXTS.get();
+        decompressCtx.reset();
+        if (dictionary != null) {
+            decompressCtx.loadDict(dictionary);
+        }
+        return decompressCtx;
+    }
+}
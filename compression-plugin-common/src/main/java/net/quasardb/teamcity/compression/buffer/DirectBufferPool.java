@@ -0,0 +1,89 @@
+package net.quasardb.teamcity.compression.buffer;
+
+import net.quasardb.teamcity.compression.config.ZstdProperties;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Pool of direct buffers in power-of-two size classes. Released buffers are kept for reuse up to a retained size
+ * limit, so decoding frame after frame does not allocate new native memory; buffers above the limit are left to GC.
+ */
+public class DirectBufferPool {
+
+    private static final int MIN_CLASS_SHIFT = 12;
+    private static final int MAX_CLASS_SHIFT = 30;
+
+    private static volatile DirectBufferPool instance;
+
+    private final Deque<ByteBuffer>[] sizeClasses;
+    private final long maxRetainedBytes;
+    private long retainedBytes;
+
+    @SuppressWarnings("unchecked")
+    public DirectBufferPool(long maxRetainedBytes) {
+        this.maxRetainedBytes = maxRetainedBytes;
+        this.sizeClasses = new Deque[MAX_CLASS_SHIFT + 1];
+        for (int i = MIN_CLASS_SHIFT; i <= MAX_CLASS_SHIFT; i++) {
+            sizeClasses[i] = new ArrayDeque<>();
+        }
+    }
+
+    public static DirectBufferPool getInstance() {
+        if (instance == null) {
+            synchronized (DirectBufferPool.class) {
+                if (instance == null) {
+                    instance = new DirectBufferPool(ZstdProperties.getBufferPoolMaxBytes());
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * @return a cleared direct buffer with its limit set to the requested size
+     */
+    public ByteBuffer acquire(int size) {
+        int shift = sizeClass(size);
+        ByteBuffer buffer = null;
+        synchronized (this) {
+            buffer = sizeClasses[shift].pollFirst();
+            if (buffer != null) {
+                retainedBytes -= buffer.capacity();
+            }
+        }
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(1 << shift);
+        }
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    public void release(@NotNull ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (!buffer.isDirect() || Integer.bitCount(capacity) != 1 || capacity < (1 << MIN_CLASS_SHIFT)) {
+            return;
+        }
+        synchronized (this) {
+            if (retainedBytes + capacity <= maxRetainedBytes) {
+                sizeClasses[Integer.numberOfTrailingZeros(capacity)].addFirst(buffer);
+                retainedBytes += capacity;
+            }
+        }
+    }
+
+    public synchronized long getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    private static int sizeClass(int size) {
+        if (size < 0 || size > (1 << MAX_CLASS_SHIFT)) {
+            throw new IllegalArgumentException("Unsupported buffer size: " + size);
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1);
+        return Math.max(MIN_CLASS_SHIFT, shift);
+    }
+}
@@ -0,0 +1,56 @@
+package net.quasardb.teamcity.compression.cache;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Keeps decompressed payloads of zstd archives, addressed by the content of the compressed archive,
+ * so that an artifact extracted again only replays the entry writes.
+ */
+public interface DecompressedCache {
+
+    /**
+     * A cached payload in use; the payload is not evicted until the lease is closed.
+     */
+    interface Lease extends Closeable {
+        File getFile();
+
+        @Override
+        void close();
+    }
+
+    /**
+     * Writes a decompressed payload into the given file.
+     */
+    interface PayloadWriter {
+        /**
+         * @return the size of the payload, which may exceed the bytes written if writing stopped early
+         */
+        long write(@NotNull File target) throws IOException;
+    }
+
+    String computeKey(@NotNull File archive) throws IOException;
+
+    /**
+     * @return the cached payload for the key or null if it is not cached
+     */
+    Lease acquire(@NotNull String key);
+
+    /**
+     * Stores the decompressed payload under the key. The stream is read to the end but not closed.
+     *
+     * @return the stored payload or null if it does not fit into the cache
+     */
+    Lease store(@NotNull String key, @NotNull InputStream payload) throws IOException;
+
+    /**
+     * Stores the payload produced by the writer under the key.
+     *
+     * @return the stored payload or null if it does not fit into the cache
+     */
+    Lease store(@NotNull String key, @NotNull PayloadWriter payloadWriter) throws IOException;
+}
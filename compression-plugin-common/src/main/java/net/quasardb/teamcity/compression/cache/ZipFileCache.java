@@ -0,0 +1,257 @@
+package net.quasardb.teamcity.compression.cache;
+
+import net.quasardb.teamcity.compression.config.ZstdProperties;
+import net.quasardb.teamcity.compression.logging.Logger;
+import net.quasardb.teamcity.compression.utils.ExecutorUtils;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps zip files open with their parsed central directory, so that looking up one entry of a large zip artifact
+ * neither reads the archive up to the entry nor parses the central directory again.
+ * <p>
+ * Zip files are addressed by path; a file whose size or modification time changed is reopened and its old handle
+ * closed. A zip file is closed once it was not used for the idle time, when it is the least recently used one above
+ * the count limit, or when it changed; a zip file in use is closed only when its last lease is released. Idle files
+ * are not kept open for long, so that deleted artifacts free their disk space and can be deleted on Windows.
+ */
+public class ZipFileCache {
+
+    private static final long SWEEPER_KEEP_ALIVE_SECONDS = 60;
+
+    private static volatile ZipFileCache defaultCache;
+    private static final ScheduledThreadPoolExecutor sweeper = newSweeper();
+
+    private final int maxFiles;
+    private final long idleMillis;
+    private final Map<String, CachedZipFile> zipFiles = new LinkedHashMap<>(16, 0.75f, true);
+    private ScheduledFuture<?> sweep;
+
+    /**
+     * An open zip file in use; it stays open until the lease is closed.
+     */
+    public interface Lease extends Closeable {
+        ZipFile getZipFile();
+
+        @Override
+        void close();
+    }
+
+    private static class CachedZipFile {
+        private final ZipFile zipFile;
+        private final long length;
+        private final long lastModified;
+        private int leases;
+        private boolean evicted;
+        private long idleSince;
+
+        private CachedZipFile(ZipFile zipFile, long length, long lastModified) {
+            this.zipFile = zipFile;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        private boolean isCurrent(long length, long lastModified) {
+            return this.length == length && this.lastModified == lastModified;
+        }
+    }
+
+    private class CachedLease implements Lease {
+        private final CachedZipFile cached;
+        private boolean closed;
+
+        private CachedLease(CachedZipFile cached) {
+            this.cached = cached;
+        }
+
+        @Override
+        public ZipFile getZipFile() {
+            return cached.zipFile;
+        }
+
+        @Override
+        public void close() {
+            synchronized (ZipFileCache.this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                release(cached);
+            }
+        }
+    }
+
+    public ZipFileCache(int maxFiles) {
+        this(maxFiles, ZstdProperties.getZipCacheIdleMillis());
+    }
+
+    /**
+     * @param idleMillis time a zip file stays open after its last lease is released; 0 closes it right away
+     */
+    public ZipFileCache(int maxFiles, long idleMillis) {
+        this.maxFiles = maxFiles;
+        this.idleMillis = idleMillis;
+    }
+
+    private static ScheduledThreadPoolExecutor newSweeper() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, ExecutorUtils.daemonThreadFactory("zip-cache-sweeper"));
+        executor.setKeepAliveTime(SWEEPER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    /**
+     * @return the cache configured by {@link ZstdProperties} or null if it is disabled
+     */
+    public static ZipFileCache getDefault() {
+        int maxFiles = ZstdProperties.getZipCacheMaxFiles();
+        if (maxFiles <= 0) {
+            return null;
+        }
+        if (defaultCache == null) {
+            synchronized (ZipFileCache.class) {
+                if (defaultCache == null) {
+                    defaultCache = new ZipFileCache(maxFiles);
+                }
+            }
+        }
+        return defaultCache;
+    }
+
+    /**
+     * Opens the zip file through the default cache, or on its own if the cache is disabled.
+     */
+    public static Lease open(@NotNull File file, @NotNull String encoding) throws IOException {
+        ZipFileCache cache = getDefault();
+        if (cache != null) {
+            return cache.acquire(file, encoding);
+        }
+        ZipFile zipFile = openZipFile(file, encoding);
+        return new Lease() {
+            @Override
+            public ZipFile getZipFile() {
+                return zipFile;
+            }
+
+            @Override
+            public void close() {
+                ZipFile.closeQuietly(zipFile);
+            }
+        };
+    }
+
+    public static ZipFile openZipFile(@NotNull File file, @NotNull String encoding) throws IOException {
+        return ZipFile.builder()
+                .setFile(file)
+                .setCharset(encoding)
+                .setUseUnicodeExtraFields(true)
+                .get();
+    }
+
+    public Lease acquire(@NotNull File file, @NotNull String encoding) throws IOException {
+        String key = file.getCanonicalPath() + '|' + encoding;
+        long length = file.length();
+        long lastModified = file.lastModified();
+        synchronized (this) {
+            CachedZipFile cached = zipFiles.get(key);
+            if (cached != null && cached.isCurrent(length, lastModified)) {
+                cached.leases++;
+                return new CachedLease(cached);
+            }
+        }
+
+        ZipFile zipFile = openZipFile(file, encoding);
+        Logger.debug("Parsed central directory of " + file.getName());
+        synchronized (this) {
+            CachedZipFile cached = zipFiles.get(key);
+            if (cached != null && cached.isCurrent(length, lastModified)) {
+                // another caller opened it meanwhile
+                ZipFile.closeQuietly(zipFile);
+            } else {
+                if (cached != null) {
+                    // the file was replaced, its old handle must not keep the old content open
+                    zipFiles.remove(key);
+                    evict(cached);
+                }
+                cached = new CachedZipFile(zipFile, length, lastModified);
+                zipFiles.put(key, cached);
+                evictEldest();
+            }
+            cached.leases++;
+            return new CachedLease(cached);
+        }
+    }
+
+    public synchronized int size() {
+        return zipFiles.size();
+    }
+
+    private void release(CachedZipFile cached) {
+        if (--cached.leases > 0) {
+            return;
+        }
+        if (cached.evicted) {
+            ZipFile.closeQuietly(cached.zipFile);
+            return;
+        }
+        cached.idleSince = System.currentTimeMillis();
+        if (idleMillis <= 0) {
+            closeIdle();
+        } else if (sweep == null) {
+            sweep = sweeper.schedule(this::closeIdle, idleMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Closes the zip files unused for the idle time and schedules the next sweep while unused ones remain.
+     */
+    private synchronized void closeIdle() {
+        sweep = null;
+        long now = System.currentTimeMillis();
+        long nextExpiry = Long.MAX_VALUE;
+        Iterator<CachedZipFile> files = zipFiles.values().iterator();
+        while (files.hasNext()) {
+            CachedZipFile cached = files.next();
+            if (cached.leases > 0) {
+                continue;
+            }
+            long expiry = cached.idleSince + idleMillis;
+            if (expiry <= now) {
+                files.remove();
+                ZipFile.closeQuietly(cached.zipFile);
+            } else {
+                nextExpiry = Math.min(nextExpiry, expiry);
+            }
+        }
+        if (nextExpiry != Long.MAX_VALUE) {
+            sweep = sweeper.schedule(this::closeIdle, nextExpiry - now, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void evictEldest() {
+        Iterator<CachedZipFile> eldest = zipFiles.values().iterator();
+        while (zipFiles.size() > maxFiles && eldest.hasNext()) {
+            CachedZipFile cached = eldest.next();
+            eldest.remove();
+            evict(cached);
+        }
+    }
+
+    private static void evict(CachedZipFile cached) {
+        cached.evicted = true;
+        if (cached.leases == 0) {
+            ZipFile.closeQuietly(cached.zipFile);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package net.quasardb.teamcity.compression.cache.impl;
+
+import net.quasardb.teamcity.compression.cache.DecompressedCache;
+import net.quasardb.teamcity.compression.logging.Logger;
+import net.quasardb.teamcity.compression.utils.FileSystemUtils;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Disk cache of decompressed payloads evicting the least recently used payloads above a size budget.
+ * <p>
+ * The key is a digest of the compressed size with the head and the tail of the compressed archive. The tail holds
+ * the content checksum of the last frame (and the seek table of seekable archives), so renamed or re-downloaded
+ * copies of an artifact share one entry while modified ones do not.
+ * Access order survives restarts through the modification time of the cached files.
+ */
+public class LruDecompressedCache implements DecompressedCache {
+
+    private static final String PAYLOAD_SUFFIX = ".payload";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int SAMPLE_SIZE = 1024 * 1024;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final File directory;
+    private final long maxSizeBytes;
+    private final Map<String, CachedPayload> payloads = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalSize;
+    private boolean loaded;
+
+    private static class CachedPayload {
+        private final File file;
+        private final long size;
+        private int leases;
+
+        private CachedPayload(File file, long size) {
+            this.file = file;
+            this.size = size;
+        }
+    }
+
+    private class PayloadLease implements Lease {
+        private final CachedPayload payload;
+        private boolean closed;
+
+        private PayloadLease(CachedPayload payload) {
+            this.payload = payload;
+        }
+
+        @Override
+        public File getFile() {
+            return payload.file;
+        }
+
+        @Override
+        public void close() {
+            synchronized (LruDecompressedCache.this) {
+                if (!closed) {
+                    closed = true;
+                    payload.leases--;
+                    evict();
+                }
+            }
+        }
+    }
+
+    public LruDecompressedCache(@NotNull File directory, long maxSizeBytes) {
+        this.directory = directory;
+        this.maxSizeBytes = maxSizeBytes;
+    }
+
+    @Override
+    public String computeKey(@NotNull File archive) throws IOException {
+        MessageDigest digest = FileSystemUtils.newSha256();
+        try (RandomAccessFile file = new RandomAccessFile(archive, "r")) {
+            long length = file.length();
+            digest.update(Long.toString(length).getBytes("US-ASCII"));
+            byte[] sample = new byte[(int) Math.min(SAMPLE_SIZE, length)];
+            file.readFully(sample);
+            digest.update(sample);
+            if (length > SAMPLE_SIZE) {
+                file.seek(Math.max(SAMPLE_SIZE, length - SAMPLE_SIZE));
+                int tailLength = (int) (length - file.getFilePointer());
+                file.readFully(sample, 0, tailLength);
+                digest.update(sample, 0, tailLength);
+            }
+        }
+        return FileSystemUtils.toHex(digest.digest());
+    }
+
+    @Override
+    public synchronized Lease acquire(@NotNull String key) {
+        load();
+        CachedPayload payload = payloads.get(key);
+        if (payload == null) {
+            return null;
+        }
+        if (!payload.file.isFile()) {
+            payloads.remove(key);
+            totalSize -= payload.size;
+            return null;
+        }
+        payload.file.setLastModified(System.currentTimeMillis());
+        payload.leases++;
+        Logger.debug("ZSTD cache hit " + key);
+        return new PayloadLease(payload);
+    }
+
+    @Override
+    public Lease store(@NotNull String key, @NotNull InputStream payload) throws IOException {
+        return store(key, target -> copy(payload, target.toPath()));
+    }
+
+    @Override
+    public Lease store(@NotNull String key, @NotNull PayloadWriter payloadWriter) throws IOException {
+        synchronized (this) {
+            load();
+        }
+        Path tempFile = Files.createTempFile(directory.toPath(), key, TEMP_SUFFIX);
+        try {
+            long size = payloadWriter.write(tempFile.toFile());
+            if (size > maxSizeBytes) {
+                Logger.debug("ZSTD payload of " + size + " bytes exceeds the cache size");
+                return null;
+            }
+            synchronized (this) {
+                File file = new File(directory, key + PAYLOAD_SUFFIX);
+                CachedPayload previous = payloads.remove(key);
+                if (previous != null) {
+                    totalSize -= previous.size;
+                }
+                FileSystemUtils.moveReplacing(tempFile, file.toPath());
+                CachedPayload cached = new CachedPayload(file, size);
+                cached.leases++;
+                payloads.put(key, cached);
+                totalSize += size;
+                Logger.debug("ZSTD cached payload " + key + " (" + size + " bytes)");
+                evict();
+                return new PayloadLease(cached);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private long copy(InputStream payload, Path target) throws IOException {
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        long size = 0;
+        try (OutputStream out = Files.newOutputStream(target)) {
+            int read;
+            while ((read = payload.read(buffer)) != -1) {
+                size += read;
+                if (size <= maxSizeBytes) {
+                    out.write(buffer, 0, read);
+                }
+            }
+        }
+        return size;
+    }
+
+    private void evict() {
+        Iterator<CachedPayload> iterator = payloads.values().iterator();
+        while (totalSize > maxSizeBytes && iterator.hasNext()) {
+            CachedPayload eldest = iterator.next();
+            if (eldest.leases > 0) {
+                continue;
+            }
+            if (eldest.file.delete() || !eldest.file.exists()) {
+                Logger.debug("ZSTD evicted cached payload " + eldest.file.getName());
+                iterator.remove();
+                totalSize -= eldest.size;
+            } else {
+                Logger.error("Could not evict cached payload: " + eldest.file.getName());
+            }
+        }
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Logger.error("Could not create zstd cache directory: " + directory);
+            return;
+        }
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                file.delete();
+            } else if (name.endsWith(PAYLOAD_SUFFIX)) {
+                long size = file.length();
+                payloads.put(name.substring(0, name.length() - PAYLOAD_SUFFIX.length()), new CachedPayload(file, size));
+                totalSize += size;
+            }
+        }
+        Logger.debug("ZSTD cache " + directory + " holds " + payloads.size() + " payloads (" + totalSize + " bytes)");
+        evict();
+    }
+}
@@ -0,0 +1,288 @@
+package net.quasardb.teamcity.compression.config;
+
+import jetbrains.buildServer.serverSide.TeamCityProperties;
+
+import java.io.File;
+
+public class ZstdProperties {
+
+    public static final String STREAMING_ENABLED = "teamcity.zstd.streaming.enabled";
+
+    public static final String COMPRESSION_LEVEL = "teamcity.zstd.compression.level";
+    public static final String SEEKABLE_FRAME_SIZE = "teamcity.zstd.seekable.frameSize";
+    public static final String DECOMPRESS_THREADS = "teamcity.zstd.decompress.threads";
+    public static final String DECOMPRESS_MAX_IN_FLIGHT_MB = "teamcity.zstd.decompress.maxInFlightMb";
+    public static final String WRITER_THREADS = "teamcity.zstd.extract.writerThreads";
+    public static final String WRITER_MAX_IN_FLIGHT_MB = "teamcity.zstd.extract.maxInFlightMb";
+    public static final String CACHE_ENABLED = "teamcity.zstd.cache.enabled";
+    public static final String CACHE_DIR = "teamcity.zstd.cache.dir";
+    public static final String CACHE_MAX_SIZE_MB = "teamcity.zstd.cache.maxSizeMb";
+    public static final String INDEX_ENABLED = "teamcity.zstd.index.enabled";
+    public static final String INDEX_DIR = "teamcity.zstd.index.dir";
+    public static final String INDEX_MAX_FILES = "teamcity.zstd.index.maxFiles";
+    public static final String DICTIONARY_DIR = "teamcity.zstd.dictionary.dir";
+    public static final String COMPRESSION_WINDOW_LOG = "teamcity.zstd.compression.windowLog";
+    public static final String COMPRESSION_WORKERS = "teamcity.zstd.compression.workers";
+    public static final String COMPRESSION_DICTIONARY_ID = "teamcity.zstd.compression.dictionaryId";
+    public static final String DECOMPRESS_WINDOW_LOG_MAX = "teamcity.zstd.decompress.windowLogMax";
+    public static final String DECOMPRESS_MEMORY_BUDGET_MB = "teamcity.zstd.decompress.memoryBudgetMb";
+    public static final String BUFFER_POOL_MAX_MB = "teamcity.zstd.bufferPool.maxMb";
+    public static final String ONE_SHOT_ENABLED = "teamcity.zstd.oneShot.enabled";
+    public static final String ONE_SHOT_MAX_MB = "teamcity.zstd.oneShot.maxMb";
+    public static final String STAGING_MAX_SIZE_MB = "teamcity.zstd.staging.maxSizeMb";
+    public static final String STAGING_MIN_FREE_MB = "teamcity.zstd.staging.minFreeMb";
+    public static final String STAGING_ORPHAN_AGE_MINUTES = "teamcity.zstd.staging.orphanAgeMinutes";
+    public static final String DIRECTORY_CACHE_MAX_NODES = "teamcity.zstd.directoryCache.maxNodes";
+    public static final String ZIP_CACHE_MAX_FILES = "teamcity.zstd.zipCache.maxFiles";
+    public static final String ZIP_CACHE_IDLE_SECONDS = "teamcity.zstd.zipCache.idleSeconds";
+    public static final String ZIP_WORKERS = "teamcity.zstd.zip.workers";
+    public static final String UNZIP_WORKERS = "teamcity.zstd.unzip.workers";
+    public static final String ZIP_ZSTD_ENTRIES = "teamcity.zstd.zip.zstdEntries";
+
+    public static final int STREAM_BUFFER_SIZE = 64 * 1024;
+    public static final int DEFAULT_COMPRESSION_LEVEL = 3;
+    public static final int DEFAULT_SEEKABLE_FRAME_SIZE = 4 * 1024 * 1024;
+    public static final int DEFAULT_DECOMPRESS_MAX_IN_FLIGHT_MB = 256;
+    public static final int DEFAULT_WRITER_MAX_IN_FLIGHT_MB = 64;
+    public static final int MAX_DEFAULT_WRITER_THREADS = 16;
+    public static final int DEFAULT_CACHE_MAX_SIZE_MB = 4096;
+    public static final int DEFAULT_INDEX_MAX_FILES = 10000;
+    public static final int DEFAULT_DICTIONARY_SIZE = 112640;
+    public static final int ZSTD_DEFAULT_WINDOW_LOG_MAX = 27;
+    public static final int MAX_WINDOW_LOG = 31;
+    public static final int DEFAULT_DECOMPRESS_MEMORY_BUDGET_MB = 2048;
+    public static final int DEFAULT_BUFFER_POOL_MAX_MB = 128;
+    public static final int DEFAULT_ONE_SHOT_MAX_MB = 256;
+    public static final int DEFAULT_STAGING_MIN_FREE_MB = 1024;
+    public static final int DEFAULT_STAGING_ORPHAN_AGE_MINUTES = 360;
+    public static final int DEFAULT_DIRECTORY_CACHE_MAX_NODES = 4 * 1024 * 1024;
+    public static final int DEFAULT_ZIP_CACHE_MAX_FILES = 32;
+    public static final int DEFAULT_ZIP_CACHE_IDLE_SECONDS = 10;
+
+    /**
+     * When enabled, tar payloads are extracted straight from the zstd stream without a decompressed temp file.
+     */
+    public static boolean isStreamingEnabled(){
+        return TeamCityProperties.getBooleanOrTrue(STREAMING_ENABLED);
+    }
+
+    public static int getCompressionLevel(){
+        return TeamCityProperties.getInteger(COMPRESSION_LEVEL, DEFAULT_COMPRESSION_LEVEL);
+    }
+
+    /**
+     * Decompressed size of one independent frame in seekable archives: smaller frames give cheaper random access, larger ones a better ratio.
+     */
+    public static int getSeekableFrameSize(){
+        return TeamCityProperties.getInteger(SEEKABLE_FRAME_SIZE, DEFAULT_SEEKABLE_FRAME_SIZE);
+    }
+
+    /**
+     * Number of workers decoding independent frames of multi-frame archives; 1 disables parallel decompression.
+     */
+    public static int getDecompressThreads(){
+        return TeamCityProperties.getInteger(DECOMPRESS_THREADS, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Upper bound for decompressed frames buffered ahead of the reader of one parallel stream.
+     */
+    public static long getMaxInFlightBytes(){
+        return TeamCityProperties.getInteger(DECOMPRESS_MAX_IN_FLIGHT_MB, DEFAULT_DECOMPRESS_MAX_IN_FLIGHT_MB) * 1024L * 1024L;
+    }
+
+    /**
+     * Number of threads writing extracted entries; 1 writes every entry on the extracting thread.
+     * Writes are latency bound, so the default uses at least two threads even on small agents.
+     */
+    public static int getWriterThreads(){
+        int defaultThreads = Math.min(MAX_DEFAULT_WRITER_THREADS, Math.max(2, Runtime.getRuntime().availableProcessors()));
+        return TeamCityProperties.getInteger(WRITER_THREADS, defaultThreads);
+    }
+
+    /**
+     * Upper bound for entry content buffered for writer threads by one extraction.
+     */
+    public static long getWriterMaxInFlightBytes(){
+        return TeamCityProperties.getInteger(WRITER_MAX_IN_FLIGHT_MB, DEFAULT_WRITER_MAX_IN_FLIGHT_MB) * 1024L * 1024L;
+    }
+
+    /**
+     * Keeps decompressed payloads on agents, so that repeated extractions of the same artifact skip decompression.
+     * Off unless enabled, as the cache holds up to {@link #getCacheMaxSizeBytes()} of agent disk.
+     */
+    public static boolean isCacheEnabled(){
+        return TeamCityProperties.getBoolean(CACHE_ENABLED);
+    }
+
+    /**
+     * Directory of the decompressed payload cache, or null for the default location.
+     */
+    public static String getCacheDir(){
+        return TeamCityProperties.getPropertyOrNull(CACHE_DIR);
+    }
+
+    /**
+     * Disk budget of the decompressed payload cache; least recently used payloads are evicted above it.
+     */
+    public static long getCacheMaxSizeBytes(){
+        return TeamCityProperties.getLong(CACHE_MAX_SIZE_MB, DEFAULT_CACHE_MAX_SIZE_MB) * 1024L * 1024L;
+    }
+
+    /**
+     * Persists entry listings of archives, so that sizes and permissions are read without decompressing the payload again.
+     */
+    public static boolean isIndexEnabled(){
+        return TeamCityProperties.getBooleanOrTrue(INDEX_ENABLED);
+    }
+
+    public static File getIndexDir(){
+        String indexDir = TeamCityProperties.getPropertyOrNull(INDEX_DIR);
+        return indexDir != null ? new File(indexDir) : new File(System.getProperty("java.io.tmpdir"), "zstd-index");
+    }
+
+    /**
+     * Number of entry indexes kept; the oldest ones are deleted above it.
+     */
+    public static int getIndexMaxFiles(){
+        return TeamCityProperties.getInteger(INDEX_MAX_FILES, DEFAULT_INDEX_MAX_FILES);
+    }
+
+    /**
+     * Directory of the zstd dictionary registry; it has to be shared by the server and agents using the dictionaries.
+     */
+    public static File getDictionaryDir(){
+        String dictionaryDir = TeamCityProperties.getPropertyOrNull(DICTIONARY_DIR);
+        return dictionaryDir != null ? new File(dictionaryDir) : new File(System.getProperty("user.home"), ".zstd/dictionaries");
+    }
+
+    /**
+     * Window log for long distance matching when packing, 0 keeps the default window of the compression level.
+     * Windows above 27 need a matching {@link #getDecompressWindowLogMax()} on every decompressing side.
+     */
+    public static int getCompressionWindowLog(){
+        return TeamCityProperties.getInteger(COMPRESSION_WINDOW_LOG, 0);
+    }
+
+    /**
+     * ID of the registered dictionary artifacts are packed with, 0 packs without a dictionary.
+     */
+    public static long getCompressionDictionaryId(){
+        return TeamCityProperties.getLong(COMPRESSION_DICTIONARY_ID, 0);
+    }
+
+    /**
+     * Number of threads compressing packed artifacts; with more than one, artifacts are written as independent frames
+     * in the seekable format, so that they are also decompressed in parallel. 0 or 1 compresses on the packing thread.
+     */
+    public static int getCompressionWorkers(){
+        return TeamCityProperties.getInteger(COMPRESSION_WORKERS, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Largest window log accepted when decompressing, i.e. a window of up to {@code 2^windowLog} bytes of memory per
+     * stream. By default it is the largest window that fits into {@link #getDecompressMemoryBudgetBytes()}, up to
+     * {@value #MAX_WINDOW_LOG} and at least zstd's own limit of {@value #ZSTD_DEFAULT_WINDOW_LOG_MAX}: the
+     * {@link net.quasardb.teamcity.compression.memory.MemoryGovernor} queues decompressions with large windows.
+     */
+    public static int getDecompressWindowLogMax(){
+        int budgetWindowLog = 63 - Long.numberOfLeadingZeros(Math.max(1, getDecompressMemoryBudgetBytes()));
+        int defaultWindowLog = Math.max(ZSTD_DEFAULT_WINDOW_LOG_MAX, Math.min(MAX_WINDOW_LOG, budgetWindowLog));
+        return Math.min(MAX_WINDOW_LOG, TeamCityProperties.getInteger(DECOMPRESS_WINDOW_LOG_MAX, defaultWindowLog));
+    }
+
+    /**
+     * Memory shared by the windows and buffers of all concurrent decompressions; extractions queue above it.
+     */
+    public static long getDecompressMemoryBudgetBytes(){
+        return TeamCityProperties.getLong(DECOMPRESS_MEMORY_BUDGET_MB, DEFAULT_DECOMPRESS_MEMORY_BUDGET_MB) * 1024L * 1024L;
+    }
+
+    /**
+     * Direct buffers kept for reuse by frame decoding; buffers released above it are left to GC.
+     */
+    public static long getBufferPoolMaxBytes(){
+        return TeamCityProperties.getLong(BUFFER_POOL_MAX_MB, DEFAULT_BUFFER_POOL_MAX_MB) * 1024L * 1024L;
+    }
+
+    /**
+     * Decompresses single-frame archives in one call between memory mappings. Off by default on Windows,
+     * where a mapped file cannot be deleted until the mapping is garbage collected.
+     */
+    public static boolean isOneShotEnabled(){
+        String enabled = TeamCityProperties.getPropertyOrNull(ONE_SHOT_ENABLED);
+        return enabled != null ? Boolean.parseBoolean(enabled) : File.separatorChar == '/';
+    }
+
+    /**
+     * Largest content size decompressed in one call; larger archives are streamed.
+     */
+    public static long getOneShotMaxBytes(){
+        return TeamCityProperties.getLong(ONE_SHOT_MAX_MB, DEFAULT_ONE_SHOT_MAX_MB) * 1024L * 1024L;
+    }
+
+    /**
+     * Quota of decompressed payloads staged in temp files at the same time; 0 disables the quota.
+     */
+    public static long getStagingMaxSizeBytes(){
+        return TeamCityProperties.getLong(STAGING_MAX_SIZE_MB, 0) * 1024L * 1024L;
+    }
+
+    /**
+     * Free space that staged payloads and files decompressed in place must leave on their file system.
+     */
+    public static long getStagingMinFreeBytes(){
+        return TeamCityProperties.getLong(STAGING_MIN_FREE_MB, DEFAULT_STAGING_MIN_FREE_MB) * 1024L * 1024L;
+    }
+
+    /**
+     * Age after which a temp file not staged by this process is deleted as left over by a crashed one.
+     */
+    public static long getStagingOrphanAgeMillis(){
+        return TeamCityProperties.getLong(STAGING_ORPHAN_AGE_MINUTES, DEFAULT_STAGING_ORPHAN_AGE_MINUTES) * 60L * 1000L;
+    }
+
+    /**
+     * Number of trie nodes of archive directory structures kept in memory for browsing; least recently used
+     * archives are evicted above it, 0 disables the cache.
+     */
+    public static int getDirectoryCacheMaxNodes(){
+        return TeamCityProperties.getInteger(DIRECTORY_CACHE_MAX_NODES, DEFAULT_DIRECTORY_CACHE_MAX_NODES);
+    }
+
+    /**
+     * Number of zip artifacts kept open with their parsed central directory for entry lookups; 0 disables the cache.
+     */
+    public static int getZipCacheMaxFiles(){
+        return TeamCityProperties.getInteger(ZIP_CACHE_MAX_FILES, DEFAULT_ZIP_CACHE_MAX_FILES);
+    }
+
+    /**
+     * Time a cached zip file stays open after its last use; 0 closes it as soon as its last lease is released.
+     */
+    public static long getZipCacheIdleMillis(){
+        return TeamCityProperties.getInteger(ZIP_CACHE_IDLE_SECONDS, DEFAULT_ZIP_CACHE_IDLE_SECONDS) * 1000L;
+    }
+
+    /**
+     * Number of threads deflating entries when packing zip archives; 1 packs on the calling thread.
+     */
+    public static int getZipWorkers(){
+        return TeamCityProperties.getInteger(ZIP_WORKERS, 1);
+    }
+
+    /**
+     * Number of entries of a zip file written concurrently when unpacking it; 1 unpacks on the calling thread.
+     */
+    public static int getUnzipWorkers(){
+        return TeamCityProperties.getInteger(UNZIP_WORKERS, 1);
+    }
+
+    /**
+     * Compresses entries of packed zip archives with zstd (zip method 93) at {@link #getCompressionLevel()}
+     * instead of deflate; such zips are read by this plugin, but not by every zip tool.
+     */
+    public static boolean isZipZstdEntriesEnabled(){
+        return TeamCityProperties.getBoolean(ZIP_ZSTD_ENTRIES);
+    }
+}
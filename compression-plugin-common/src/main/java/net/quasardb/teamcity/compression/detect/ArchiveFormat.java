@@ -0,0 +1,77 @@
+package net.quasardb.teamcity.compression.detect;
+
+import org.apache.commons.compress.archivers.ArchiveStreamFactory;
+
+/**
+ * Archive and compression formats recognized by their magic bytes.
+ * Each format lists its signatures with the offset they are found at in the first {@link #HEADER_SIZE} bytes.
+ */
+public enum ArchiveFormat {
+    ZSTD(null, new Signature(0, 0x28, 0xB5, 0x2F, 0xFD)),
+    GZIP(null, new Signature(0, 0x1F, 0x8B)),
+    ZIP(ArchiveStreamFactory.ZIP,
+            new Signature(0, 'P', 'K', 0x03, 0x04),
+            new Signature(0, 'P', 'K', 0x05, 0x06),
+            new Signature(0, 'P', 'K', 0x07, 0x08)),
+    SEVEN_Z(ArchiveStreamFactory.SEVEN_Z, new Signature(0, '7', 'z', 0xBC, 0xAF, 0x27, 0x1C)),
+    TAR(ArchiveStreamFactory.TAR, new Signature(257, 'u', 's', 't', 'a', 'r')),
+    UNKNOWN(null);
+
+    /**
+     * Number of leading bytes needed to match every signature; one tar header block.
+     */
+    public static final int HEADER_SIZE = 512;
+
+    private static final ArchiveFormat[] DISPATCH_ORDER = {ZSTD, GZIP, ZIP, SEVEN_Z, TAR};
+
+    private final String archiverName;
+    private final Signature[] signatures;
+
+    private static class Signature {
+        private final int offset;
+        private final byte[] magic;
+
+        private Signature(int offset, int... magic) {
+            this.offset = offset;
+            this.magic = new byte[magic.length];
+            for (int i = 0; i < magic.length; i++) {
+                this.magic[i] = (byte) magic[i];
+            }
+        }
+
+        private boolean matches(byte[] header, int length) {
+            if (length < offset + magic.length) {
+                return false;
+            }
+            for (int i = 0; i < magic.length; i++) {
+                if (header[offset + i] != magic[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    ArchiveFormat(String archiverName, Signature... signatures) {
+        this.archiverName = archiverName;
+        this.signatures = signatures;
+    }
+
+    /**
+     * @return archiver name as in {@link ArchiveStreamFactory} or null for compression formats
+     */
+    public String getArchiverName() {
+        return archiverName;
+    }
+
+    public static ArchiveFormat match(byte[] header, int length) {
+        for (ArchiveFormat format : DISPATCH_ORDER) {
+            for (Signature signature : format.signatures) {
+                if (signature.matches(header, length)) {
+                    return format;
+                }
+            }
+        }
+        return UNKNOWN;
+    }
+}
@@ -0,0 +1,57 @@
+package net.quasardb.teamcity.compression.detect;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Detects formats with one read of the file header; results are cached per file identity
+ * (path, size and modification time), so repeated checks of the same file do not reopen it.
+ */
+public class ArchiveFormatDetector {
+
+    private static final int MAX_CACHED_FILES = 1024;
+
+    private static final Map<String, ArchiveFormat> detectedFormats = new LinkedHashMap<String, ArchiveFormat>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ArchiveFormat> eldest) {
+            return size() > MAX_CACHED_FILES;
+        }
+    };
+
+    public static ArchiveFormat detect(@NotNull File file) throws IOException {
+        String identity = file.getAbsolutePath() + '|' + file.length() + '|' + file.lastModified();
+        synchronized (detectedFormats) {
+            ArchiveFormat format = detectedFormats.get(identity);
+            if (format != null) {
+                return format;
+            }
+        }
+        ArchiveFormat format;
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            format = detect(in);
+        }
+        synchronized (detectedFormats) {
+            detectedFormats.put(identity, format);
+        }
+        return format;
+    }
+
+    /**
+     * Reads the header from the current position of the stream; use mark/reset to keep the stream untouched.
+     */
+    public static ArchiveFormat detect(@NotNull InputStream in) throws IOException {
+        byte[] header = new byte[ArchiveFormat.HEADER_SIZE];
+        int length = 0;
+        int read;
+        while (length < header.length && (read = in.read(header, length, header.length - length)) != -1) {
+            length += read;
+        }
+        return ArchiveFormat.match(header, length);
+    }
+}
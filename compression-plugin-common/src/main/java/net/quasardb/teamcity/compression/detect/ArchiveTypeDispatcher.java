@@ -0,0 +1,124 @@
+package net.quasardb.teamcity.compression.detect;
+
+import jetbrains.buildServer.util.ArchiveExtractor;
+import net.quasardb.teamcity.compression.logging.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+
+/**
+ * Dispatch table from detected formats to registered extractors. Extractors usually decide by file name, so the table
+ * is keyed by the format together with the file extension: the first file of a format and extension is matched by
+ * asking every extractor, later ones go straight to the extractor found, until the registered extractors change.
+ * A file no extractor supports is not remembered, so every such file asks the extractors again.
+ * <p>
+ * Staged payloads have temp names, so they are dispatched by the name of the archive they come from; a name without
+ * a dot has an empty extension. The table keeps the {@value #MAX_ENTRIES} most recently used dispatches.
+ */
+public class ArchiveTypeDispatcher {
+
+    private static final Map<Object, ArchiveTypeDispatcher> dispatchers = new WeakHashMap<>();
+
+    static final int MAX_ENTRIES = 256;
+
+    private final Map<Key, Dispatch> table = new LinkedHashMap<Key, Dispatch>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Dispatch> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private static class Key {
+        private final ArchiveFormat format;
+        private final String extension;
+
+        private Key(ArchiveFormat format, String name) {
+            this.format = format;
+            int dot = name.lastIndexOf('.');
+            this.extension = dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return format == key.format && extension.equals(key.extension);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(format, extension);
+        }
+    }
+
+    private static class Dispatch {
+        private final ArchiveExtractor extractor;
+        private final int extractorCount;
+
+        private Dispatch(ArchiveExtractor extractor, int extractorCount) {
+            this.extractor = extractor;
+            this.extractorCount = extractorCount;
+        }
+
+        private boolean isValid(Collection<ArchiveExtractor> extractors) {
+            return extractorCount == extractors.size() && extractors.contains(extractor);
+        }
+    }
+
+    /**
+     * @param owner the holder of the registered extractors; dispatchers are dropped with their owners
+     */
+    public static ArchiveTypeDispatcher forOwner(Object owner) {
+        synchronized (dispatchers) {
+            return dispatchers.computeIfAbsent(owner, key -> new ArchiveTypeDispatcher());
+        }
+    }
+
+    public ArchiveExtractor getExtractor(@NotNull File archive, @NotNull Collection<ArchiveExtractor> extractors, @NotNull ArchiveFormat format) {
+        return getExtractor(archive, archive.getName(), extractors, format);
+    }
+
+    /**
+     * @param name name the archive is dispatched by, e.g. the name of the archive a staged payload was decompressed from
+     */
+    public ArchiveExtractor getExtractor(@NotNull File archive, @NotNull String name, @NotNull Collection<ArchiveExtractor> extractors, @NotNull ArchiveFormat format) {
+        Key key = new Key(format, name);
+        if (format != ArchiveFormat.UNKNOWN) {
+            synchronized (table) {
+                Dispatch dispatch = table.get(key);
+                if (dispatch != null && dispatch.isValid(extractors)) {
+                    return dispatch.extractor;
+                }
+            }
+        }
+
+        ArchiveExtractor supported = null;
+        for (ArchiveExtractor extractor : extractors) {
+            if (extractor.isSupported(archive)) {
+                supported = extractor;
+                break;
+            }
+        }
+        if (format != ArchiveFormat.UNKNOWN && supported != null) {
+            Logger.debug("Dispatching " + format + " ." + key.extension + " to " + supported);
+            synchronized (table) {
+                table.put(key, new Dispatch(supported, extractors.size()));
+            }
+        }
+        return supported;
+    }
+
+    public int size() {
+        synchronized (table) {
+            return table.size();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package net.quasardb.teamcity.compression.dictionary;
+
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Zstd dictionaries addressed by the dictionary ID that zstd writes into frame headers,
+ * so that archives compressed with a dictionary can be decompressed without naming it.
+ */
+public interface DictionaryRegistry {
+
+    /**
+     * Trains a dictionary on sample artifacts and registers it.
+     *
+     * @return ID of the trained dictionary
+     */
+    long train(@NotNull Collection<File> samples, int dictionarySize) throws IOException;
+
+    /**
+     * Registers a dictionary in the zstd format, e.g. one trained by {@code zstd --train}.
+     *
+     * @return ID of the dictionary
+     */
+    long register(@NotNull byte[] dictionary) throws IOException;
+
+    Set<Long> getDictionaryIds();
+
+    @Nullable
+    ZstdDictDecompress getDecompressDictionary(long dictionaryId) throws IOException;
+
+    @Nullable
+    ZstdDictCompress getCompressDictionary(long dictionaryId, int level) throws IOException;
+}
@@ -0,0 +1,157 @@
+package net.quasardb.teamcity.compression.dictionary.impl;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdDictTrainer;
+import net.quasardb.teamcity.compression.config.ZstdProperties;
+import net.quasardb.teamcity.compression.dictionary.DictionaryRegistry;
+import net.quasardb.teamcity.compression.logging.Logger;
+import net.quasardb.teamcity.compression.utils.FileSystemUtils;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps dictionaries as {@code <dictionaryId>.dict} files in a directory; digested dictionaries are cached in memory.
+ */
+public class FileDictionaryRegistry implements DictionaryRegistry {
+
+    private static final String DICTIONARY_SUFFIX = ".dict";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static volatile DictionaryRegistry defaultRegistry;
+
+    private final File directory;
+    private final Map<Long, ZstdDictDecompress> decompressDictionaries = new ConcurrentHashMap<>();
+    private final Map<String, ZstdDictCompress> compressDictionaries = new ConcurrentHashMap<>();
+
+    public FileDictionaryRegistry(@NotNull File directory) {
+        this.directory = directory;
+    }
+
+    public static DictionaryRegistry getDefault() {
+        if (defaultRegistry == null) {
+            synchronized (FileDictionaryRegistry.class) {
+                if (defaultRegistry == null) {
+                    defaultRegistry = new FileDictionaryRegistry(ZstdProperties.getDictionaryDir());
+                }
+            }
+        }
+        return defaultRegistry;
+    }
+
+    @Override
+    public long train(@NotNull Collection<File> samples, int dictionarySize) throws IOException {
+        long samplesSize = 0;
+        for (File sample : samples) {
+            samplesSize += sample.length();
+        }
+        ZstdDictTrainer trainer = new ZstdDictTrainer((int) Math.min(Integer.MAX_VALUE - 8, samplesSize), dictionarySize);
+        for (File sample : samples) {
+            trainer.addSample(Files.readAllBytes(sample.toPath()));
+        }
+        byte[] dictionary;
+        try {
+            dictionary = trainer.trainSamples();
+        } catch (RuntimeException e) {
+            throw new IOException("Could not train dictionary on " + samples.size() + " samples", e);
+        }
+        long dictionaryId = register(dictionary);
+        Logger.info("ZSTD trained dictionary " + dictionaryId + " (" + dictionary.length + " bytes) on " + samples.size() + " samples");
+        return dictionaryId;
+    }
+
+    @Override
+    public long register(@NotNull byte[] dictionary) throws IOException {
+        long dictionaryId = Zstd.getDictIdFromDict(dictionary);
+        if (dictionaryId == 0) {
+            throw new IOException("Not a zstd dictionary: dictionary ID is missing");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+        Path tempFile = Files.createTempFile(directory.toPath(), Long.toString(dictionaryId), TEMP_SUFFIX);
+        try {
+            Files.write(tempFile, dictionary);
+            FileSystemUtils.moveReplacing(tempFile, getDictionaryFile(dictionaryId).toPath());
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        decompressDictionaries.remove(dictionaryId);
+        compressDictionaries.keySet().removeIf(key -> key.startsWith(dictionaryId + ":"));
+        return dictionaryId;
+    }
+
+    @Override
+    public Set<Long> getDictionaryIds() {
+        Set<Long> ids = new TreeSet<>();
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(DICTIONARY_SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                try {
+                    ids.add(Long.parseLong(name.substring(0, name.length() - DICTIONARY_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    Logger.debug("Ignoring " + name + " in dictionary directory");
+                }
+            }
+        }
+        return ids;
+    }
+
+    @Override
+    public ZstdDictDecompress getDecompressDictionary(long dictionaryId) throws IOException {
+        ZstdDictDecompress dictionary = decompressDictionaries.get(dictionaryId);
+        if (dictionary == null) {
+            byte[] content = readDictionary(dictionaryId);
+            if (content == null) {
+                return null;
+            }
+            dictionary = new ZstdDictDecompress(content);
+            ZstdDictDecompress previous = decompressDictionaries.putIfAbsent(dictionaryId, dictionary);
+            if (previous != null) {
+                dictionary = previous;
+            }
+        }
+        return dictionary;
+    }
+
+    @Override
+    public ZstdDictCompress getCompressDictionary(long dictionaryId, int level) throws IOException {
+        String key = dictionaryId + ":" + level;
+        ZstdDictCompress dictionary = compressDictionaries.get(key);
+        if (dictionary == null) {
+            byte[] content = readDictionary(dictionaryId);
+            if (content == null) {
+                return null;
+            }
+            dictionary = new ZstdDictCompress(content, level);
+            ZstdDictCompress previous = compressDictionaries.putIfAbsent(key, dictionary);
+            if (previous != null) {
+                dictionary = previous;
+            }
+        }
+        return dictionary;
+    }
+
+    private byte[] readDictionary(long dictionaryId) throws IOException {
+        File file = getDictionaryFile(dictionaryId);
+        if (!file.isFile()) {
+            return null;
+        }
+        return Files.readAllBytes(file.toPath());
+    }
+
+    private File getDictionaryFile(long dictionaryId) {
+        return new File(directory, dictionaryId + DICTIONARY_SUFFIX);
+    }
+}
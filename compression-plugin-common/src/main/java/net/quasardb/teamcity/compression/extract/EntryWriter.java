@@ -0,0 +1,44 @@
+package net.quasardb.teamcity.compression.extract;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Writes extracted archive entries to their destinations.
+ * Implementations may write asynchronously; {@link #finish()} must be called to wait for all writes and get errors.
+ */
+public interface EntryWriter extends Closeable {
+
+    int UNKNOWN_MODE = 0;
+    long UNKNOWN_TIME = -1;
+
+    /**
+     * Opens the content of an entry; used for random-access sources that can be read from any thread.
+     */
+    interface ContentSupplier {
+        InputStream open() throws IOException;
+    }
+
+    void writeDirectory(@NotNull File destination) throws IOException;
+
+    void writeSymbolicLink(@NotNull String target, @NotNull File destination) throws IOException;
+
+    /**
+     * Writes an entry whose content is read from a sequential stream owned by the caller.
+     * The stream is positioned at the entry and must not be closed.
+     */
+    void writeFile(@NotNull InputStream content, long size, int mode, long lastModified, @NotNull File destination) throws IOException;
+
+    void writeFile(@NotNull ContentSupplier content, long size, int mode, long lastModified, @NotNull File destination) throws IOException;
+
+    /**
+     * Writes a copy of an entry written earlier, e.g. for a hard link; the source is complete before it is copied.
+     */
+    void writeCopy(@NotNull File source, @NotNull File destination) throws IOException;
+
+    void finish() throws IOException;
+}
@@ -0,0 +1,216 @@
+package net.quasardb.teamcity.compression.extract.impl;
+
+import net.quasardb.teamcity.compression.logging.Logger;
+import net.quasardb.teamcity.compression.utils.ExecutorUtils;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Writes file entries concurrently on its own pool of writer threads, which is stopped by {@link #close()}.
+ * <ul>
+ * <li>directories are created on the calling thread, before any file below them is submitted;</li>
+ * <li>small entries of sequential streams are buffered and handed to a worker, large ones are written inline;</li>
+ * <li>an entry waits for a pending write to the same destination, so the last entry for a path still wins;
+ * only writes that have not completed are tracked, so memory does not grow with the number of entries;</li>
+ * <li>symbolic links are created on the calling thread in archive order, after a pending write to their path.</li>
+ * </ul>
+ */
+public class ParallelEntryWriter extends SequentialEntryWriter {
+
+    private static final int MAX_BUFFERED_ENTRY_SIZE = 1024 * 1024;
+    private static final int TASKS_PER_THREAD = 16;
+
+    private final ExecutorService executor;
+    private final Semaphore inFlightBytes;
+    private final Semaphore inFlightTasks;
+    private final int maxBufferedEntrySize;
+    private final Map<File, Future<?>> pendingWrites = new ConcurrentHashMap<>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    private interface WriteTask {
+        void run() throws IOException;
+    }
+
+    public ParallelEntryWriter(int threads, long maxInFlightBytes) {
+        int inFlightLimit = (int) Math.min(Integer.MAX_VALUE, Math.max(maxInFlightBytes, 1));
+        this.maxBufferedEntrySize = Math.min(MAX_BUFFERED_ENTRY_SIZE, inFlightLimit);
+        this.inFlightBytes = new Semaphore(inFlightLimit);
+        this.inFlightTasks = new Semaphore(threads * TASKS_PER_THREAD);
+        this.executor = ExecutorUtils.newDaemonPool("zstd-writer", threads);
+    }
+
+    @Override
+    public void writeDirectory(@NotNull File destination) throws IOException {
+        checkFailure();
+        super.writeDirectory(destination);
+    }
+
+    @Override
+    public void writeSymbolicLink(@NotNull String target, @NotNull File destination) throws IOException {
+        checkFailure();
+        awaitPendingWrite(destination);
+        createSymbolicLink(target, destination);
+    }
+
+    @Override
+    public void writeFile(@NotNull InputStream content, long size, int mode, long lastModified, @NotNull File destination) throws IOException {
+        checkFailure();
+        awaitPendingWrite(destination);
+        if (size < 0 || size > maxBufferedEntrySize) {
+            writeContent(content, mode, lastModified, destination);
+            return;
+        }
+        int length = (int) size;
+        acquire(inFlightBytes, length);
+        byte[] data = new byte[length];
+        try {
+            new DataInputStream(content).readFully(data);
+        } catch (IOException e) {
+            inFlightBytes.release(length);
+            throw e;
+        }
+        submit(destination, length, () -> writeContent(new ByteArrayInputStream(data), mode, lastModified, destination));
+    }
+
+    @Override
+    public void writeFile(@NotNull ContentSupplier content, long size, int mode, long lastModified, @NotNull File destination) throws IOException {
+        checkFailure();
+        awaitPendingWrite(destination);
+        submit(destination, 0, () -> {
+            try (InputStream in = content.open()) {
+                writeContent(in, mode, lastModified, destination);
+            }
+        });
+    }
+
+    @Override
+    public void writeCopy(@NotNull File source, @NotNull File destination) throws IOException {
+        checkFailure();
+        awaitPendingWrite(source);
+        awaitPendingWrite(destination);
+        submit(destination, 0, () -> copyContent(source, destination));
+    }
+
+    private void submit(File destination, int bufferedBytes, WriteTask task) throws IOException {
+        try {
+            acquire(inFlightTasks, 1);
+        } catch (IOException e) {
+            inFlightBytes.release(bufferedBytes);
+            throw e;
+        }
+        File key = destination.getAbsoluteFile();
+        FutureTask<Void> future = new FutureTask<>(() -> {
+            try {
+                if (failure.get() == null) {
+                    task.run();
+                }
+            } catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                inFlightBytes.release(bufferedBytes);
+                inFlightTasks.release();
+            }
+        }, null);
+        pendingWrites.put(key, future);
+        executor.execute(() -> {
+            try {
+                future.run();
+            } finally {
+                // a later write to the same path may have replaced this one already
+                pendingWrites.remove(key, future);
+            }
+        });
+    }
+
+    /**
+     * @return the number of submitted writes that have not completed yet
+     */
+    public int getPendingWriteCount() {
+        return pendingWrites.size();
+    }
+
+    private void awaitPendingWrite(File destination) throws IOException {
+        Future<?> pending = pendingWrites.remove(destination.getAbsoluteFile());
+        if (pending != null) {
+            await(pending);
+        }
+    }
+
+    private static void acquire(Semaphore semaphore, int permits) throws IOException {
+        try {
+            semaphore.acquire(permits);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for entry writers");
+        }
+    }
+
+    private static void await(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for entry writers");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable e = failure.get();
+        if (e instanceof IOException) {
+            throw (IOException) e;
+        }
+        if (e != null) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        for (Future<?> pending : pendingWrites.values()) {
+            await(pending);
+        }
+        pendingWrites.clear();
+        checkFailure();
+    }
+
+    /**
+     * Skips the writes that did not start, waits for the ones in progress and stops the writer threads.
+     */
+    @Override
+    public void close() {
+        if (!pendingWrites.isEmpty()) {
+            Logger.debug("Abandoning " + pendingWrites.size() + " pending entry writes");
+            failure.compareAndSet(null, new IOException("Entry writer closed before it was finished"));
+        }
+        try {
+            for (Future<?> pending : pendingWrites.values()) {
+                try {
+                    pending.get();
+                } catch (ExecutionException ignored) {
+                    // failures are recorded by the task itself
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pendingWrites.clear();
+            executor.shutdownNow();
+        }
+    }
+}
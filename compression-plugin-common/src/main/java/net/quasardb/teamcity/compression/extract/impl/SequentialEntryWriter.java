@@ -0,0 +1,88 @@
+package net.quasardb.teamcity.compression.extract.impl;
+
+import net.quasardb.teamcity.compression.extract.EntryWriter;
+import net.quasardb.teamcity.compression.logging.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Writes every entry on the calling thread in archive order.
+ */
+public class SequentialEntryWriter implements EntryWriter {
+
+    @Override
+    public void writeDirectory(@NotNull File destination) throws IOException {
+        destination.mkdirs();
+    }
+
+    @Override
+    public void writeSymbolicLink(@NotNull String target, @NotNull File destination) throws IOException {
+        createSymbolicLink(target, destination);
+    }
+
+    @Override
+    public void writeFile(@NotNull InputStream content, long size, int mode, long lastModified, @NotNull File destination) throws IOException {
+        writeContent(content, mode, lastModified, destination);
+    }
+
+    @Override
+    public void writeFile(@NotNull ContentSupplier content, long size, int mode, long lastModified, @NotNull File destination) throws IOException {
+        try (InputStream in = content.open()) {
+            writeContent(in, mode, lastModified, destination);
+        }
+    }
+
+    @Override
+    public void writeCopy(@NotNull File source, @NotNull File destination) throws IOException {
+        copyContent(source, destination);
+    }
+
+    @Override
+    public void finish() throws IOException {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    static void createParentDirs(@NotNull File destination) {
+        File parentDir = destination.getParentFile();
+        if (parentDir != null) {
+            parentDir.mkdirs();
+        }
+    }
+
+    static void writeContent(@NotNull InputStream content, int mode, long lastModified, @NotNull File destination) throws IOException {
+        createParentDirs(destination);
+        Files.copy(content, destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        if ((mode & 0111) != 0) {
+            destination.setExecutable(true, (mode & 0011) == 0);
+        }
+        if (lastModified != UNKNOWN_TIME) {
+            destination.setLastModified(lastModified);
+        }
+    }
+
+    static void copyContent(@NotNull File source, @NotNull File destination) throws IOException {
+        createParentDirs(destination);
+        Files.copy(source.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+    }
+
+    static void createSymbolicLink(@NotNull String target, @NotNull File destination) throws IOException {
+        createParentDirs(destination);
+        Path destinationPath = destination.toPath();
+        Files.deleteIfExists(destinationPath);
+        try {
+            Files.createSymbolicLink(destinationPath, Paths.get(target));
+        } catch (UnsupportedOperationException | IOException e) {
+            Logger.error("ZSTD could not create symbolic link " + destinationPath + " -> " + target, e);
+        }
+    }
+}
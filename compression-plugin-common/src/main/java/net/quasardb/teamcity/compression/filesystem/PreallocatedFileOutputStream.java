@@ -0,0 +1,67 @@
+package net.quasardb.teamcity.compression.filesystem;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes a file of known size sequentially after setting its final length up front, so that the file size is not
+ * updated on every write. Setting the length only leaves a sparse file: blocks are still allocated as they are
+ * written, so this neither reserves the disk space nor keeps the file contiguous.
+ * On close the file is truncated to the bytes actually written, in case the expected size was too large.
+ */
+public class PreallocatedFileOutputStream extends OutputStream {
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private boolean closed;
+
+    public PreallocatedFileOutputStream(@NotNull File target, long size) throws IOException {
+        this.file = new RandomAccessFile(target, "rw");
+        try {
+            file.setLength(size);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        this.channel = file.getChannel();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(@NotNull byte[] b, int off, int len) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * @return the number of bytes written so far
+     */
+    public long getWritten() throws IOException {
+        return channel.position();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            channel.truncate(channel.position());
+        } finally {
+            file.close();
+        }
+    }
+}
@@ -5,7 +5,16 @@ import java.io.IOException;
 
 public interface StagingArea {
     File createTempFile() throws IOException;
+
+    /**
+     * Creates a temp file for a payload of the expected size, or of unknown size if it is negative.
+     */
+    File createTempFile(long expectedBytes) throws IOException;
     File createTempDirectory() throws IOException;
+
+    /**
+     * Releases the staged files; they are deleted asynchronously.
+     */
     boolean cleanup();
     void setParent(String archiveParentFolder);
 }
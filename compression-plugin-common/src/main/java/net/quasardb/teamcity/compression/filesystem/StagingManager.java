@@ -0,0 +1,194 @@
+package net.quasardb.teamcity.compression.filesystem;
+
+import net.quasardb.teamcity.compression.config.ZstdProperties;
+import net.quasardb.teamcity.compression.logging.Logger;
+import net.quasardb.teamcity.compression.utils.ExecutorUtils;
+import net.quasardb.teamcity.compression.utils.FileSystemUtils;
+import org.apache.commons.io.FileUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Process-wide bookkeeping of staged temp files and directories.
+ * <ul>
+ * <li>staging is refused when it would exceed the quota of staged bytes or leave less than the minimum free space;</li>
+ * <li>staged files are deleted on a background thread, so that extraction does not wait for the file system;</li>
+ * <li>the first time a directory is used, temp files left there by crashed processes are swept.</li>
+ * </ul>
+ * Files being deleted still count against the quota until they are gone.
+ */
+public class StagingManager {
+
+    public static final String TEMP_FILE_PREFIX = "zstd_temp_";
+    public static final long UNKNOWN_SIZE = -1;
+
+    private static final int MAX_SWEPT_DIRECTORIES = 1024;
+
+    private static volatile StagingManager instance;
+
+    private final long maxStagedBytes;
+    private final long minFreeBytes;
+    private final long orphanAgeMillis;
+    private final Map<File, Long> stagedFiles = new HashMap<>();
+    private final Map<File, Boolean> sweptDirectories = new LinkedHashMap<File, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<File, Boolean> eldest) {
+            return size() > MAX_SWEPT_DIRECTORIES;
+        }
+    };
+    private final ExecutorService cleaner = ExecutorUtils.newDaemonPool("zstd-staging-cleanup", 1);
+
+    /**
+     * @param maxStagedBytes  quota of staged bytes, 0 for no quota
+     * @param minFreeBytes    free space to leave on the staging file system
+     * @param orphanAgeMillis age after which an unknown temp file is considered left by a crashed process
+     */
+    public StagingManager(long maxStagedBytes, long minFreeBytes, long orphanAgeMillis) {
+        this.maxStagedBytes = maxStagedBytes;
+        this.minFreeBytes = minFreeBytes;
+        this.orphanAgeMillis = orphanAgeMillis;
+    }
+
+    public static StagingManager getInstance() {
+        if (instance == null) {
+            synchronized (StagingManager.class) {
+                if (instance == null) {
+                    instance = new StagingManager(ZstdProperties.getStagingMaxSizeBytes(),
+                            ZstdProperties.getStagingMinFreeBytes(), ZstdProperties.getStagingOrphanAgeMillis());
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Creates a temp file for a payload of the expected size, or of unknown size if it is negative.
+     *
+     * @param directory the directory of the file, null for the default temp directory
+     */
+    public File createTempFile(@Nullable File directory, @NotNull String suffix, long expectedBytes) throws IOException {
+        File parent = directory != null ? directory : getDefaultDirectory();
+        sweepOrphansAsync(parent);
+        long reservedBytes = Math.max(0, expectedBytes);
+        synchronized (this) {
+            checkSpace(parent, reservedBytes);
+            File tempFile = File.createTempFile(TEMP_FILE_PREFIX, suffix, parent).getAbsoluteFile();
+            stagedFiles.put(tempFile, reservedBytes);
+            return tempFile;
+        }
+    }
+
+    /**
+     * Creates a temp directory; its content is deleted with it and counts against the quota only through the files
+     * created with {@link #createTempFile}.
+     */
+    public File createTempDirectory(@Nullable File directory) throws IOException {
+        File parent = directory != null ? directory : getDefaultDirectory();
+        sweepOrphansAsync(parent);
+        synchronized (this) {
+            checkSpace(parent, 0);
+            File tempDirectory = Files.createTempDirectory(parent.toPath(), TEMP_FILE_PREFIX).toFile().getAbsoluteFile();
+            stagedFiles.put(tempDirectory, 0L);
+            return tempDirectory;
+        }
+    }
+
+    private void checkSpace(File directory, long reservedBytes) throws IOException {
+        if (maxStagedBytes > 0) {
+            long stagedBytes = getStagedBytes();
+            if (stagedBytes + reservedBytes > maxStagedBytes) {
+                throw new IOException("ZSTD staging quota of " + maxStagedBytes + " bytes exceeded: "
+                        + stagedBytes + " bytes staged, " + reservedBytes + " bytes requested");
+            }
+        }
+        FileSystemUtils.checkFreeSpace(directory, reservedBytes, minFreeBytes);
+    }
+
+    /**
+     * @return bytes currently staged, counting every file at least at its expected size
+     */
+    public synchronized long getStagedBytes() {
+        long stagedBytes = 0;
+        for (Map.Entry<File, Long> staged : stagedFiles.entrySet()) {
+            stagedBytes += Math.max(staged.getValue(), staged.getKey().length());
+        }
+        return stagedBytes;
+    }
+
+    /**
+     * Deletes a staged file or directory on the cleanup thread.
+     */
+    public void delete(@NotNull File file) {
+        cleaner.execute(() -> {
+            try {
+                if (file.exists() && !FileUtils.deleteQuietly(file)) {
+                    Logger.error("Could not delete temp file: " + file);
+                } else {
+                    Logger.debug("Temp file " + file.getName() + " cleaned");
+                }
+            } finally {
+                synchronized (this) {
+                    stagedFiles.remove(file.getAbsoluteFile());
+                }
+            }
+        });
+    }
+
+    /**
+     * Sweeps the default temp directory, where temp directories of stream extractions are created.
+     */
+    public void sweepOrphansAsync() {
+        sweepOrphansAsync(getDefaultDirectory());
+    }
+
+    /**
+     * Sweeps the directory for temp files of crashed processes on the cleanup thread, once per directory.
+     */
+    public void sweepOrphansAsync(@NotNull File directory) {
+        File key = directory.getAbsoluteFile();
+        synchronized (sweptDirectories) {
+            if (sweptDirectories.put(key, Boolean.TRUE) != null) {
+                return;
+            }
+        }
+        cleaner.execute(() -> sweepOrphans(key));
+    }
+
+    /**
+     * Deletes temp files and directories of this plugin older than the orphan age that are not staged by this process.
+     *
+     * @return the number of deleted orphans
+     */
+    public int sweepOrphans(@NotNull File directory) {
+        File[] candidates = directory.listFiles((dir, name) -> name.startsWith(TEMP_FILE_PREFIX));
+        if (candidates == null) {
+            return 0;
+        }
+        long staleBefore = System.currentTimeMillis() - orphanAgeMillis;
+        int deleted = 0;
+        for (File candidate : candidates) {
+            synchronized (this) {
+                if (stagedFiles.containsKey(candidate)) {
+                    continue;
+                }
+            }
+            if (candidate.lastModified() < staleBefore && FileUtils.deleteQuietly(candidate)) {
+                Logger.info("ZSTD deleted orphaned temp file " + candidate);
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    private static File getDefaultDirectory() {
+        return new File(System.getProperty("java.io.tmpdir"));
+    }
+}
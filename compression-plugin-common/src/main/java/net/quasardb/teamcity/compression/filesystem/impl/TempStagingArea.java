@@ -1,61 +1,58 @@
 package net.quasardb.teamcity.compression.filesystem.impl;
 
 import net.quasardb.teamcity.compression.filesystem.StagingArea;
+import net.quasardb.teamcity.compression.filesystem.StagingManager;
 import net.quasardb.teamcity.compression.logging.Logger;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
 
 public class TempStagingArea implements StagingArea {
     private File stagingAreaFile;
-    private final String TEMP_FILE_PREFIX = "zstd_temp_";
     private final String TEMP_FILE_SUFFIX = "_decompressed";
     private final List<File> fileCache = new ArrayList<>();
+    private final StagingManager stagingManager = StagingManager.getInstance();
 
     public TempStagingArea() {}
 
     public TempStagingArea(boolean createTempParent) {
         try {
-            this.stagingAreaFile = Files.createTempDirectory(TEMP_FILE_PREFIX).toFile();
+            this.stagingAreaFile = stagingManager.createTempDirectory(null);
+            fileCache.add(stagingAreaFile);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
     @Override
-    public synchronized File createTempFile() throws IOException {
-        File tempFile =  File.createTempFile(TEMP_FILE_PREFIX, TEMP_FILE_SUFFIX, this.stagingAreaFile);
+    public File createTempFile() throws IOException {
+        return createTempFile(StagingManager.UNKNOWN_SIZE);
+    }
+
+    @Override
+    public synchronized File createTempFile(long expectedBytes) throws IOException {
+        File tempFile = stagingManager.createTempFile(this.stagingAreaFile, TEMP_FILE_SUFFIX, expectedBytes);
         Logger.debug("Temp file "+tempFile.getName()+ " created");
         fileCache.add(tempFile);
         return tempFile;
     }
 
     @Override
-    public File createTempDirectory() throws IOException {
-        return Files.createTempDirectory(TEMP_FILE_PREFIX).toFile();
+    public synchronized File createTempDirectory() throws IOException {
+        File tempDirectory = stagingManager.createTempDirectory(null);
+        fileCache.add(tempDirectory);
+        return tempDirectory;
     }
 
     @Override
     public synchronized boolean cleanup() {
-        for(int i=0; i<fileCache.size();i++){
-            File tempFile = fileCache.get(i);
-            if(tempFile!=null && stagingAreaFile.exists()){
-                boolean deleted = tempFile.delete();
-                if(deleted){
-                    Logger.debug("Temp file "+tempFile.getName()+ " cleaned");
-                }else{
-                    Logger.error("Could not delete temp file: "+tempFile.getName());
-                }
-                fileCache.remove(i);
-            }else{
-                Logger.debug("Temp file is null or does not exists!");
-                fileCache.remove(i);
-            }
+        for (File tempFile : fileCache) {
+            stagingManager.delete(tempFile);
         }
-        return fileCache.isEmpty();
+        fileCache.clear();
+        return true;
     }
 
     @Override
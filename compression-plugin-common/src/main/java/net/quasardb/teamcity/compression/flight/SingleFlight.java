@@ -0,0 +1,177 @@
+package net.quasardb.teamcity.compression.flight;
+
+import net.quasardb.teamcity.compression.logging.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Shares one computation of a value between concurrent callers asking for the same key.
+ * <ul>
+ * <li>the first caller produces the value on its own thread, later callers wait for it;</li>
+ * <li>a failure of the producer is reported to every caller waiting for it, the next caller starts over;</li>
+ * <li>the value is closed once the last caller holding it has closed its lease.</li>
+ * </ul>
+ */
+public class SingleFlight<V extends Closeable> {
+
+    public interface Producer<V> {
+        /**
+         * @return the value to share, may be null
+         */
+        V produce() throws IOException;
+    }
+
+    private final Map<String, Flight> flights = new HashMap<>();
+
+    private final class Flight {
+        private final CompletableFuture<V> result = new CompletableFuture<>();
+        private int holders;
+    }
+
+    /**
+     * A shared value in use; the value is not closed until every lease is closed.
+     */
+    public final class Lease implements Closeable {
+        private final String key;
+        private final Flight flight;
+        private final V value;
+        private boolean closed;
+
+        private Lease(String key, Flight flight, V value) {
+            this.key = key;
+            this.flight = flight;
+            this.value = value;
+        }
+
+        @Nullable
+        public V get() {
+            return value;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                leave(key, flight);
+            }
+        }
+    }
+
+    /**
+     * Returns the value produced for the key, producing it on the calling thread unless another caller already does.
+     */
+    public Lease join(@NotNull String key, @NotNull Producer<V> producer) throws IOException {
+        Flight flight;
+        boolean leader;
+        synchronized (flights) {
+            flight = flights.get(key);
+            leader = flight == null;
+            if (leader) {
+                flight = new Flight();
+                flights.put(key, flight);
+            }
+            flight.holders++;
+        }
+        if (leader) {
+            return lead(key, flight, producer);
+        }
+        Logger.debug("Waiting for concurrent extraction of " + key);
+        return await(key, flight);
+    }
+
+    /**
+     * Returns the value for the key if another caller is producing it or still holds it.
+     *
+     * @return null if there is no such flight
+     */
+    public Lease joinExisting(@NotNull String key) throws IOException {
+        Flight flight;
+        synchronized (flights) {
+            flight = flights.get(key);
+            if (flight == null) {
+                return null;
+            }
+            flight.holders++;
+        }
+        Logger.debug("Waiting for concurrent extraction of " + key);
+        return await(key, flight);
+    }
+
+    private Lease lead(String key, Flight flight, Producer<V> producer) throws IOException {
+        V value;
+        try {
+            value = producer.produce();
+        } catch (IOException | RuntimeException | Error e) {
+            fail(key, flight, e);
+            throw e;
+        }
+        flight.result.complete(value);
+        return new Lease(key, flight, value);
+    }
+
+    private void fail(String key, Flight flight, Throwable e) {
+        synchronized (flights) {
+            if (flights.get(key) == flight) {
+                flights.remove(key);
+            }
+            flight.holders--;
+        }
+        flight.result.completeExceptionally(e);
+    }
+
+    private Lease await(String key, Flight flight) throws IOException {
+        try {
+            return new Lease(key, flight, flight.result.get());
+        } catch (InterruptedException e) {
+            leave(key, flight);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for concurrent extraction of " + key);
+        } catch (ExecutionException e) {
+            leave(key, flight);
+            Throwable cause = e.getCause();
+            if (cause instanceof InterruptedIOException) {
+                throw new InterruptedIOException("Concurrent extraction of " + key + " was interrupted");
+            }
+            throw new IOException("Concurrent extraction of " + key + " failed: " + cause.getMessage(), cause);
+        }
+    }
+
+    private void leave(String key, Flight flight) {
+        synchronized (flights) {
+            if (--flight.holders > 0) {
+                return;
+            }
+            if (flights.get(key) == flight) {
+                flights.remove(key);
+            }
+        }
+        if (!flight.result.isDone() || flight.result.isCompletedExceptionally()) {
+            return;
+        }
+        V value = flight.result.getNow(null);
+        if (value != null) {
+            try {
+                value.close();
+            } catch (IOException e) {
+                Logger.error("Could not release shared payload of " + key, e);
+            }
+        }
+    }
+
+    /**
+     * @return the number of keys being produced or held
+     */
+    public int size() {
+        synchronized (flights) {
+            return flights.size();
+        }
+    }
+}
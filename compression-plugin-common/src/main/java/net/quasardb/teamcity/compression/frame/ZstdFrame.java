@@ -0,0 +1,29 @@
+package net.quasardb.teamcity.compression.frame;
+
+/**
+ * Location of one independent zstd frame inside a file.
+ */
+public class ZstdFrame {
+
+    private final long offset;
+    private final int compressedSize;
+    private final long contentSize;
+
+    public ZstdFrame(long offset, int compressedSize, long contentSize) {
+        this.offset = offset;
+        this.compressedSize = compressedSize;
+        this.contentSize = contentSize;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getCompressedSize() {
+        return compressedSize;
+    }
+
+    public long getContentSize() {
+        return contentSize;
+    }
+}
@@ -0,0 +1,125 @@
+package net.quasardb.teamcity.compression.frame;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Parsed header of a zstd frame (RFC 8878, section 3.1.1.1) or of a skippable frame.
+ */
+public class ZstdFrameHeader {
+
+    public static final int FRAME_MAGIC = 0xFD2FB528;
+    public static final int SKIPPABLE_MAGIC_MASK = 0xFFFFFFF0;
+    public static final int SKIPPABLE_MAGIC = 0x184D2A50;
+    public static final int MAX_HEADER_SIZE = 18;
+    public static final long UNKNOWN_CONTENT_SIZE = -1;
+
+    private static final int[] DICT_ID_SIZES = {0, 1, 2, 4};
+    private static final int[] CONTENT_SIZE_SIZES = {1, 2, 4, 8};
+
+    private final boolean skippable;
+    private final int headerSize;
+    private final long contentSize;
+    private final long windowSize;
+    private final long dictId;
+    private final boolean checksum;
+
+    private ZstdFrameHeader(boolean skippable, int headerSize, long contentSize, long windowSize, long dictId, boolean checksum) {
+        this.skippable = skippable;
+        this.headerSize = headerSize;
+        this.contentSize = contentSize;
+        this.windowSize = windowSize;
+        this.dictId = dictId;
+        this.checksum = checksum;
+    }
+
+    /**
+     * Parses a frame header from the beginning of the buffer (the buffer position is not changed).
+     *
+     * @return header or null if the buffer does not start with a zstd or skippable frame
+     */
+    @Nullable
+    public static ZstdFrameHeader parse(@NotNull ByteBuffer buffer) {
+        ByteBuffer in = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (in.remaining() < 8) {
+            return null;
+        }
+        int magic = in.getInt(0);
+        if ((magic & SKIPPABLE_MAGIC_MASK) == SKIPPABLE_MAGIC) {
+            long size = in.getInt(4) & 0xFFFFFFFFL;
+            return new ZstdFrameHeader(true, 8, size, 0, 0, false);
+        }
+        if (magic != FRAME_MAGIC) {
+            return null;
+        }
+        int descriptor = in.get(4) & 0xFF;
+        int contentSizeFlag = descriptor >>> 6;
+        boolean singleSegment = (descriptor & 0x20) != 0;
+        boolean checksum = (descriptor & 0x04) != 0;
+        int dictIdSize = DICT_ID_SIZES[descriptor & 0x03];
+        int contentSizeSize = contentSizeFlag == 0 && !singleSegment ? 0 : CONTENT_SIZE_SIZES[contentSizeFlag];
+        int headerSize = 5 + (singleSegment ? 0 : 1) + dictIdSize + contentSizeSize;
+        if (in.remaining() < headerSize) {
+            return null;
+        }
+
+        int position = 5;
+        long windowSize = 0;
+        if (!singleSegment) {
+            int windowDescriptor = in.get(position++) & 0xFF;
+            long windowBase = 1L << (10 + (windowDescriptor >>> 3));
+            windowSize = windowBase + (windowBase / 8) * (windowDescriptor & 0x07);
+        }
+        long dictId = readLittleEndian(in, position, dictIdSize);
+        position += dictIdSize;
+        long contentSize = UNKNOWN_CONTENT_SIZE;
+        if (contentSizeSize > 0) {
+            contentSize = readLittleEndian(in, position, contentSizeSize);
+            if (contentSizeSize == 2) {
+                contentSize += 256;
+            }
+        }
+        if (singleSegment) {
+            windowSize = contentSize;
+        }
+        return new ZstdFrameHeader(false, headerSize, contentSize, windowSize, dictId, checksum);
+    }
+
+    private static long readLittleEndian(ByteBuffer in, int position, int size) {
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+            value |= (in.get(position + i) & 0xFFL) << (8 * i);
+        }
+        return value;
+    }
+
+    public boolean isSkippable() {
+        return skippable;
+    }
+
+    public int getHeaderSize() {
+        return headerSize;
+    }
+
+    /**
+     * @return decompressed size recorded in the header, {@link #UNKNOWN_CONTENT_SIZE} if absent; payload size for skippable frames
+     */
+    public long getContentSize() {
+        return contentSize;
+    }
+
+    public long getWindowSize() {
+        return windowSize;
+    }
+
+    public long getDictId() {
+        return dictId;
+    }
+
+    public boolean hasChecksum() {
+        return checksum;
+    }
+}
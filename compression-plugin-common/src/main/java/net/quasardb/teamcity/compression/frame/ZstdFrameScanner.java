@@ -0,0 +1,138 @@
+package net.quasardb.teamcity.compression.frame;
+
+import net.quasardb.teamcity.compression.logging.Logger;
+import net.quasardb.teamcity.compression.seekable.SeekTable;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Finds the boundaries of independent frames in a zstd file, either from the seek table or by walking
+ * frame and block headers. Block contents are never read.
+ */
+public class ZstdFrameScanner {
+
+    private static final int BLOCK_HEADER_SIZE = 3;
+    private static final int CHECKSUM_SIZE = 4;
+    private static final int BLOCK_TYPE_RLE = 1;
+    private static final int BLOCK_TYPE_RESERVED = 3;
+    /**
+     * Block headers {@link #getContentSize} reads at most, i.e. 512 MB of content in full 128 KB blocks.
+     */
+    static final int MAX_SIZED_BLOCKS = 4096;
+
+    /**
+     * Lists the data frames of the file. Without a seek table, the end of each frame is found by reading its block
+     * headers; scanning stops (returning null) at the header of a frame whose content size is unknown or larger than
+     * {@code maxFrameSize}.
+     *
+     * @return frames in file order, or null if the file is not made of bounded, size-annotated frames
+     */
+    @Nullable
+    public static List<ZstdFrame> scan(@NotNull FileChannel channel, long maxFrameSize) throws IOException {
+        return scan(channel, maxFrameSize, new int[]{Integer.MAX_VALUE});
+    }
+
+    @Nullable
+    private static List<ZstdFrame> scan(@NotNull FileChannel channel, long maxFrameSize, int[] blocksLeft) throws IOException {
+        SeekTable seekTable = SeekTable.read(channel);
+        if (seekTable != null) {
+            return fromSeekTable(seekTable);
+        }
+
+        List<ZstdFrame> frames = new ArrayList<>();
+        long fileSize = channel.size();
+        long offset = 0;
+        ByteBuffer headerBuffer = ByteBuffer.allocate(ZstdFrameHeader.MAX_HEADER_SIZE);
+        while (offset < fileSize) {
+            headerBuffer.clear();
+            channel.read(headerBuffer, offset);
+            headerBuffer.flip();
+            ZstdFrameHeader header = ZstdFrameHeader.parse(headerBuffer);
+            if (header == null) {
+                Logger.debug("No zstd frame found at offset " + offset);
+                return null;
+            }
+            if (header.isSkippable()) {
+                offset += header.getHeaderSize() + header.getContentSize();
+                continue;
+            }
+            long contentSize = header.getContentSize();
+            if (contentSize == ZstdFrameHeader.UNKNOWN_CONTENT_SIZE || contentSize > maxFrameSize) {
+                return null;
+            }
+            long frameEnd = findFrameEnd(channel, offset, header, fileSize, blocksLeft);
+            if (frameEnd < 0 || frameEnd - offset > Integer.MAX_VALUE) {
+                return null;
+            }
+            frames.add(new ZstdFrame(offset, (int) (frameEnd - offset), contentSize));
+            offset = frameEnd;
+        }
+        return frames;
+    }
+
+    /**
+     * Sums the content sizes recorded in the seek table or in the frame headers of the file. Without a seek table
+     * at most {@link #MAX_SIZED_BLOCKS} block headers are read to find where the frames end.
+     *
+     * @return the decompressed size or {@link ZstdFrameHeader#UNKNOWN_CONTENT_SIZE} if a frame does not record it
+     * or the frames have more blocks than that
+     */
+    public static long getContentSize(@NotNull FileChannel channel) throws IOException {
+        List<ZstdFrame> frames = scan(channel, Long.MAX_VALUE, new int[]{MAX_SIZED_BLOCKS});
+        if (frames == null) {
+            return ZstdFrameHeader.UNKNOWN_CONTENT_SIZE;
+        }
+        long contentSize = 0;
+        for (ZstdFrame frame : frames) {
+            contentSize += frame.getContentSize();
+        }
+        return contentSize;
+    }
+
+    private static List<ZstdFrame> fromSeekTable(SeekTable seekTable) {
+        List<ZstdFrame> frames = new ArrayList<>(seekTable.getFrameCount());
+        for (int i = 0; i < seekTable.getFrameCount(); i++) {
+            frames.add(new ZstdFrame(seekTable.getCompressedOffset(i), seekTable.getCompressedSize(i), seekTable.getDecompressedSize(i)));
+        }
+        return Collections.unmodifiableList(frames);
+    }
+
+    /**
+     * @return the offset after the frame, or -1 if it has more blocks than are left
+     */
+    private static long findFrameEnd(FileChannel channel, long frameOffset, ZstdFrameHeader header, long fileSize, int[] blocksLeft) throws IOException {
+        long position = frameOffset + header.getHeaderSize();
+        ByteBuffer blockHeader = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+        while (true) {
+            if (blocksLeft[0]-- <= 0) {
+                Logger.debug("Stopped walking zstd blocks at " + position);
+                return -1;
+            }
+            blockHeader.clear();
+            if (channel.read(blockHeader, position) < BLOCK_HEADER_SIZE) {
+                throw new IOException("Truncated zstd block header at " + position);
+            }
+            int value = (blockHeader.get(0) & 0xFF) | (blockHeader.get(1) & 0xFF) << 8 | (blockHeader.get(2) & 0xFF) << 16;
+            boolean lastBlock = (value & 1) != 0;
+            int blockType = (value >>> 1) & 0x03;
+            int blockSize = value >>> 3;
+            if (blockType == BLOCK_TYPE_RESERVED) {
+                throw new IOException("Corrupted zstd block at " + position);
+            }
+            position += BLOCK_HEADER_SIZE + (blockType == BLOCK_TYPE_RLE ? 1 : blockSize);
+            if (position > fileSize) {
+                throw new IOException("Truncated zstd frame at " + frameOffset);
+            }
+            if (lastBlock) {
+                return position + (header.hasChecksum() ? CHECKSUM_SIZE : 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package net.quasardb.teamcity.compression.index;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Directory structure of one archive, built in a single pass over its entries, so that every folder listing
+ * is a lookup instead of another scan of the archive.
+ * <p>
+ * Path segments are shared between all nodes with the same name, and children are kept in archive order in a plain
+ * array; only folders with many children get a hash index for lookups. Tries are created by a {@link Builder}, which
+ * holds the table of shared segments only while the trie is built.
+ */
+public class DirectoryTrie {
+
+    public static final long SIZE_UNKNOWN = -1;
+
+    private static final Node[] NO_CHILDREN = new Node[0];
+    private static final int INDEXED_CHILDREN = 16;
+
+    private final Node root = new Node("");
+    private int nodeCount = 1;
+
+    private DirectoryTrie() {
+    }
+
+    @NotNull
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Node {
+        private final String name;
+        private Node[] children = NO_CHILDREN;
+        private int childCount;
+        private Map<String, Node> childIndex;
+        private long size = SIZE_UNKNOWN;
+        private long timestamp;
+        private boolean directory = true;
+
+        private Node(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the size of the entry or {@link #SIZE_UNKNOWN} for directories without an entry of their own
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return the modification time of the entry, {@link #SIZE_UNKNOWN} if the entry has none
+         * or 0 for directories without an entry of their own
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public boolean isDirectory() {
+            return directory;
+        }
+
+        public List<Node> getChildren() {
+            return Collections.unmodifiableList(Arrays.asList(children).subList(0, childCount));
+        }
+
+        private Node getChild(String segment) {
+            if (childIndex != null) {
+                return childIndex.get(segment);
+            }
+            for (int i = 0; i < childCount; i++) {
+                if (children[i].name.equals(segment)) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        private void addChild(Node child) {
+            if (childCount == children.length) {
+                children = Arrays.copyOf(children, Math.max(4, childCount * 2));
+            }
+            children[childCount++] = child;
+            if (childIndex != null) {
+                childIndex.put(child.name, child);
+            } else if (childCount > INDEXED_CHILDREN) {
+                childIndex = new HashMap<>(childCount * 2);
+                for (int i = 0; i < childCount; i++) {
+                    childIndex.put(children[i].name, children[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param folderPath path of a folder relative to the archive root; leading, trailing and repeated slashes are ignored
+     * @return the folder or the archive root, or null if the archive has no such path
+     */
+    public Node find(@NotNull String folderPath) {
+        Node node = root;
+        int length = folderPath.length();
+        int start = 0;
+        while (start < length && node != null) {
+            int end = start;
+            while (end < length && !isSeparator(folderPath.charAt(end))) {
+                end++;
+            }
+            if (end > start) {
+                node = node.getChild(folderPath.substring(start, end));
+            }
+            start = end + 1;
+        }
+        return node;
+    }
+
+    /**
+     * @return the children of the folder in archive order, or null if the archive has no such path
+     */
+    public List<Node> list(@NotNull String folderPath) {
+        Node folder = find(folderPath);
+        return folder != null ? new ArrayList<>(folder.getChildren()) : null;
+    }
+
+    /**
+     * @return the number of nodes including the root, used to weigh the trie in caches
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Collects the entries of one archive into a trie; the builder cannot be used once the trie is built.
+     */
+    public static class Builder {
+        private DirectoryTrie trie = new DirectoryTrie();
+        private final Map<String, String> segments = new HashMap<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Adds an archive entry; its parent folders are added as directories if the archive has no entries for them.
+         * Both slash kinds separate segments, and empty segments are skipped.
+         */
+        public Builder add(@NotNull String entryName, long size, long timestamp, boolean isDirectory) {
+            if (trie == null) {
+                throw new IllegalStateException("The trie is already built");
+            }
+            Node node = trie.root;
+            int length = entryName.length();
+            int start = 0;
+            while (start < length) {
+                int end = start;
+                while (end < length && !isSeparator(entryName.charAt(end))) {
+                    end++;
+                }
+                if (end > start) {
+                    String segment = entryName.substring(start, end);
+                    Node child = node.getChild(segment);
+                    if (child == null) {
+                        child = new Node(intern(segment));
+                        node.addChild(child);
+                        trie.nodeCount++;
+                    }
+                    node = child;
+                }
+                start = end + 1;
+            }
+            if (node != trie.root) {
+                node.size = size;
+                node.timestamp = timestamp;
+                node.directory = isDirectory;
+            }
+            return this;
+        }
+
+        /**
+         * @return the trie; the table of shared segments stays with the builder
+         */
+        @NotNull
+        public DirectoryTrie build() {
+            if (trie == null) {
+                throw new IllegalStateException("The trie is already built");
+            }
+            DirectoryTrie built = trie;
+            trie = null;
+            segments.clear();
+            return built;
+        }
+
+        private String intern(String segment) {
+            String shared = segments.putIfAbsent(segment, segment);
+            return shared != null ? shared : segment;
+        }
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == '/' || c == '\\';
+    }
+}
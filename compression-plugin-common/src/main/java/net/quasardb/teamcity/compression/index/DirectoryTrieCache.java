@@ -0,0 +1,80 @@
+package net.quasardb.teamcity.compression.index;
+
+import net.quasardb.teamcity.compression.config.ZstdProperties;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory cache of archive directory tries, evicting the least recently browsed archives above a node budget.
+ * Archives are addressed by path, size and modification time, so a replaced artifact gets a new trie.
+ */
+public class DirectoryTrieCache {
+
+    private static volatile DirectoryTrieCache defaultCache;
+
+    private final long maxNodes;
+    private final Map<String, DirectoryTrie> tries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalNodes;
+
+    public DirectoryTrieCache(long maxNodes) {
+        this.maxNodes = maxNodes;
+    }
+
+    /**
+     * @return the cache configured by {@link ZstdProperties} or null if it is disabled
+     */
+    public static DirectoryTrieCache getDefault() {
+        int maxNodes = ZstdProperties.getDirectoryCacheMaxNodes();
+        if (maxNodes <= 0) {
+            return null;
+        }
+        if (defaultCache == null) {
+            synchronized (DirectoryTrieCache.class) {
+                if (defaultCache == null) {
+                    defaultCache = new DirectoryTrieCache(maxNodes);
+                }
+            }
+        }
+        return defaultCache;
+    }
+
+    /**
+     * @param innerPath path of a nested archive inside the file, or an empty string for the file itself
+     */
+    @NotNull
+    public static String computeKey(@NotNull File archive, @NotNull String innerPath) throws IOException {
+        return archive.getCanonicalPath() + '|' + archive.length() + '|' + archive.lastModified() + '|' + innerPath;
+    }
+
+    public synchronized DirectoryTrie get(@NotNull String key) {
+        return tries.get(key);
+    }
+
+    /**
+     * Keeps the trie unless it alone exceeds the budget.
+     */
+    public synchronized void put(@NotNull String key, @NotNull DirectoryTrie trie) {
+        if (trie.getNodeCount() > maxNodes) {
+            return;
+        }
+        DirectoryTrie previous = tries.put(key, trie);
+        if (previous != null) {
+            totalNodes -= previous.getNodeCount();
+        }
+        totalNodes += trie.getNodeCount();
+        Iterator<DirectoryTrie> eldest = tries.values().iterator();
+        while (totalNodes > maxNodes && eldest.hasNext()) {
+            totalNodes -= eldest.next().getNodeCount();
+            eldest.remove();
+        }
+    }
+
+    public synchronized int size() {
+        return tries.size();
+    }
+}
@@ -0,0 +1,265 @@
+package net.quasardb.teamcity.compression.index;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+/**
+ * Names, sizes, unix modes and payload offsets of the entries of one archive, in archive order.
+ * <p>
+ * Archives may hold millions of entries, so names are front coded by {@link PrefixCodedNames} and the numbers
+ * are kept in primitive arrays; the maps returned by {@link #getSizes()} and {@link #getPermissions()} are views
+ * decoding on access. As in a map built entry by entry, the last of several entries with the same name wins.
+ * <p>
+ * An index is built by one thread and not modified afterwards; once published it can be read concurrently.
+ * <p>
+ * On disk the index starts with a header identifying the indexed archive by size and modification time,
+ * followed by one record per entry: name length, UTF-8 name, size, mode and offset of the entry data
+ * in the decompressed payload.
+ */
+public class EntryIndex {
+
+    public static final long UNKNOWN_OFFSET = -1;
+
+    private static final int MAGIC = 0x5A494458; // "ZIDX"
+    private static final int VERSION = 1;
+
+    private final PrefixCodedNames names = new PrefixCodedNames();
+    private long[] sizes = new long[64];
+    private int[] modes = new int[64];
+    private long[] dataOffsets = new long[64];
+
+    public static class Entry {
+        private final String name;
+        private final long size;
+        private final int mode;
+        private final long dataOffset;
+
+        public Entry(@NotNull String name, long size, int mode, long dataOffset) {
+            this.name = name;
+            this.size = size;
+            this.mode = mode;
+            this.dataOffset = dataOffset;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public int getMode() {
+            return mode;
+        }
+
+        /**
+         * Offset of the entry data in the decompressed payload; the frame holding it can be found in the seek table.
+         */
+        public long getDataOffset() {
+            return dataOffset;
+        }
+    }
+
+    /**
+     * Read-only map view over the index; names are decoded while iterating or looking up, and values
+     * are boxed on access only.
+     */
+    private class EntryMap<V> extends AbstractMap<String, V> {
+        private final IntFunction<V> values;
+
+        private EntryMap(IntFunction<V> values) {
+            this.values = values;
+        }
+
+        @Override
+        public int size() {
+            return names.distinctSize();
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && names.indexOf((String) key) >= 0;
+        }
+
+        @Override
+        public V get(Object key) {
+            int index = key instanceof String ? names.indexOf((String) key) : -1;
+            return index >= 0 ? values.apply(index) : null;
+        }
+
+        @Override
+        public Set<Map.Entry<String, V>> entrySet() {
+            return new AbstractSet<Map.Entry<String, V>>() {
+                @Override
+                public int size() {
+                    return EntryMap.this.size();
+                }
+
+                @Override
+                public Iterator<Map.Entry<String, V>> iterator() {
+                    PrefixCodedNames.Cursor cursor = names.cursor();
+                    return new Iterator<Map.Entry<String, V>>() {
+                        private Map.Entry<String, V> next = findNext();
+
+                        private Map.Entry<String, V> findNext() {
+                            while (cursor.hasNext()) {
+                                int index = cursor.advance();
+                                String name = cursor.getName();
+                                if (!names.isShadowed(index, name)) {
+                                    return new SimpleImmutableEntry<>(name, values.apply(index));
+                                }
+                            }
+                            return null;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return next != null;
+                        }
+
+                        @Override
+                        public Map.Entry<String, V> next() {
+                            if (next == null) {
+                                throw new NoSuchElementException();
+                            }
+                            Map.Entry<String, V> current = next;
+                            next = findNext();
+                            return current;
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+    public void add(@NotNull String name, long size, int mode, long dataOffset) {
+        names.add(name);
+        append(size, mode, dataOffset);
+    }
+
+    private void add(@NotNull byte[] name, int nameLength, long size, int mode, long dataOffset) {
+        names.add(name, nameLength);
+        append(size, mode, dataOffset);
+    }
+
+    private void append(long size, int mode, long dataOffset) {
+        int index = names.size() - 1;
+        if (index == sizes.length) {
+            int capacity = index + (index >> 1);
+            sizes = Arrays.copyOf(sizes, capacity);
+            modes = Arrays.copyOf(modes, capacity);
+            dataOffsets = Arrays.copyOf(dataOffsets, capacity);
+        }
+        sizes[index] = size;
+        modes[index] = mode;
+        dataOffsets[index] = dataOffset;
+    }
+
+    public int size() {
+        return names.size();
+    }
+
+    /**
+     * @return the entries in archive order, decoded on access
+     */
+    public List<Entry> getEntries() {
+        return new AbstractList<Entry>() {
+            @Override
+            public Entry get(int index) {
+                return new Entry(names.get(index), sizes[index], modes[index], dataOffsets[index]);
+            }
+
+            @Override
+            public int size() {
+                return names.size();
+            }
+        };
+    }
+
+    /**
+     * @return entry sizes by name, backed by the index
+     */
+    public Map<String, Long> getSizes() {
+        return new EntryMap<>(index -> sizes[index]);
+    }
+
+    /**
+     * @return entry unix modes by name, backed by the index
+     */
+    public Map<String, Integer> getPermissions() {
+        return new EntryMap<>(index -> modes[index]);
+    }
+
+    public void write(@NotNull File file, long archiveSize, long archiveLastModified) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file.toPath())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(archiveSize);
+            out.writeLong(archiveLastModified);
+            out.writeInt(names.size());
+            PrefixCodedNames.Cursor cursor = names.cursor();
+            while (cursor.hasNext()) {
+                int index = cursor.advance();
+                out.writeInt(cursor.getLength());
+                out.write(cursor.getBytes(), 0, cursor.getLength());
+                out.writeLong(sizes[index]);
+                out.writeInt(modes[index]);
+                out.writeLong(dataOffsets[index]);
+            }
+        }
+    }
+
+    /**
+     * Reads an index file written by {@link #write(File, long, long)}; it is decoded into the heap as it is read.
+     *
+     * @return the index or null if it is corrupted or was built for another version of the archive
+     */
+    public static EntryIndex read(@NotNull File file, long archiveSize, long archiveLastModified) throws IOException {
+        long fileLength = file.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || in.readLong() != archiveSize || in.readLong() != archiveLastModified) {
+                return null;
+            }
+            int count = in.readInt();
+            if (count < 0) {
+                return null;
+            }
+            EntryIndex index = new EntryIndex();
+            byte[] name = new byte[256];
+            for (int i = 0; i < count; i++) {
+                int nameLength = in.readInt();
+                if (nameLength < 0 || nameLength > fileLength) {
+                    return null;
+                }
+                if (nameLength > name.length) {
+                    name = new byte[nameLength];
+                }
+                in.readFully(name, 0, nameLength);
+                index.add(name, nameLength, in.readLong(), in.readInt(), in.readLong());
+            }
+            return index;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+}
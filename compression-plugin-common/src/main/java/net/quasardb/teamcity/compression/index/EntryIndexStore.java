@@ -0,0 +1,117 @@
+package net.quasardb.teamcity.compression.index;
+
+import net.quasardb.teamcity.compression.config.ZstdProperties;
+import net.quasardb.teamcity.compression.logging.Logger;
+import net.quasardb.teamcity.compression.utils.FileSystemUtils;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Directory of persisted entry indexes, one file per archive path.
+ * An index is reused as long as the archive keeps its size and modification time; artifacts are immutable,
+ * so the payload is scanned once and later listings only read the index.
+ */
+public class EntryIndexStore {
+
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static volatile EntryIndexStore defaultStore;
+
+    private final File directory;
+    private final int maxIndexes;
+
+    public interface IndexBuilder {
+        /**
+         * @return the index of the archive or null if its payload cannot be indexed
+         */
+        EntryIndex build(@NotNull File archive) throws IOException;
+    }
+
+    public EntryIndexStore(@NotNull File directory, int maxIndexes) {
+        this.directory = directory;
+        this.maxIndexes = maxIndexes;
+    }
+
+    /**
+     * @return the store configured by {@link ZstdProperties} or null if indexes are disabled
+     */
+    public static EntryIndexStore getDefault() {
+        if (!ZstdProperties.isIndexEnabled()) {
+            return null;
+        }
+        if (defaultStore == null) {
+            synchronized (EntryIndexStore.class) {
+                if (defaultStore == null) {
+                    defaultStore = new EntryIndexStore(ZstdProperties.getIndexDir(), ZstdProperties.getIndexMaxFiles());
+                }
+            }
+        }
+        return defaultStore;
+    }
+
+    public EntryIndex getOrBuild(@NotNull File archive, @NotNull IndexBuilder builder) throws IOException {
+        long size = archive.length();
+        long lastModified = archive.lastModified();
+        File indexFile = new File(directory, indexName(archive) + INDEX_SUFFIX);
+        if (indexFile.isFile()) {
+            try {
+                EntryIndex index = EntryIndex.read(indexFile, size, lastModified);
+                if (index != null) {
+                    Logger.debug("ZSTD entry index hit for " + archive.getName());
+                    return index;
+                }
+            } catch (IOException e) {
+                Logger.error("Could not read entry index " + indexFile, e);
+            }
+        }
+
+        EntryIndex index = builder.build(archive);
+        if (index != null) {
+            try {
+                store(indexFile, index, size, lastModified);
+            } catch (IOException e) {
+                Logger.error("Could not write entry index " + indexFile, e);
+            }
+        }
+        return index;
+    }
+
+    private void store(File indexFile, EntryIndex index, long size, long lastModified) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+        Path tempFile = Files.createTempFile(directory.toPath(), indexFile.getName(), TEMP_SUFFIX);
+        try {
+            index.write(tempFile.toFile(), size, lastModified);
+            FileSystemUtils.moveReplacing(tempFile, indexFile.toPath());
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        evictOldest();
+    }
+
+    private void evictOldest() {
+        File[] indexes = directory.listFiles((dir, name) -> name.endsWith(INDEX_SUFFIX));
+        if (indexes == null || indexes.length <= maxIndexes) {
+            return;
+        }
+        Arrays.sort(indexes, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < indexes.length - maxIndexes; i++) {
+            if (!indexes[i].delete()) {
+                Logger.error("Could not delete entry index: " + indexes[i].getName());
+            }
+        }
+    }
+
+    private static String indexName(File archive) throws IOException {
+        return FileSystemUtils.toHex(FileSystemUtils.newSha256().digest(archive.getCanonicalPath().getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,219 @@
+package net.quasardb.teamcity.compression.index;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Append-only list of entry names stored as UTF-8 with front coding: each name keeps only the bytes that differ
+ * from the previous name, so the shared directory prefix of consecutive entries is stored once.
+ * Every {@link #RESTART_INTERVAL}th name is stored in full, which bounds the cost of decoding a single name.
+ * <p>
+ * Lookups by name use a hash table of entry numbers that is built on first use; when a name occurs more than once,
+ * the last occurrence wins.
+ * <p>
+ * The list is filled by a single thread and is immutable once built: after the last {@link #add} and a safe publication
+ * (e.g. through a concurrent map), any number of threads may read it. Adding names while others read is not supported.
+ */
+public class PrefixCodedNames {
+
+    public static final int RESTART_INTERVAL = 16;
+
+    private byte[] bytes = new byte[4096];
+    private int byteCount;
+    private int[] suffixStarts = new int[64];
+    private int[] prefixLengths = new int[64];
+    private int count;
+    private byte[] last = new byte[256];
+    private int lastLength;
+
+    private int[] hashes;
+    private int duplicates;
+    // written last by ensureTable, so that readers seeing the table also see its hashes and duplicates
+    private volatile int[] table;
+
+    /**
+     * Decodes consecutive names, reusing one buffer.
+     */
+    public class Cursor {
+        private byte[] buffer = new byte[256];
+        private int length;
+        private int next;
+
+        private Cursor(int start) {
+            next = start - start % RESTART_INTERVAL;
+            while (next < start) {
+                advance();
+            }
+        }
+
+        public boolean hasNext() {
+            return next < count;
+        }
+
+        /**
+         * Moves to the next name.
+         *
+         * @return its number
+         */
+        public int advance() {
+            int prefixLength = prefixLengths[next];
+            int suffixStart = suffixStarts[next];
+            int suffixLength = suffixEnd(next) - suffixStart;
+            length = prefixLength + suffixLength;
+            if (length > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(length, buffer.length * 2));
+            }
+            System.arraycopy(bytes, suffixStart, buffer, prefixLength, suffixLength);
+            return next++;
+        }
+
+        public byte[] getBytes() {
+            return buffer;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public String getName() {
+            return new String(buffer, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+
+    public void add(@NotNull String name) {
+        byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+        add(encoded, encoded.length);
+    }
+
+    public void add(@NotNull byte[] name, int length) {
+        int prefixLength = 0;
+        if (count % RESTART_INTERVAL != 0) {
+            int max = Math.min(length, lastLength);
+            while (prefixLength < max && name[prefixLength] == last[prefixLength]) {
+                prefixLength++;
+            }
+        }
+        int suffixLength = length - prefixLength;
+        if (count == suffixStarts.length) {
+            int capacity = count + (count >> 1);
+            suffixStarts = Arrays.copyOf(suffixStarts, capacity);
+            prefixLengths = Arrays.copyOf(prefixLengths, capacity);
+        }
+        if (byteCount + suffixLength > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(byteCount + suffixLength, bytes.length + (bytes.length >> 1)));
+        }
+        System.arraycopy(name, prefixLength, bytes, byteCount, suffixLength);
+        suffixStarts[count] = byteCount;
+        prefixLengths[count] = prefixLength;
+        byteCount += suffixLength;
+        count++;
+
+        if (length > last.length) {
+            last = Arrays.copyOf(last, Math.max(length, last.length * 2));
+        }
+        System.arraycopy(name, 0, last, 0, length);
+        lastLength = length;
+        table = null;
+        hashes = null;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return the number of different names
+     */
+    public int distinctSize() {
+        ensureTable();
+        return count - duplicates;
+    }
+
+    public String get(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + count);
+        }
+        Cursor cursor = new Cursor(index);
+        cursor.advance();
+        return cursor.getName();
+    }
+
+    public Cursor cursor() {
+        return new Cursor(0);
+    }
+
+    /**
+     * @return the number of the last occurrence of the name or -1 if there is none
+     */
+    public int indexOf(@NotNull String name) {
+        ensureTable();
+        int[] table = this.table;
+        int[] hashes = this.hashes;
+        int hash = name.hashCode();
+        int mask = table.length - 1;
+        for (int slot = mix(hash) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            int index = table[slot] - 1;
+            if (hashes[index] == hash && get(index).equals(name)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return whether the name is overridden by a later entry with the same name
+     */
+    public boolean isShadowed(int index, @NotNull String name) {
+        ensureTable();
+        return duplicates > 0 && indexOf(name) != index;
+    }
+
+    private void ensureTable() {
+        if (table == null) {
+            synchronized (this) {
+                if (table == null) {
+                    buildTable();
+                }
+            }
+        }
+    }
+
+    private void buildTable() {
+        int capacity = Integer.highestOneBit(Math.max(2, count) * 2 - 1) << 1;
+        int[] newTable = new int[capacity];
+        int[] newHashes = new int[count];
+        int newDuplicates = 0;
+        int mask = capacity - 1;
+        Cursor cursor = cursor();
+        while (cursor.hasNext()) {
+            int index = cursor.advance();
+            String name = cursor.getName();
+            int hash = name.hashCode();
+            newHashes[index] = hash;
+            int slot = mix(hash) & mask;
+            while (newTable[slot] != 0) {
+                int other = newTable[slot] - 1;
+                if (newHashes[other] == hash && get(other).equals(name)) {
+                    newDuplicates++;
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            newTable[slot] = index + 1;
+        }
+        hashes = newHashes;
+        duplicates = newDuplicates;
+        table = newTable;
+    }
+
+    private int suffixEnd(int index) {
+        return index + 1 < count ? suffixStarts[index + 1] : byteCount;
+    }
+
+    private static int mix(int hash) {
+        int mixed = hash * 0x9E3779B9;
+        return mixed ^ (mixed >>> 16);
+    }
+}
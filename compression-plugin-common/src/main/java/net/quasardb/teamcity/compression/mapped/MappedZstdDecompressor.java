@@ -0,0 +1,68 @@
+package net.quasardb.teamcity.compression.mapped;
+
+import com.github.luben.zstd.ZstdDecompressCtx;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdException;
+import net.quasardb.teamcity.compression.buffer.DecompressContexts;
+import net.quasardb.teamcity.compression.config.ZstdProperties;
+import net.quasardb.teamcity.compression.frame.ZstdFrameHeader;
+import net.quasardb.teamcity.compression.logging.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Decompresses a single-frame archive with one native call from a read-only mapping of the archive
+ * into a mapping of the target file, without stream buffers or intermediate copies.
+ */
+public class MappedZstdDecompressor {
+
+    /**
+     * @return the content size if the archive can be decompressed in one call, -1 otherwise
+     */
+    public static long getOneShotSize(@Nullable ZstdFrameHeader frameHeader) {
+        if (!ZstdProperties.isOneShotEnabled() || frameHeader == null || frameHeader.isSkippable()) {
+            return -1;
+        }
+        long contentSize = frameHeader.getContentSize();
+        if (contentSize == ZstdFrameHeader.UNKNOWN_CONTENT_SIZE || contentSize > ZstdProperties.getOneShotMaxBytes()) {
+            return -1;
+        }
+        return contentSize;
+    }
+
+    /**
+     * Decompresses the archive into the target, which is truncated to the content size.
+     *
+     * @return false if the archive does not decompress to exactly {@code contentSize} bytes in one call
+     * (e.g. it has more than one frame); the target content is then undefined
+     */
+    public static boolean decompress(@NotNull File archive, @NotNull File target, long contentSize, @Nullable ZstdDictDecompress dictionary) throws IOException {
+        try (FileChannel in = FileChannel.open(archive.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long compressedSize = in.size();
+            if (compressedSize > Integer.MAX_VALUE) {
+                return false;
+            }
+            if (contentSize == 0) {
+                return true;
+            }
+            MappedByteBuffer source = in.map(FileChannel.MapMode.READ_ONLY, 0, compressedSize);
+            MappedByteBuffer destination = out.map(FileChannel.MapMode.READ_WRITE, 0, contentSize);
+            ZstdDecompressCtx decompressCtx = DecompressContexts.forCurrentThread(dictionary);
+            int length;
+            try {
+                length = decompressCtx.decompressDirectByteBuffer(destination, 0, (int) contentSize, source, 0, (int) compressedSize);
+            } catch (ZstdException e) {
+                Logger.debug("One-shot decompression of " + archive.getName() + " failed: " + e.getMessage());
+                return false;
+            }
+            return length == contentSize;
+        }
+    }
+}
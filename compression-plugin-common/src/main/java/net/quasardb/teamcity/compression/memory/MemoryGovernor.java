@@ -0,0 +1,110 @@
+package net.quasardb.teamcity.compression.memory;
+
+import net.quasardb.teamcity.compression.config.ZstdProperties;
+import net.quasardb.teamcity.compression.logging.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Process-wide budget for decompression windows and buffers. Every decompression reserves the memory its stream
+ * needs before the first read; when the budget is used up, further decompressions queue in arrival order
+ * until running ones close their streams. A reservation larger than the whole budget waits for the budget
+ * to be free and then runs alone.
+ */
+public class MemoryGovernor {
+
+    private static final int UNIT = 1024;
+
+    private static volatile MemoryGovernor instance;
+
+    private final Semaphore budget;
+    private final int budgetUnits;
+
+    /**
+     * A granted reservation; releasing it more than once has no effect.
+     */
+    public class Lease implements Closeable {
+        private final int units;
+        private boolean released;
+
+        private Lease(int units) {
+            this.units = units;
+        }
+
+        public long getBytes() {
+            return (long) units * UNIT;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!released) {
+                released = true;
+                budget.release(units);
+            }
+        }
+    }
+
+    public MemoryGovernor(long budgetBytes) {
+        this.budgetUnits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, budgetBytes / UNIT));
+        this.budget = new Semaphore(budgetUnits, true);
+    }
+
+    public static MemoryGovernor getInstance() {
+        if (instance == null) {
+            synchronized (MemoryGovernor.class) {
+                if (instance == null) {
+                    instance = new MemoryGovernor(ZstdProperties.getDecompressMemoryBudgetBytes());
+                }
+            }
+        }
+        return instance;
+    }
+
+    public Lease acquire(long bytes, @NotNull String owner) throws IOException {
+        int units = (int) Math.min(budgetUnits, Math.max(1, (bytes + UNIT - 1) / UNIT));
+        if (!budget.tryAcquire(units)) {
+            Logger.info("ZSTD decompression of " + owner + " waits for " + (bytes >> 20) + " MB of decompression memory");
+            try {
+                budget.acquire(units);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for decompression memory");
+            }
+        }
+        return new Lease(units);
+    }
+
+    /**
+     * Reserves memory for a decompressing stream; the reservation is released when the returned stream is closed.
+     * The stream is closed if the reservation cannot be made.
+     */
+    public InputStream govern(@NotNull InputStream decompressed, long bytes, @NotNull String owner) throws IOException {
+        Lease lease;
+        try {
+            lease = acquire(bytes, owner);
+        } catch (IOException e) {
+            decompressed.close();
+            throw e;
+        }
+        return new FilterInputStream(decompressed) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    lease.close();
+                }
+            }
+        };
+    }
+
+    public long getAvailableBytes() {
+        return (long) budget.availablePermits() * UNIT;
+    }
+}
@@ -0,0 +1,215 @@
+package net.quasardb.teamcity.compression.parallel;
+
+import com.github.luben.zstd.RecyclingBufferPool;
+import com.github.luben.zstd.ZstdOutputStream;
+import net.quasardb.teamcity.compression.config.ZstdProperties;
+import net.quasardb.teamcity.compression.filesystem.StagingManager;
+import net.quasardb.teamcity.compression.utils.ExecutorUtils;
+import net.quasardb.teamcity.compression.utils.ZipZstdSupport;
+import net.quasardb.teamcity.compression.utils.ZstdZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes zip entries compressed on a pool of worker threads: each entry is compressed into its own scatter buffer,
+ * kept in memory up to {@link #MEMORY_THRESHOLD} and spilled to a temp file above it, and the buffers are gathered
+ * into the zip as raw entries in the order the entries were added.
+ * <p>
+ * Entries are deflated, or compressed with zstd as zip method {@link ZipZstdSupport#ZSTD_METHOD}, which keeps
+ * each entry readable on its own and decompresses several times faster than deflate.
+ * <p>
+ * At most {@code 2 * workers} entries are compressed ahead of the one being written, which bounds the memory and
+ * temp space in use.
+ */
+public class ParallelZipWriter implements Closeable {
+
+    public static final int MEMORY_THRESHOLD = 1024 * 1024;
+
+    private final RawEntryOutput output;
+    private final int method;
+    private final int level;
+    private final ExecutorService executor;
+    private final int window;
+    private final Deque<Future<ScatteredEntry>> pending = new ArrayDeque<>();
+
+    /**
+     * Content of an entry, opened on a worker thread.
+     */
+    public interface EntrySource {
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * Zip stream the compressed entries are added to as raw entries.
+     */
+    private interface RawEntryOutput {
+        void addRawArchiveEntry(ZipArchiveEntry entry, InputStream raw) throws IOException;
+    }
+
+    private static class ScatteredEntry {
+        private final ZipArchiveEntry entry;
+        private final DeferredFileOutputStream data;
+
+        private ScatteredEntry(ZipArchiveEntry entry, DeferredFileOutputStream data) {
+            this.entry = entry;
+            this.data = data;
+        }
+
+        private void discard() {
+            if (!data.isInMemory()) {
+                FileUtils.deleteQuietly(data.getFile());
+            }
+        }
+    }
+
+    /**
+     * Deflates the entries at the given deflate level.
+     */
+    public ParallelZipWriter(@NotNull ZipArchiveOutputStream output, int level, int workers) {
+        this(output::addRawArchiveEntry, ZipEntry.DEFLATED, level, workers);
+    }
+
+    /**
+     * Compresses the entries with zstd at the given level.
+     */
+    public ParallelZipWriter(@NotNull ZstdZipArchiveOutputStream output, int level, int workers) {
+        this(output::addRawArchiveEntry, ZipZstdSupport.ZSTD_METHOD, level, workers);
+    }
+
+    private ParallelZipWriter(RawEntryOutput output, int method, int level, int workers) {
+        this.output = output;
+        this.method = method;
+        this.level = level;
+        this.executor = ExecutorUtils.newDaemonPool("zip-deflate", workers);
+        this.window = 2 * workers;
+    }
+
+    /**
+     * Queues an entry; its unix mode, time and name are kept, while method, sizes and CRC are set once it is compressed.
+     */
+    public void add(@NotNull ZipArchiveEntry entry, @NotNull EntrySource source) throws IOException {
+        while (pending.size() >= window) {
+            writeNext();
+        }
+        pending.add(executor.submit(() -> compress(entry, source)));
+    }
+
+    /**
+     * Writes all queued entries; the zip stream itself is left open.
+     */
+    public void finish() throws IOException {
+        while (!pending.isEmpty()) {
+            writeNext();
+        }
+    }
+
+    private void writeNext() throws IOException {
+        ScatteredEntry scattered = await(pending.poll());
+        try (InputStream raw = scattered.data.toInputStream()) {
+            output.addRawArchiveEntry(scattered.entry, raw);
+        } finally {
+            scattered.discard();
+        }
+    }
+
+    private ScatteredEntry compress(ZipArchiveEntry entry, EntrySource source) throws IOException {
+        // link targets stay deflated, so that any zip tool restores the links
+        int entryMethod = entry.isUnixSymlink() ? ZipEntry.DEFLATED : method;
+        DeferredFileOutputStream data = DeferredFileOutputStream.builder()
+                .setThreshold(MEMORY_THRESHOLD)
+                .setPrefix(StagingManager.TEMP_FILE_PREFIX)
+                .setSuffix(entryMethod == ZipEntry.DEFLATED ? ".deflated" : ".zst")
+                .get();
+        CRC32 crc = new CRC32();
+        long size = 0;
+        Deflater deflater = entryMethod == ZipEntry.DEFLATED ? new Deflater(entryMethod == method ? level : Deflater.DEFAULT_COMPRESSION, true) : null;
+        try {
+            try (InputStream in = source.open();
+                 OutputStream out = openCompressingStream(data, deflater)) {
+                byte[] buffer = new byte[ZstdProperties.STREAM_BUFFER_SIZE];
+                for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+                    crc.update(buffer, 0, read);
+                    out.write(buffer, 0, read);
+                    size += read;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            new ScatteredEntry(entry, data).discard();
+            throw e;
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+        entry.setMethod(entryMethod);
+        entry.setSize(size);
+        entry.setCompressedSize(data.getByteCount());
+        entry.setCrc(crc.getValue());
+        return new ScatteredEntry(entry, data);
+    }
+
+    private OutputStream openCompressingStream(OutputStream data, Deflater deflater) throws IOException {
+        if (deflater != null) {
+            return new DeflaterOutputStream(data, deflater, ZstdProperties.STREAM_BUFFER_SIZE);
+        }
+        ZstdOutputStream out = new ZstdOutputStream(data, RecyclingBufferPool.INSTANCE);
+        out.setLevel(level);
+        out.setChecksum(false);
+        return out;
+    }
+
+    private static ScatteredEntry await(Future<ScatteredEntry> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing zip entries");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Could not compress zip entry", cause);
+        }
+    }
+
+    /**
+     * Drops the entries that were not written, waiting for the ones being compressed to release their buffers,
+     * and stops the workers.
+     */
+    @Override
+    public void close() {
+        try {
+            for (Future<ScatteredEntry> future : pending) {
+                try {
+                    future.get().discard();
+                } catch (ExecutionException ignored) {
+                    // nothing was kept for a failed entry
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pending.clear();
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package net.quasardb.teamcity.compression.parallel;
+
+import com.github.luben.zstd.ZstdDecompressCtx;
+import com.github.luben.zstd.ZstdDictDecompress;
+import net.quasardb.teamcity.compression.buffer.DecompressContexts;
+import net.quasardb.teamcity.compression.buffer.DirectBufferPool;
+import net.quasardb.teamcity.compression.config.ZstdProperties;
+import net.quasardb.teamcity.compression.frame.ZstdFrame;
+import net.quasardb.teamcity.compression.frame.ZstdFrameScanner;
+import net.quasardb.teamcity.compression.logging.Logger;
+import net.quasardb.teamcity.compression.seekable.SeekTable;
+import net.quasardb.teamcity.compression.utils.ExecutorUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Decompresses the independent frames of a multi-frame zstd file on a shared worker pool and returns the content
+ * in file order. At most {@code window} frames are decoded ahead of the reader.
+ */
+public class ParallelZstdInputStream extends InputStream {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocateDirect(0);
+
+    private static volatile ExecutorService executor;
+
+    private final FileChannel channel;
+    private final List<ZstdFrame> frames;
+    private final int window;
+    private final long largestFrame;
+    private final ZstdDictDecompress dictionary;
+    private final Deque<Future<ByteBuffer>> pending = new ArrayDeque<>();
+    private int nextFrame;
+    private ByteBuffer current = EMPTY;
+    private boolean closed;
+
+    ParallelZstdInputStream(@NotNull FileChannel channel, @NotNull List<ZstdFrame> frames, int window, @Nullable ZstdDictDecompress dictionary) {
+        this.channel = channel;
+        this.frames = frames;
+        this.window = window;
+        long largestFrame = 0;
+        for (ZstdFrame frame : frames) {
+            largestFrame = Math.max(largestFrame, frame.getContentSize() + frame.getCompressedSize());
+        }
+        this.largestFrame = largestFrame;
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * @return a parallel stream over the archive, or null if it has a single frame, frames without a recorded size
+     * or frames too large to be buffered, in which case the caller decodes it sequentially
+     */
+    @Nullable
+    public static ParallelZstdInputStream open(@NotNull File archive) throws IOException {
+        return open(archive, null);
+    }
+
+    /**
+     * @param dictionary dictionary the frames were compressed with, or null
+     */
+    @Nullable
+    public static ParallelZstdInputStream open(@NotNull File archive, @Nullable ZstdDictDecompress dictionary) throws IOException {
+        int threads = ZstdProperties.getDecompressThreads();
+        if (threads <= 1) {
+            return null;
+        }
+        FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ);
+        try {
+            List<ZstdFrame> frames = ZstdFrameScanner.scan(channel, SeekTable.MAX_FRAME_SIZE);
+            if (frames != null && frames.size() > 1) {
+                long largestFrame = 1;
+                for (ZstdFrame frame : frames) {
+                    largestFrame = Math.max(largestFrame, frame.getContentSize());
+                }
+                long window = Math.min(threads * 2L, ZstdProperties.getMaxInFlightBytes() / largestFrame);
+                Logger.debug("Parallel decompression of " + archive.getName() + ": " + frames.size() + " frames, window " + window);
+                return new ParallelZstdInputStream(channel, frames, (int) Math.max(2, window), dictionary);
+            }
+        } catch (IOException e) {
+            Logger.debug("Could not scan zstd frames of " + archive.getName() + ": " + e);
+        }
+        channel.close();
+        return null;
+    }
+
+    /**
+     * Upper bound of memory held by frames decoded ahead and the frame being read.
+     */
+    public long getMaxBufferedBytes() {
+        return (window + 1L) * largestFrame;
+    }
+
+    static ExecutorService getExecutor() {
+        if (executor == null) {
+            synchronized (ParallelZstdInputStream.class) {
+                if (executor == null) {
+                    executor = ExecutorUtils.newDaemonPool("zstd-decompress", ZstdProperties.getDecompressThreads());
+                }
+            }
+        }
+        return executor;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureData()) {
+            return -1;
+        }
+        return current.get() & 0xFF;
+    }
+
+    @Override
+    public int read(@NotNull byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureData()) {
+            return -1;
+        }
+        int length = Math.min(len, current.remaining());
+        current.get(b, off, length);
+        return length;
+    }
+
+    @Override
+    public int available() {
+        return current.remaining();
+    }
+
+    private boolean ensureData() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        while (!current.hasRemaining()) {
+            releaseCurrent();
+            submitFrames();
+            Future<ByteBuffer> next = pending.poll();
+            if (next == null) {
+                return false;
+            }
+            current = await(next);
+        }
+        return true;
+    }
+
+    private void submitFrames() {
+        while (pending.size() < window && nextFrame < frames.size()) {
+            ZstdFrame frame = frames.get(nextFrame++);
+            pending.add(getExecutor().submit(() -> decodeFrame(frame)));
+        }
+    }
+
+    /**
+     * Decodes the frame into a pooled direct buffer with the context of the worker thread.
+     */
+    private ByteBuffer decodeFrame(ZstdFrame frame) throws IOException {
+        int contentSize = (int) frame.getContentSize();
+        if (contentSize == 0) {
+            return EMPTY;
+        }
+        DirectBufferPool bufferPool = DirectBufferPool.getInstance();
+        ByteBuffer compressed = bufferPool.acquire(frame.getCompressedSize());
+        ByteBuffer decompressed = bufferPool.acquire(contentSize);
+        try {
+            while (compressed.hasRemaining()) {
+                if (channel.read(compressed, frame.getOffset() + compressed.position()) < 0) {
+                    throw new IOException("Unexpected end of file in frame at " + frame.getOffset());
+                }
+            }
+            ZstdDecompressCtx decompressCtx = DecompressContexts.forCurrentThread(dictionary);
+            int length = decompressCtx.decompressDirectByteBuffer(decompressed, 0, contentSize, compressed, 0, frame.getCompressedSize());
+            if (length != contentSize) {
+                throw new IOException("Frame at " + frame.getOffset() + " decompressed to " + length + " bytes, expected " + contentSize);
+            }
+            return decompressed;
+        } catch (IOException | RuntimeException e) {
+            bufferPool.release(decompressed);
+            if (e instanceof IOException) {
+                throw (IOException) e;
+            }
+            throw new IOException("Could not decompress frame at " + frame.getOffset(), e);
+        } finally {
+            bufferPool.release(compressed);
+        }
+    }
+
+    private void releaseCurrent() {
+        if (current != EMPTY) {
+            DirectBufferPool.getInstance().release(current);
+            current = EMPTY;
+        }
+    }
+
+    private static ByteBuffer await(Future<ByteBuffer> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for frame decompression");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Frames still being decoded are cancelled; their buffers are left to GC rather than returned to the pool.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Future<ByteBuffer> future : pending) {
+            future.cancel(true);
+        }
+        pending.clear();
+        releaseCurrent();
+        channel.close();
+    }
+}
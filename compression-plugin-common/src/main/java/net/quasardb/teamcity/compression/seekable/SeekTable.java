@@ -0,0 +1,135 @@
+package net.quasardb.teamcity.compression.seekable;
+
+import net.quasardb.teamcity.compression.logging.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Seek table of the zstd seekable format: a skippable frame at the end of the file that lists the compressed and
+ * decompressed size of every independent frame.
+ * <pre>
+ * skippable frame: magic 0x184D2A5E | frame size
+ *                  entries: compressed size (u32) | decompressed size (u32) [| checksum (u32)]
+ *                  footer:  number of frames (u32) | descriptor (u8) | seekable magic 0x8F92EAB1
+ * </pre>
+ */
+public class SeekTable {
+
+    public static final int SKIPPABLE_FRAME_MAGIC = 0x184D2A5E;
+    public static final int SEEKABLE_MAGIC = 0x8F92EAB1;
+    public static final int SKIPPABLE_HEADER_SIZE = 8;
+    public static final int FOOTER_SIZE = 9;
+    public static final int CHECKSUM_FLAG = 0x80;
+    public static final long MAX_FRAME_SIZE = 64L * 1024 * 1024;
+
+    private final long[] compressedOffsets;
+    private final long[] decompressedOffsets;
+
+    SeekTable(long[] compressedOffsets, long[] decompressedOffsets) {
+        this.compressedOffsets = compressedOffsets;
+        this.decompressedOffsets = decompressedOffsets;
+    }
+
+    /**
+     * Reads the seek table from the end of the channel.
+     *
+     * @return the table or null if the file is not in seekable format or its frames are too large for random access
+     */
+    @Nullable
+    public static SeekTable read(@NotNull FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < SKIPPABLE_HEADER_SIZE + FOOTER_SIZE) {
+            return null;
+        }
+        ByteBuffer footer = readFully(channel, fileSize - FOOTER_SIZE, FOOTER_SIZE);
+        if (footer.getInt(5) != SEEKABLE_MAGIC) {
+            return null;
+        }
+        long numFrames = footer.getInt(0) & 0xFFFFFFFFL;
+        int descriptor = footer.get(4) & 0xFF;
+        int entrySize = (descriptor & CHECKSUM_FLAG) != 0 ? 12 : 8;
+        long tableSize = numFrames * entrySize;
+        long frameStart = fileSize - FOOTER_SIZE - tableSize - SKIPPABLE_HEADER_SIZE;
+        if (numFrames > Integer.MAX_VALUE || frameStart < 0) {
+            Logger.debug("Seek table does not fit into the file");
+            return null;
+        }
+        ByteBuffer header = readFully(channel, frameStart, SKIPPABLE_HEADER_SIZE);
+        if (header.getInt(0) != SKIPPABLE_FRAME_MAGIC || (header.getInt(4) & 0xFFFFFFFFL) != tableSize + FOOTER_SIZE) {
+            Logger.debug("Seek table skippable frame header is corrupted");
+            return null;
+        }
+
+        ByteBuffer entries = readFully(channel, frameStart + SKIPPABLE_HEADER_SIZE, (int) tableSize);
+        int frames = (int) numFrames;
+        long[] compressedOffsets = new long[frames + 1];
+        long[] decompressedOffsets = new long[frames + 1];
+        for (int i = 0; i < frames; i++) {
+            long compressedSize = entries.getInt(i * entrySize) & 0xFFFFFFFFL;
+            long decompressedSize = entries.getInt(i * entrySize + 4) & 0xFFFFFFFFL;
+            if (decompressedSize > MAX_FRAME_SIZE) {
+                Logger.debug("Seekable frame " + i + " is too large for random access: " + decompressedSize);
+                return null;
+            }
+            compressedOffsets[i + 1] = compressedOffsets[i] + compressedSize;
+            decompressedOffsets[i + 1] = decompressedOffsets[i] + decompressedSize;
+        }
+        if (compressedOffsets[frames] != frameStart) {
+            Logger.debug("Seek table does not match the compressed payload size");
+            return null;
+        }
+        return new SeekTable(compressedOffsets, decompressedOffsets);
+    }
+
+    static ByteBuffer readFully(FileChannel channel, long position, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file at " + (position + buffer.position()));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    public int getFrameCount() {
+        return compressedOffsets.length - 1;
+    }
+
+    public long getCompressedOffset(int frame) {
+        return compressedOffsets[frame];
+    }
+
+    public int getCompressedSize(int frame) {
+        return (int) (compressedOffsets[frame + 1] - compressedOffsets[frame]);
+    }
+
+    public long getDecompressedOffset(int frame) {
+        return decompressedOffsets[frame];
+    }
+
+    public int getDecompressedSize(int frame) {
+        return (int) (decompressedOffsets[frame + 1] - decompressedOffsets[frame]);
+    }
+
+    public long getDecompressedSize() {
+        return decompressedOffsets[getFrameCount()];
+    }
+
+    /**
+     * @return index of the frame that holds the given decompressed position, or frame count if it is past the end
+     */
+    public int getFrameIndex(long decompressedPosition) {
+        int index = Arrays.binarySearch(decompressedOffsets, decompressedPosition);
+        if (index < 0) {
+            index = -index - 2;
+        }
+        return Math.min(index, getFrameCount());
+    }
+}
@@ -0,0 +1,80 @@
+package net.quasardb.teamcity.compression.seekable;
+
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+/**
+ * Sequential view over a {@link TarFile} backed by a seekable zstd archive.
+ * Skipping an entry does not decode its content, so looking up a single entry decodes only the frames it spans.
+ */
+public class SeekableTarArchiveInputStream extends ArchiveInputStream<TarArchiveEntry> {
+
+    private final TarFile tarFile;
+    private final Iterator<TarArchiveEntry> entries;
+    private InputStream currentEntryStream;
+
+    public SeekableTarArchiveInputStream(@NotNull SeekableZstdChannel channel) throws IOException {
+        this.tarFile = new TarFile(channel);
+        this.entries = tarFile.getEntries().iterator();
+    }
+
+    @Override
+    public TarArchiveEntry getNextEntry() throws IOException {
+        closeCurrentEntry();
+        if (!entries.hasNext()) {
+            return null;
+        }
+        TarArchiveEntry entry = entries.next();
+        currentEntryStream = tarFile.getInputStream(entry);
+        return entry;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int read = read(single, 0, 1);
+        return read == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (currentEntryStream == null) {
+            return -1;
+        }
+        int read = currentEntryStream.read(b, off, len);
+        count(read);
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        return currentEntryStream == null ? 0 : currentEntryStream.skip(n);
+    }
+
+    @Override
+    public int available() throws IOException {
+        return currentEntryStream == null ? 0 : currentEntryStream.available();
+    }
+
+    private void closeCurrentEntry() throws IOException {
+        if (currentEntryStream != null) {
+            currentEntryStream.close();
+            currentEntryStream = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            closeCurrentEntry();
+        } finally {
+            tarFile.close();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package net.quasardb.teamcity.compression.seekable;
+
+import com.github.luben.zstd.ZstdDecompressCtx;
+import com.github.luben.zstd.ZstdDictDecompress;
+import net.quasardb.teamcity.compression.buffer.DirectBufferPool;
+import net.quasardb.teamcity.compression.logging.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only channel over the decompressed content of a seekable zstd file.
+ * Changing the position is free; reading decodes only the frame that covers the current position.
+ */
+public class SeekableZstdChannel implements SeekableByteChannel {
+
+    private final FileChannel channel;
+    private final SeekTable seekTable;
+    private final ZstdDecompressCtx decompressCtx = new ZstdDecompressCtx();
+    private long position;
+    private int cachedFrame = -1;
+    private ByteBuffer cachedFrameData;
+    private boolean open = true;
+
+    public SeekableZstdChannel(@NotNull FileChannel channel, @NotNull SeekTable seekTable) {
+        this(channel, seekTable, null);
+    }
+
+    public SeekableZstdChannel(@NotNull FileChannel channel, @NotNull SeekTable seekTable, @Nullable ZstdDictDecompress dictionary) {
+        this.channel = channel;
+        this.seekTable = seekTable;
+        if (dictionary != null) {
+            decompressCtx.loadDict(dictionary);
+        }
+    }
+
+    /**
+     * @return a channel over the archive, or null if the archive is not in seekable format
+     */
+    @Nullable
+    public static SeekableZstdChannel open(@NotNull File archive) throws IOException {
+        return open(archive, null);
+    }
+
+    /**
+     * @param dictionary dictionary the frames were compressed with, or null
+     */
+    @Nullable
+    public static SeekableZstdChannel open(@NotNull File archive, @Nullable ZstdDictDecompress dictionary) throws IOException {
+        FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ);
+        try {
+            SeekTable seekTable = SeekTable.read(channel);
+            if (seekTable != null) {
+                Logger.debug("Seekable zstd archive " + archive.getName() + " with " + seekTable.getFrameCount() + " frames");
+                return new SeekableZstdChannel(channel, seekTable, dictionary);
+            }
+        } catch (IOException e) {
+            Logger.debug("Could not read seek table of " + archive.getName() + ": " + e);
+        }
+        channel.close();
+        return null;
+    }
+
+    public static boolean isSeekable(@NotNull File archive) {
+        try (FileChannel channel = FileChannel.open(archive.toPath(), StandardOpenOption.READ)) {
+            return SeekTable.read(channel) != null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public SeekTable getSeekTable() {
+        return seekTable;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        ensureOpen();
+        if (position >= seekTable.getDecompressedSize()) {
+            return -1;
+        }
+        int read = 0;
+        while (dst.hasRemaining() && position < seekTable.getDecompressedSize()) {
+            int frame = seekTable.getFrameIndex(position);
+            ByteBuffer frameData = decodeFrame(frame);
+            int offsetInFrame = (int) (position - seekTable.getDecompressedOffset(frame));
+            int length = Math.min(dst.remaining(), seekTable.getDecompressedSize(frame) - offsetInFrame);
+            if (length <= 0) {
+                // empty frame, move on to the next one
+                position = seekTable.getDecompressedOffset(frame + 1);
+                continue;
+            }
+            frameData.limit(offsetInFrame + length).position(offsetInFrame);
+            dst.put(frameData);
+            position += length;
+            read += length;
+        }
+        return read;
+    }
+
+    /**
+     * Decodes the frame into the frame buffer, which is reused from frame to frame; both the compressed
+     * and the decompressed data stay in pooled direct buffers.
+     */
+    private ByteBuffer decodeFrame(int frame) throws IOException {
+        if (frame != cachedFrame) {
+            DirectBufferPool bufferPool = DirectBufferPool.getInstance();
+            int compressedSize = seekTable.getCompressedSize(frame);
+            int decompressedSize = seekTable.getDecompressedSize(frame);
+            if (cachedFrameData == null || cachedFrameData.capacity() < decompressedSize) {
+                releaseFrameData();
+                cachedFrameData = bufferPool.acquire(decompressedSize);
+            }
+            cachedFrame = -1;
+            ByteBuffer compressed = bufferPool.acquire(compressedSize);
+            try {
+                long offset = seekTable.getCompressedOffset(frame);
+                while (compressed.hasRemaining()) {
+                    if (channel.read(compressed, offset + compressed.position()) < 0) {
+                        throw new IOException("Unexpected end of file in seekable frame " + frame);
+                    }
+                }
+                cachedFrameData.clear();
+                int length = decompressCtx.decompressDirectByteBuffer(cachedFrameData, 0, decompressedSize, compressed, 0, compressedSize);
+                if (length != decompressedSize) {
+                    throw new IOException("Seekable frame " + frame + " decompressed to " + length + " bytes, expected " + decompressedSize);
+                }
+            } catch (RuntimeException e) {
+                throw new IOException("Could not decompress seekable frame " + frame, e);
+            } finally {
+                bufferPool.release(compressed);
+            }
+            cachedFrame = frame;
+        }
+        return cachedFrameData;
+    }
+
+    private void releaseFrameData() {
+        if (cachedFrameData != null) {
+            DirectBufferPool.getInstance().release(cachedFrameData);
+            cachedFrameData = null;
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long position() {
+        return position;
+    }
+
+    @Override
+    public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+        ensureOpen();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position: " + newPosition);
+        }
+        this.position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() {
+        return seekTable.getDecompressedSize();
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (open) {
+            open = false;
+            releaseFrameData();
+            decompressCtx.close();
+            channel.close();
+        }
+    }
+
+    private void ensureOpen() throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package net.quasardb.teamcity.compression.seekable;
+
+import com.github.luben.zstd.ZstdCompressCtx;
+import com.github.luben.zstd.ZstdDictCompress;
+import net.quasardb.teamcity.compression.utils.ExecutorUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Writes the zstd seekable format: the input is cut into independently compressed frames of {@code frameSize}
+ * decompressed bytes, and the seek table is appended on {@link #close()}.
+ * The result is a valid zstd stream for any regular decoder, which simply skips the seek table.
+ * <p>
+ * With more than one worker, frames are compressed on a pool of that many threads and written in input order,
+ * at most {@value #FRAMES_PER_WORKER} frames per worker ahead of the output.
+ */
+public class SeekableZstdOutputStream extends OutputStream {
+
+    private static final int FRAMES_PER_WORKER = 2;
+
+    private final OutputStream out;
+    private final ZstdCompressCtx compressCtx;
+    private final int workers;
+    private final ExecutorService executor;
+    private final BlockingQueue<ZstdCompressCtx> workerContexts;
+    private final Deque<PendingFrame> pending = new ArrayDeque<>();
+    private byte[] frameBuffer;
+    private final ByteArrayOutputStream seekTableEntries = new ByteArrayOutputStream();
+    private int frameLength;
+    private int frameCount;
+    private boolean closed;
+
+    private static class PendingFrame {
+        private final Future<byte[]> compressed;
+        private final int length;
+
+        private PendingFrame(Future<byte[]> compressed, int length) {
+            this.compressed = compressed;
+            this.length = length;
+        }
+    }
+
+    public SeekableZstdOutputStream(@NotNull OutputStream out, int level, int frameSize) {
+        this(out, level, frameSize, null);
+    }
+
+    /**
+     * @param dictionary dictionary every frame is compressed with, or null; its ID is recorded in each frame header
+     */
+    public SeekableZstdOutputStream(@NotNull OutputStream out, int level, int frameSize, @Nullable ZstdDictCompress dictionary) {
+        this(out, level, frameSize, dictionary, 1);
+    }
+
+    /**
+     * @param workers number of threads compressing frames in parallel; 1 or less compresses on the writing thread
+     */
+    public SeekableZstdOutputStream(@NotNull OutputStream out, int level, int frameSize, @Nullable ZstdDictCompress dictionary, int workers) {
+        this(out, level, frameSize, dictionary, workers, 0);
+    }
+
+    /**
+     * @param windowLog positive to enable long distance matching with a window of {@code 2^windowLog} bytes within
+     *                  each frame, 0 keeps the default window of the level
+     */
+    public SeekableZstdOutputStream(@NotNull OutputStream out, int level, int frameSize, @Nullable ZstdDictCompress dictionary, int workers, int windowLog) {
+        if (frameSize <= 0 || frameSize > SeekTable.MAX_FRAME_SIZE) {
+            throw new IllegalArgumentException("Frame size must be in (0, " + SeekTable.MAX_FRAME_SIZE + "]: " + frameSize);
+        }
+        this.out = out;
+        this.frameBuffer = new byte[frameSize];
+        this.workers = Math.max(1, workers);
+        if (this.workers > 1) {
+            compressCtx = null;
+            workerContexts = new ArrayBlockingQueue<>(this.workers);
+            for (int i = 0; i < this.workers; i++) {
+                workerContexts.add(newContext(level, dictionary, windowLog));
+            }
+            executor = ExecutorUtils.newDaemonPool("zstd-compress", this.workers);
+        } else {
+            compressCtx = newContext(level, dictionary, windowLog);
+            workerContexts = null;
+            executor = null;
+        }
+    }
+
+    private static ZstdCompressCtx newContext(int level, @Nullable ZstdDictCompress dictionary, int windowLog) {
+        ZstdCompressCtx context = new ZstdCompressCtx();
+        context.setLevel(level);
+        context.setChecksum(true);
+        context.setContentSize(true);
+        if (windowLog > 0) {
+            context.setLong(windowLog);
+            context.setWindowLog(windowLog);
+        }
+        if (dictionary != null) {
+            context.loadDict(dictionary);
+        }
+        return context;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(@NotNull byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            int length = Math.min(len, frameBuffer.length - frameLength);
+            System.arraycopy(b, off, frameBuffer, frameLength, length);
+            frameLength += length;
+            off += length;
+            len -= length;
+            if (frameLength == frameBuffer.length) {
+                writeFrame();
+            }
+        }
+    }
+
+    private void writeFrame() throws IOException {
+        if (frameLength == 0) {
+            return;
+        }
+        byte[] frame = frameLength == frameBuffer.length ? frameBuffer : Arrays.copyOf(frameBuffer, frameLength);
+        if (executor == null) {
+            writeCompressed(compressCtx.compress(frame), frame.length);
+        } else {
+            while (pending.size() >= workers * FRAMES_PER_WORKER) {
+                writePending();
+            }
+            pending.add(new PendingFrame(executor.submit(() -> compress(frame)), frame.length));
+            if (frame == frameBuffer) {
+                frameBuffer = new byte[frameBuffer.length];
+            }
+        }
+        frameLength = 0;
+    }
+
+    private byte[] compress(byte[] frame) throws InterruptedException {
+        ZstdCompressCtx context = workerContexts.take();
+        try {
+            return context.compress(frame);
+        } finally {
+            workerContexts.add(context);
+        }
+    }
+
+    private void writePending() throws IOException {
+        PendingFrame frame = pending.poll();
+        try {
+            writeCompressed(frame.compressed.get(), frame.length);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing zstd frames");
+        } catch (ExecutionException e) {
+            throw new IOException("Could not compress zstd frame", e.getCause());
+        }
+    }
+
+    private void writeCompressed(byte[] compressed, int length) throws IOException {
+        out.write(compressed);
+        ByteBuffer entry = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        entry.putInt(compressed.length).putInt(length);
+        seekTableEntries.write(entry.array());
+        frameCount++;
+    }
+
+    private void writeSeekTable() throws IOException {
+        byte[] entries = seekTableEntries.toByteArray();
+        ByteBuffer table = ByteBuffer.allocate(SeekTable.SKIPPABLE_HEADER_SIZE + entries.length + SeekTable.FOOTER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        table.putInt(SeekTable.SKIPPABLE_FRAME_MAGIC);
+        table.putInt(entries.length + SeekTable.FOOTER_SIZE);
+        table.put(entries);
+        table.putInt(frameCount);
+        table.put((byte) 0);
+        table.putInt(SeekTable.SEEKABLE_MAGIC);
+        out.write(table.array());
+    }
+
+    /**
+     * Compresses buffered data into a frame. Frequent flushes produce small frames and hurt the ratio.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        writeFrame();
+        while (!pending.isEmpty()) {
+            writePending();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            writeFrame();
+            while (!pending.isEmpty()) {
+                writePending();
+            }
+            writeSeekTable();
+            out.flush();
+        } finally {
+            closed = true;
+            try {
+                releaseContexts();
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Waits for frames still being compressed, as their contexts must not be freed under them, and stops the workers.
+     */
+    private void releaseContexts() {
+        if (executor == null) {
+            compressCtx.close();
+            return;
+        }
+        try {
+            for (PendingFrame frame : pending) {
+                try {
+                    frame.compressed.get();
+                } catch (ExecutionException ignored) {
+                    // the frame is dropped with the stream
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pending.clear();
+            executor.shutdownNow();
+        }
+        for (ZstdCompressCtx context : workerContexts) {
+            context.close();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
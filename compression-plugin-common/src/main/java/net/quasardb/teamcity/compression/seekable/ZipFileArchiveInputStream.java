@@ -0,0 +1,134 @@
+package net.quasardb.teamcity.compression.seekable;
+
+import net.quasardb.teamcity.compression.utils.ZipZstdSupport;
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+
+/**
+ * Sequential view over a {@link ZipFile} that can also jump to an entry through the central directory,
+ * so reading one entry does not inflate or even read the entries stored before it.
+ */
+public class ZipFileArchiveInputStream extends ArchiveInputStream<ZipArchiveEntry> {
+
+    private final ZipFile zipFile;
+    private final Closeable onClose;
+    private Enumeration<ZipArchiveEntry> entries;
+    private ZipArchiveEntry currentEntry;
+    private InputStream currentEntryStream;
+
+    /**
+     * @param onClose releases the zip file when the stream is closed
+     */
+    public ZipFileArchiveInputStream(@NotNull ZipFile zipFile, @NotNull Closeable onClose) {
+        this.zipFile = zipFile;
+        this.onClose = onClose;
+    }
+
+    /**
+     * Returns the entries in the order they are stored, like a zip stream would.
+     */
+    @Override
+    public ZipArchiveEntry getNextEntry() throws IOException {
+        closeCurrentEntry();
+        if (entries == null) {
+            entries = zipFile.getEntriesInPhysicalOrder();
+        }
+        if (!entries.hasMoreElements()) {
+            return null;
+        }
+        currentEntry = entries.nextElement();
+        return currentEntry;
+    }
+
+    /**
+     * Makes the stream read the entry with the given name, trying it also with a trailing slash for directories.
+     *
+     * @return the entry or null if the central directory has no entry with that name
+     */
+    public ZipArchiveEntry positionAt(@NotNull String name) throws IOException {
+        ZipArchiveEntry entry = zipFile.getEntry(name);
+        if (entry == null && !name.endsWith("/")) {
+            entry = zipFile.getEntry(name + "/");
+        }
+        if (entry == null) {
+            return null;
+        }
+        closeCurrentEntry();
+        currentEntry = entry;
+        return entry;
+    }
+
+    public ZipFile getZipFile() {
+        return zipFile;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int read = read(single, 0, 1);
+        return read == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        InputStream entryStream = getCurrentEntryStream();
+        if (entryStream == null) {
+            return -1;
+        }
+        int read = entryStream.read(b, off, len);
+        count(read);
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        InputStream entryStream = getCurrentEntryStream();
+        return entryStream == null ? 0 : entryStream.skip(n);
+    }
+
+    @Override
+    public int available() throws IOException {
+        InputStream entryStream = getCurrentEntryStream();
+        return entryStream == null ? 0 : entryStream.available();
+    }
+
+    @Override
+    public boolean canReadEntryData(ArchiveEntry entry) {
+        return entry instanceof ZipArchiveEntry && ZipZstdSupport.canReadEntryData(zipFile, (ZipArchiveEntry) entry);
+    }
+
+    /**
+     * Opens the data of the current entry on first access; skipped entries are never read, not even their local header.
+     */
+    private InputStream getCurrentEntryStream() throws IOException {
+        if (currentEntryStream == null && currentEntry != null) {
+            currentEntryStream = ZipZstdSupport.getInputStream(zipFile, currentEntry);
+        }
+        return currentEntryStream;
+    }
+
+    private void closeCurrentEntry() throws IOException {
+        currentEntry = null;
+        if (currentEntryStream != null) {
+            currentEntryStream.close();
+            currentEntryStream = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            closeCurrentEntry();
+        } finally {
+            onClose.close();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package net.quasardb.teamcity.compression.utils;
+
+import jetbrains.buildServer.util.ArchiveFileSelector;
+import jetbrains.buildServer.util.ArchiveUtil;
+import net.quasardb.teamcity.compression.extract.EntryWriter;
+import net.quasardb.teamcity.compression.logging.Logger;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.io.IOUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Date;
+import java.util.Enumeration;
+
+public class ArchiveStreamUtils {
+
+    private static final String TAR_ENCODING = "UTF-8";
+
+    /**
+     * Reads tar entries one by one from the given (already decompressed) stream and passes every selected entry
+     * to the writer. The stream is not closed; the writer is finished before returning.
+     */
+    public static int extractTarStream(@NotNull InputStream inputStream, @NotNull ArchiveFileSelector archiveFileSelector, @NotNull EntryWriter entryWriter) throws IOException {
+        TarArchiveInputStream tarStream = new TarArchiveInputStream(inputStream, TAR_ENCODING);
+        int extracted = 0;
+        TarArchiveEntry entry;
+        while ((entry = tarStream.getNextEntry()) != null) {
+            File destinationFile = getDestinationFile(entry.getName(), archiveFileSelector);
+            if (destinationFile == null) {
+                continue;
+            }
+            if (entry.isDirectory()) {
+                entryWriter.writeDirectory(destinationFile);
+            } else if (entry.isSymbolicLink()) {
+                if (!writeSymbolicLink(entry.getLinkName(), destinationFile, archiveFileSelector, entryWriter)) {
+                    continue;
+                }
+            } else if (entry.isLink()) {
+                entryWriter.writeCopy(getHardLinkSource(entry, archiveFileSelector), destinationFile);
+            } else {
+                entryWriter.writeFile(tarStream, entry.getSize(), entry.getMode(), lastModified(entry.getLastModifiedDate()), destinationFile);
+            }
+            extracted++;
+        }
+        entryWriter.finish();
+        Logger.debug("Extracted " + extracted + " entries from tar stream");
+        return extracted;
+    }
+
+    /**
+     * Extracts selected entries of a zip file through its central directory, so that the writer can read entries
+     * independently of each other. Entries compressed with zstd are decoded as well. The writer is finished before returning.
+     */
+    public static int extractZipFile(@NotNull File zip, @NotNull ArchiveFileSelector archiveFileSelector, @NotNull EntryWriter entryWriter) throws IOException {
+        int extracted = 0;
+        try (ZipFile zipFile = ZipFile.builder().setFile(zip).get()) {
+            Enumeration<ZipArchiveEntry> entries = zipFile.getEntriesInPhysicalOrder();
+            while (entries.hasMoreElements()) {
+                ZipArchiveEntry entry = entries.nextElement();
+                File destinationFile = getDestinationFile(entry.getName(), archiveFileSelector);
+                if (destinationFile == null) {
+                    continue;
+                }
+                if (entry.isDirectory()) {
+                    entryWriter.writeDirectory(destinationFile);
+                } else if (entry.isUnixSymlink()) {
+                    if (!writeSymbolicLink(readSymbolicLinkTarget(zipFile, entry), destinationFile, archiveFileSelector, entryWriter)) {
+                        continue;
+                    }
+                } else {
+                    entryWriter.writeFile(() -> ZipZstdSupport.getInputStream(zipFile, entry), entry.getSize(), entry.getUnixMode(), entry.getTime(), destinationFile);
+                }
+                extracted++;
+            }
+            entryWriter.finish();
+        }
+        Logger.debug("Extracted " + extracted + " entries from zip file");
+        return extracted;
+    }
+
+    private static String readSymbolicLinkTarget(ZipFile zipFile, ZipArchiveEntry entry) throws IOException {
+        try (InputStream in = ZipZstdSupport.getInputStream(zipFile, entry)) {
+            return new String(IOUtils.toByteArray(in), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static boolean writeSymbolicLink(String target, File destinationFile, ArchiveFileSelector archiveFileSelector, EntryWriter entryWriter) throws IOException {
+        if (!isLinkTargetAllowed(target, destinationFile, archiveFileSelector.getDestinationRoot())) {
+            Logger.error("ZSTD skipping symbolic link pointing outside of the target directory: " + destinationFile + " -> " + target);
+            return false;
+        }
+        entryWriter.writeSymbolicLink(target, destinationFile);
+        return true;
+    }
+
+    /**
+     * A hard link refers to an earlier entry of the same archive; it is extracted as a copy of that entry's file.
+     */
+    private static File getHardLinkSource(TarArchiveEntry entry, ArchiveFileSelector archiveFileSelector) throws IOException {
+        File source = getDestinationFile(entry.getLinkName(), archiveFileSelector);
+        if (source == null) {
+            throw new IOException("Cannot extract hard link " + entry.getName() + ": its target " + entry.getLinkName() + " is not extracted");
+        }
+        return source;
+    }
+
+    /**
+     * Checks that a symbolic link target is relative and resolves inside the destination root, or inside the
+     * directory of the link when the link itself is not under the root, so that later entries cannot be written
+     * through the link to a location outside of the target directory.
+     */
+    private static boolean isLinkTargetAllowed(@NotNull String target, @NotNull File link, @Nullable File destinationRoot) {
+        Path targetPath;
+        try {
+            targetPath = Paths.get(target);
+        } catch (InvalidPathException e) {
+            return false;
+        }
+        if (target.isEmpty() || targetPath.isAbsolute() || targetPath.getRoot() != null) {
+            return false;
+        }
+        Path linkDir = link.getAbsoluteFile().toPath().normalize().getParent();
+        if (linkDir == null) {
+            return false;
+        }
+        Path base = linkDir;
+        if (destinationRoot != null) {
+            Path root = destinationRoot.getAbsoluteFile().toPath().normalize();
+            if (linkDir.startsWith(root)) {
+                base = root;
+            }
+        }
+        return linkDir.resolve(targetPath).normalize().startsWith(base);
+    }
+
+    private static File getDestinationFile(String entryName, ArchiveFileSelector archiveFileSelector) {
+        if (!ArchiveUtil.isNameAllowed(entryName)) {
+            Logger.error("ZSTD skipping unsafe archive entry: " + entryName);
+            return null;
+        }
+        return archiveFileSelector.getDestinationFile(entryName);
+    }
+
+    private static long lastModified(Date date) {
+        return date != null ? date.getTime() : EntryWriter.UNKNOWN_TIME;
+    }
+}
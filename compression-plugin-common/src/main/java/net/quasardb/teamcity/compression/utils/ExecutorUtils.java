@@ -0,0 +1,32 @@
+package net.quasardb.teamcity.compression.utils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ExecutorUtils {
+
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    /**
+     * Creates a fixed-size pool of daemon threads that are released when idle, so an idle agent or server keeps no workers.
+     */
+    public static ExecutorService newDaemonPool(String namePrefix, int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), daemonThreadFactory(namePrefix));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    public static ThreadFactory daemonThreadFactory(String namePrefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -9,7 +9,10 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
@@ -61,4 +64,53 @@ public class FileSystemUtils {
         }
         return false;
     }
+
+    public static MessageDigest newSha256() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Replaces the target with the source, atomically when the file system supports it.
+     */
+    public static void moveReplacing(@NotNull Path source, @NotNull Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Creates an empty hidden file next to the destination, to be written and then moved over it,
+     * so that a partially written destination is never visible.
+     */
+    public static File createPartialFile(@NotNull File destination) throws IOException {
+        File parentDir = destination.getAbsoluteFile().getParentFile();
+        parentDir.mkdirs();
+        return File.createTempFile("." + destination.getName() + ".", ".partial", parentDir);
+    }
+
+    /**
+     * Fails if writing the given number of bytes would leave less than the minimum free space in the directory.
+     * File systems that do not report their usable space pass the check.
+     */
+    public static void checkFreeSpace(@NotNull File directory, long bytes, long minFreeBytes) throws IOException {
+        long usableBytes = directory.getUsableSpace();
+        if (usableBytes > 0 && usableBytes - Math.max(0, bytes) < minFreeBytes) {
+            throw new IOException("Not enough free space in " + directory + ": " + usableBytes + " bytes usable, "
+                    + bytes + " bytes requested, " + minFreeBytes + " bytes to keep free");
+        }
+    }
 }
@@ -0,0 +1,48 @@
+package net.quasardb.teamcity.compression.utils;
+
+import com.github.luben.zstd.RecyclingBufferPool;
+import com.github.luben.zstd.ZstdInputStream;
+import net.quasardb.teamcity.compression.config.ZstdProperties;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads zip entries compressed with zstd (method 93 of the zip specification), which commons-compress does not decode:
+ * the raw entry data is a zstd frame, decoded here with zstd-jni. Other methods are left to {@link ZipFile}.
+ */
+public class ZipZstdSupport {
+
+    public static final int ZSTD_METHOD = 93;
+
+    public static boolean isZstdEntry(@NotNull ZipArchiveEntry entry) {
+        return entry.getMethod() == ZSTD_METHOD;
+    }
+
+    /**
+     * Opens the uncompressed content of an entry.
+     */
+    public static InputStream getInputStream(@NotNull ZipFile zipFile, @NotNull ZipArchiveEntry entry) throws IOException {
+        if (!isZstdEntry(entry)) {
+            return zipFile.getInputStream(entry);
+        }
+        InputStream raw = zipFile.getRawInputStream(entry);
+        if (raw == null) {
+            throw new IOException("Entry " + entry.getName() + " does not belong to " + zipFile);
+        }
+        try {
+            return new ZstdInputStream(new BufferedInputStream(raw, ZstdProperties.STREAM_BUFFER_SIZE), RecyclingBufferPool.INSTANCE);
+        } catch (IOException | RuntimeException e) {
+            raw.close();
+            throw e;
+        }
+    }
+
+    public static boolean canReadEntryData(@NotNull ZipFile zipFile, @NotNull ZipArchiveEntry entry) {
+        return isZstdEntry(entry) ? !entry.getGeneralPurposeBit().usesEncryption() : zipFile.canReadEntryData(entry);
+    }
+}
@@ -1,12 +1,18 @@
 package net.quasardb.teamcity.compression.utils;
 
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdOutputStream;
 import com.intellij.openapi.util.io.StreamUtil;
 import jetbrains.buildServer.util.FileUtil;
+import net.quasardb.teamcity.compression.config.ZstdProperties;
+import net.quasardb.teamcity.compression.dictionary.impl.FileDictionaryRegistry;
 import net.quasardb.teamcity.compression.logging.Logger;
+import net.quasardb.teamcity.compression.seekable.SeekableZstdOutputStream;
 import org.apache.commons.compress.archivers.ArchiveException;
 import org.apache.commons.compress.archivers.ArchiveStreamFactory;
 import org.apache.commons.compress.compressors.CompressorStreamFactory;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
 import java.nio.file.Files;
@@ -39,6 +45,20 @@ public class ZstdCompressionUtils {
             return false;
     }
 
+    /**
+     * Detects the archiver of a mark-supporting stream without consuming it.
+     *
+     * @return archiver name as in {@link ArchiveStreamFactory} or null if the stream is not a known archive
+     */
+    public static String detectArchiver(InputStream inputStream){
+        try {
+            return ArchiveStreamFactory.detect(inputStream);
+        } catch (ArchiveException e) {
+            Logger.debug("Could not detect archiver type: "+e);
+        }
+        return null;
+    }
+
     public static void copyStreamToFile(InputStream input, File target) throws IOException {
         FileOutputStream writer = new FileOutputStream(target);
 
@@ -50,4 +70,105 @@ public class ZstdCompressionUtils {
 
     }
 
+    /**
+     * Compresses the source file into the zstd seekable format (independent frames plus a seek table).
+     */
+    public static void compressSeekable(@NotNull File source, @NotNull File target, int level, int frameSize) throws IOException {
+        compressSeekable(source, target, level, frameSize, null);
+    }
+
+    /**
+     * Compresses the source file into the zstd seekable format with every frame compressed using the dictionary.
+     */
+    public static void compressSeekable(@NotNull File source, @NotNull File target, int level, int frameSize, @Nullable ZstdDictCompress dictionary) throws IOException {
+        try (InputStream in = Files.newInputStream(source.toPath());
+             OutputStream out = new SeekableZstdOutputStream(new BufferedOutputStream(Files.newOutputStream(target.toPath())), level, frameSize, dictionary)) {
+            StreamUtil.copyStreamContent(in, out);
+        }
+    }
+
+    /**
+     * Compresses the source file into a single zstd frame. A positive window log enables long distance matching
+     * with a window of {@code 2^windowLog} bytes, which finds repetitions far apart in large snapshots.
+     */
+    public static void compress(@NotNull File source, @NotNull File target, int level, int windowLog) throws IOException {
+        try (InputStream in = Files.newInputStream(source.toPath());
+             ZstdOutputStream out = new ZstdOutputStream(new BufferedOutputStream(Files.newOutputStream(target.toPath())), level)) {
+            out.setChecksum(true);
+            if (windowLog > 0) {
+                out.setLong(windowLog);
+                out.setWindowLog(windowLog);
+            }
+            StreamUtil.copyStreamContent(in, out);
+        }
+    }
+
+    /**
+     * Compresses the source file into a single zstd frame using the dictionary; its ID is recorded in the frame header,
+     * so the extractor finds the dictionary in the registry when decompressing.
+     */
+    public static void compress(@NotNull File source, @NotNull File target, @NotNull ZstdDictCompress dictionary) throws IOException {
+        try (InputStream in = Files.newInputStream(source.toPath());
+             ZstdOutputStream out = new ZstdOutputStream(new BufferedOutputStream(Files.newOutputStream(target.toPath())))) {
+            out.setChecksum(true);
+            out.setDict(dictionary);
+            StreamUtil.copyStreamContent(in, out);
+        }
+    }
+
+    /**
+     * Opens a stream compressing with zstd. With more than one worker the output is in the seekable format: independent
+     * frames of {@link ZstdProperties#getSeekableFrameSize()} bytes compressed on that many threads, which the extractor
+     * also decompresses in parallel; the window of {@link ZstdProperties#getCompressionWindowLog()} then applies within
+     * each frame. Otherwise a single frame is compressed on the writing thread, with that window when set.
+     */
+    public static OutputStream newCompressingStream(@NotNull OutputStream out, int level, int workers) throws IOException {
+        return newCompressingStream(out, level, workers, null);
+    }
+
+    /**
+     * Same as {@link #newCompressingStream(OutputStream, int, int)}, compressing every frame with the dictionary;
+     * its ID is recorded in the frame headers, so the extractor finds the dictionary in the registry.
+     */
+    public static OutputStream newCompressingStream(@NotNull OutputStream out, int level, int workers, @Nullable ZstdDictCompress dictionary) throws IOException {
+        int windowLog = ZstdProperties.getCompressionWindowLog();
+        if (workers > 1) {
+            return new SeekableZstdOutputStream(new BufferedOutputStream(out, ZstdProperties.STREAM_BUFFER_SIZE), level, ZstdProperties.getSeekableFrameSize(), dictionary, workers, windowLog);
+        }
+        ZstdOutputStream zstd = new ZstdOutputStream(new BufferedOutputStream(out, ZstdProperties.STREAM_BUFFER_SIZE), level);
+        try {
+            zstd.setChecksum(true);
+            if (dictionary != null) {
+                zstd.setDict(dictionary);
+            }
+            if (windowLog > 0) {
+                zstd.setLong(windowLog);
+                zstd.setWindowLog(windowLog);
+            }
+        } catch (IOException | RuntimeException e) {
+            zstd.close();
+            throw e;
+        }
+        return zstd;
+    }
+
+    /**
+     * Dictionary of {@link ZstdProperties#getCompressionDictionaryId()} from the default registry.
+     *
+     * @return the dictionary or null if packing is configured without one
+     * @throws IOException if the configured dictionary is not registered
+     */
+    @Nullable
+    public static ZstdDictCompress getConfiguredDictionary(int level) throws IOException {
+        long dictionaryId = ZstdProperties.getCompressionDictionaryId();
+        if (dictionaryId == 0) {
+            return null;
+        }
+        ZstdDictCompress dictionary = FileDictionaryRegistry.getDefault().getCompressDictionary(dictionaryId, level);
+        if (dictionary == null) {
+            throw new IOException("zstd dictionary " + dictionaryId + " is not registered");
+        }
+        return dictionary;
+    }
+
 }
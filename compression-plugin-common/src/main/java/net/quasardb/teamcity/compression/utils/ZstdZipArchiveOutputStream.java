@@ -0,0 +1,375 @@
+package net.quasardb.teamcity.compression.utils;
+
+import com.github.luben.zstd.RecyclingBufferPool;
+import com.github.luben.zstd.ZstdOutputStream;
+import net.quasardb.teamcity.compression.config.ZstdProperties;
+import org.apache.commons.compress.archivers.ArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.Zip64Mode;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipEightByteInteger;
+import org.apache.commons.compress.archivers.zip.ZipLong;
+import org.apache.commons.compress.archivers.zip.ZipShort;
+import org.apache.commons.compress.archivers.zip.ZipUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes zip files whose entries are compressed with zstd ({@link ZipZstdSupport#ZSTD_METHOD}), which
+ * {@link org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream} refuses to write. Headers, central directory
+ * and zip64 records are written here, so the output does not depend on how commons-compress lays out its own headers.
+ * <p>
+ * Entries are either added raw, already compressed with zstd, deflated or stored, with their sizes and CRC set,
+ * or written through {@link #putArchiveEntry}, which compresses them with zstd on the calling thread and follows
+ * them with a zip64 data descriptor. Directories are stored empty. Names are always encoded in UTF-8.
+ */
+public class ZstdZipArchiveOutputStream extends ArchiveOutputStream<ZipArchiveEntry> {
+
+    private static final int VERSION_ZSTD = 63;
+    private static final int VERSION_ZIP64 = 45;
+    private static final int VERSION_DEFLATED = 20;
+    private static final int VERSION_STORED = 10;
+
+    private static final int FLAG_DATA_DESCRIPTOR = 1 << 3;
+    private static final int FLAG_UTF8 = 1 << 11;
+
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_SHORT = 0xFFFF;
+    private static final ZipShort ZIP64_EXTRA_ID = new ZipShort(0x0001);
+
+    private static final long EOCD_SIG = 0x06054b50L;
+    private static final long ZIP64_EOCD_SIG = 0x06064b50L;
+    private static final long ZIP64_EOCD_LOCATOR_SIG = 0x07064b50L;
+    private static final int ZIP64_EOCD_LENGTH = 44;
+
+    private final int level;
+    private final List<WrittenEntry> entries = new ArrayList<>();
+    private final CRC32 crc = new CRC32();
+    private Zip64Mode zip64Mode = Zip64Mode.AsNeeded;
+    private long written;
+
+    private WrittenEntry current;
+    private OutputStream compressor;
+    private long currentSize;
+    private long currentDataStart;
+
+    private static class WrittenEntry {
+        private final ZipArchiveEntry entry;
+        private final byte[] name;
+        private final long offset;
+        private final int flags;
+        private boolean zip64;
+
+        private WrittenEntry(ZipArchiveEntry entry, byte[] name, long offset, int flags) {
+            this.entry = entry;
+            this.name = name;
+            this.offset = offset;
+            this.flags = flags;
+        }
+    }
+
+    public ZstdZipArchiveOutputStream(@NotNull OutputStream out) {
+        this(out, ZstdProperties.getCompressionLevel());
+    }
+
+    /**
+     * @param level zstd level of the entries compressed by this stream; raw entries are copied as they are
+     */
+    public ZstdZipArchiveOutputStream(@NotNull OutputStream out, int level) {
+        super(new BufferedOutputStream(out, ZstdProperties.STREAM_BUFFER_SIZE));
+        this.level = level;
+    }
+
+    /**
+     * {@link Zip64Mode#AsNeeded} adds zip64 fields only to the entries and the end of central directory that need them,
+     * {@link Zip64Mode#Always} adds them everywhere; entries written through {@link #putArchiveEntry} always have them
+     * in their local header, as their size is not known up front.
+     */
+    public void setUseZip64(@NotNull Zip64Mode mode) {
+        if (mode != Zip64Mode.AsNeeded && mode != Zip64Mode.Always) {
+            throw new IllegalArgumentException("Zip64 mode " + mode + " is not supported");
+        }
+        zip64Mode = mode;
+    }
+
+    /**
+     * Starts an entry written through this stream: its content is compressed with zstd, a directory is stored empty.
+     */
+    @Override
+    public void putArchiveEntry(ZipArchiveEntry entry) throws IOException {
+        checkFinished();
+        if (current != null) {
+            closeArchiveEntry();
+        }
+        ZipArchiveEntry copy = copyOf(entry);
+        if (copy.isDirectory()) {
+            copy.setMethod(ZipEntry.STORED);
+            copy.setSize(0);
+            copy.setCompressedSize(0);
+            copy.setCrc(0);
+            writeLocalHeader(copy, FLAG_UTF8, zip64Mode == Zip64Mode.Always);
+            return;
+        }
+        copy.setMethod(ZipZstdSupport.ZSTD_METHOD);
+        current = writeLocalHeader(copy, FLAG_UTF8 | FLAG_DATA_DESCRIPTOR, true);
+        crc.reset();
+        currentSize = 0;
+        currentDataStart = written;
+        ZstdOutputStream zstd = new ZstdOutputStream(new EntryDataOutputStream(), RecyclingBufferPool.INSTANCE);
+        zstd.setLevel(level);
+        zstd.setChecksum(false);
+        compressor = zstd;
+    }
+
+    @Override
+    public void write(@NotNull byte[] b, int off, int len) throws IOException {
+        if (current == null) {
+            throw new IllegalStateException("No current entry");
+        }
+        crc.update(b, off, len);
+        compressor.write(b, off, len);
+        currentSize += len;
+        count(len);
+    }
+
+    @Override
+    public void closeArchiveEntry() throws IOException {
+        checkFinished();
+        if (current == null) {
+            return;
+        }
+        compressor.close();
+        compressor = null;
+        ZipArchiveEntry entry = current.entry;
+        entry.setCompressedSize(written - currentDataStart);
+        entry.setSize(currentSize);
+        entry.setCrc(crc.getValue());
+        current.zip64 = true;
+        byte[] descriptor = new byte[24];
+        ZipLong.putLong(ZipLong.DD_SIG.getValue(), descriptor, 0);
+        ZipLong.putLong(entry.getCrc(), descriptor, 4);
+        putEightBytes(entry.getCompressedSize(), descriptor, 8);
+        putEightBytes(entry.getSize(), descriptor, 16);
+        writeRaw(descriptor, 0, descriptor.length);
+        current = null;
+    }
+
+    /**
+     * Adds an entry whose data is already compressed with the method of the entry, which must have its sizes and CRC set.
+     */
+    public void addRawArchiveEntry(@NotNull ZipArchiveEntry entry, @NotNull InputStream rawStream) throws IOException {
+        checkFinished();
+        if (current != null) {
+            closeArchiveEntry();
+        }
+        if (entry.getSize() < 0 || entry.getCompressedSize() < 0 || entry.getCrc() < 0) {
+            throw new IllegalArgumentException("Raw zip entry " + entry.getName() + " must have its sizes and CRC set");
+        }
+        ZipArchiveEntry copy = copyOf(entry);
+        boolean zip64 = zip64Mode == Zip64Mode.Always || copy.getSize() >= ZIP64_MAGIC || copy.getCompressedSize() >= ZIP64_MAGIC;
+        writeLocalHeader(copy, FLAG_UTF8, zip64);
+        byte[] buffer = new byte[ZstdProperties.STREAM_BUFFER_SIZE];
+        long copied = 0;
+        for (int read = rawStream.read(buffer); read != -1; read = rawStream.read(buffer)) {
+            writeRaw(buffer, 0, read);
+            copied += read;
+        }
+        if (copied != copy.getCompressedSize()) {
+            throw new IOException("Raw zip entry " + copy.getName() + " has " + copied + " bytes instead of " + copy.getCompressedSize());
+        }
+    }
+
+    @Override
+    public ZipArchiveEntry createArchiveEntry(File inputFile, String entryName) throws IOException {
+        checkFinished();
+        return new ZipArchiveEntry(inputFile, entryName);
+    }
+
+    /**
+     * Writes the central directory; the underlying stream is left open.
+     */
+    @Override
+    public void finish() throws IOException {
+        checkFinished();
+        if (current != null) {
+            throw new IOException("This archive contains unclosed entries.");
+        }
+        long centralDirectoryOffset = written;
+        for (WrittenEntry entry : entries) {
+            writeCentralHeader(entry);
+        }
+        long centralDirectorySize = written - centralDirectoryOffset;
+        if (zip64Mode == Zip64Mode.Always || entries.size() >= ZIP64_MAGIC_SHORT
+                || centralDirectoryOffset >= ZIP64_MAGIC || centralDirectorySize >= ZIP64_MAGIC) {
+            writeZip64EndOfCentralDirectory(centralDirectoryOffset, centralDirectorySize);
+        }
+        byte[] end = new byte[22];
+        ZipLong.putLong(EOCD_SIG, end, 0);
+        ZipShort.putShort(Math.min(entries.size(), ZIP64_MAGIC_SHORT), end, 8);
+        ZipShort.putShort(Math.min(entries.size(), ZIP64_MAGIC_SHORT), end, 10);
+        ZipLong.putLong(Math.min(centralDirectorySize, ZIP64_MAGIC), end, 12);
+        ZipLong.putLong(Math.min(centralDirectoryOffset, ZIP64_MAGIC), end, 16);
+        writeRaw(end, 0, end.length);
+        out.flush();
+        super.finish();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!isFinished()) {
+                finish();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private WrittenEntry writeLocalHeader(ZipArchiveEntry entry, int flags, boolean zip64) throws IOException {
+        WrittenEntry written = new WrittenEntry(entry, entry.getName().getBytes(StandardCharsets.UTF_8), this.written, flags);
+        written.zip64 = zip64;
+        boolean streamed = (flags & FLAG_DATA_DESCRIPTOR) != 0;
+        byte[] extra = concat(zip64 ? zip64Extra(streamed ? 0 : entry.getSize(), streamed ? 0 : entry.getCompressedSize(), -1) : new byte[0],
+                entry.getLocalFileDataExtra());
+
+        byte[] header = new byte[30];
+        ZipLong.putLong(ZipLong.LFH_SIG.getValue(), header, 0);
+        ZipShort.putShort(versionNeeded(entry, zip64, streamed), header, 4);
+        ZipShort.putShort(flags, header, 6);
+        ZipShort.putShort(entry.getMethod(), header, 8);
+        ZipUtil.toDosTime(entry.getTime() == -1 ? System.currentTimeMillis() : entry.getTime(), header, 10);
+        ZipLong.putLong(streamed ? 0 : entry.getCrc(), header, 14);
+        ZipLong.putLong(zip64 ? ZIP64_MAGIC : entry.getCompressedSize(), header, 18);
+        ZipLong.putLong(zip64 ? ZIP64_MAGIC : entry.getSize(), header, 22);
+        ZipShort.putShort(written.name.length, header, 26);
+        ZipShort.putShort(extra.length, header, 28);
+        writeRaw(header, 0, header.length);
+        writeRaw(written.name, 0, written.name.length);
+        writeRaw(extra, 0, extra.length);
+        entries.add(written);
+        return written;
+    }
+
+    private void writeCentralHeader(WrittenEntry written) throws IOException {
+        ZipArchiveEntry entry = written.entry;
+        boolean zip64 = written.zip64 || entry.getSize() >= ZIP64_MAGIC || entry.getCompressedSize() >= ZIP64_MAGIC
+                || written.offset >= ZIP64_MAGIC;
+        byte[] extra = concat(zip64 ? zip64Extra(entry.getSize(), entry.getCompressedSize(), written.offset) : new byte[0],
+                entry.getCentralDirectoryExtra());
+
+        byte[] header = new byte[46];
+        ZipLong.putLong(ZipLong.CFH_SIG.getValue(), header, 0);
+        ZipShort.putShort(entry.getPlatform() << 8 | VERSION_ZSTD, header, 4);
+        ZipShort.putShort(versionNeeded(entry, zip64, (written.flags & FLAG_DATA_DESCRIPTOR) != 0), header, 6);
+        ZipShort.putShort(written.flags, header, 8);
+        ZipShort.putShort(entry.getMethod(), header, 10);
+        ZipUtil.toDosTime(entry.getTime() == -1 ? System.currentTimeMillis() : entry.getTime(), header, 12);
+        ZipLong.putLong(entry.getCrc(), header, 16);
+        ZipLong.putLong(zip64 ? ZIP64_MAGIC : entry.getCompressedSize(), header, 20);
+        ZipLong.putLong(zip64 ? ZIP64_MAGIC : entry.getSize(), header, 24);
+        ZipShort.putShort(written.name.length, header, 28);
+        ZipShort.putShort(extra.length, header, 30);
+        ZipLong.putLong(entry.getExternalAttributes(), header, 38);
+        ZipLong.putLong(zip64 ? ZIP64_MAGIC : written.offset, header, 42);
+        writeRaw(header, 0, header.length);
+        writeRaw(written.name, 0, written.name.length);
+        writeRaw(extra, 0, extra.length);
+    }
+
+    private void writeZip64EndOfCentralDirectory(long centralDirectoryOffset, long centralDirectorySize) throws IOException {
+        long recordOffset = written;
+        byte[] record = new byte[12 + ZIP64_EOCD_LENGTH];
+        ZipLong.putLong(ZIP64_EOCD_SIG, record, 0);
+        putEightBytes(ZIP64_EOCD_LENGTH, record, 4);
+        ZipShort.putShort(VERSION_ZIP64, record, 12);
+        ZipShort.putShort(VERSION_ZIP64, record, 14);
+        putEightBytes(entries.size(), record, 24);
+        putEightBytes(entries.size(), record, 32);
+        putEightBytes(centralDirectorySize, record, 40);
+        putEightBytes(centralDirectoryOffset, record, 48);
+        writeRaw(record, 0, record.length);
+
+        byte[] locator = new byte[20];
+        ZipLong.putLong(ZIP64_EOCD_LOCATOR_SIG, locator, 0);
+        putEightBytes(recordOffset, locator, 8);
+        ZipLong.putLong(1, locator, 16);
+        writeRaw(locator, 0, locator.length);
+    }
+
+    private static int versionNeeded(ZipArchiveEntry entry, boolean zip64, boolean streamed) {
+        if (entry.getMethod() == ZipZstdSupport.ZSTD_METHOD) {
+            return VERSION_ZSTD;
+        }
+        if (zip64) {
+            return VERSION_ZIP64;
+        }
+        return entry.getMethod() == ZipEntry.DEFLATED || streamed || entry.isDirectory() ? VERSION_DEFLATED : VERSION_STORED;
+    }
+
+    /**
+     * @param offset local header offset, or -1 for a local header, which carries the sizes only
+     */
+    private static byte[] zip64Extra(long size, long compressedSize, long offset) {
+        byte[] extra = new byte[offset < 0 ? 20 : 28];
+        ZipShort.putShort(ZIP64_EXTRA_ID.getValue(), extra, 0);
+        ZipShort.putShort(extra.length - 4, extra, 2);
+        putEightBytes(size, extra, 4);
+        putEightBytes(compressedSize, extra, 12);
+        if (offset >= 0) {
+            putEightBytes(offset, extra, 20);
+        }
+        return extra;
+    }
+
+    /**
+     * Copies the entry without a zip64 field of its own, which is written here as needed.
+     */
+    private static ZipArchiveEntry copyOf(ZipArchiveEntry entry) {
+        ZipArchiveEntry copy = (ZipArchiveEntry) entry.clone();
+        if (copy.getExtraField(ZIP64_EXTRA_ID) != null) {
+            copy.removeExtraField(ZIP64_EXTRA_ID);
+        }
+        return copy;
+    }
+
+    private static void putEightBytes(long value, byte[] buffer, int offset) {
+        System.arraycopy(ZipEightByteInteger.getBytes(value), 0, buffer, offset, 8);
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(first.length + second.length);
+        bytes.write(first, 0, first.length);
+        bytes.write(second, 0, second.length);
+        return bytes.toByteArray();
+    }
+
+    private void writeRaw(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        written += len;
+    }
+
+    /**
+     * Target of the entry compressor; closing the compressor leaves the zip open.
+     */
+    private class EntryDataOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            writeRaw(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(@NotNull byte[] b, int off, int len) throws IOException {
+            writeRaw(b, off, len);
+        }
+    }
+}
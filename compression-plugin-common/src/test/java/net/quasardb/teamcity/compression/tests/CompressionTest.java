@@ -0,0 +1,95 @@
+package net.quasardb.teamcity.compression.tests;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdInputStream;
+import net.quasardb.teamcity.compression.config.ZstdProperties;
+import net.quasardb.teamcity.compression.frame.ZstdFrameHeader;
+import net.quasardb.teamcity.compression.frame.ZstdFrameScanner;
+import net.quasardb.teamcity.compression.parallel.ParallelZstdInputStream;
+import net.quasardb.teamcity.compression.seekable.SeekableZstdChannel;
+import net.quasardb.teamcity.compression.utils.ZstdCompressionUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompressionTest extends BaseCompressionTest {
+
+    @Test
+    public void testMultiWorkerCompressionRoundTrip() throws IOException {
+        byte[] content = new byte[8 * 1024 * 1024];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i % 251 ^ i >>> 16);
+        }
+        File archive = new File(TMP_ROOT, "workers.bin.zst");
+        try (OutputStream out = ZstdCompressionUtils.newCompressingStream(Files.newOutputStream(archive.toPath()), 3, 2)) {
+            out.write(content);
+        }
+
+        assertTrue(archive.length() < content.length);
+        assertTrue(SeekableZstdChannel.isSeekable(archive));
+        try (InputStream in = new ZstdInputStream(Files.newInputStream(archive.toPath()))) {
+            assertArrayEquals(content, IOUtils.toByteArray(in));
+        }
+        System.setProperty(ZstdProperties.DECOMPRESS_THREADS, "4");
+        try (InputStream in = ParallelZstdInputStream.open(archive)) {
+            assertNotNull(in);
+            assertArrayEquals(content, IOUtils.toByteArray(in));
+        } finally {
+            System.clearProperty(ZstdProperties.DECOMPRESS_THREADS);
+        }
+    }
+
+    @Test
+    public void testMultiWorkerCompressionWithWindowLog() throws IOException {
+        byte[] content = new byte[3 * 1024 * 1024];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i % 509);
+        }
+        File archive = new File(TMP_ROOT, "workers_window.bin.zst");
+        System.setProperty(ZstdProperties.COMPRESSION_WINDOW_LOG, "24");
+        try (OutputStream out = ZstdCompressionUtils.newCompressingStream(Files.newOutputStream(archive.toPath()), 3, 2)) {
+            out.write(content);
+        } finally {
+            System.clearProperty(ZstdProperties.COMPRESSION_WINDOW_LOG);
+        }
+
+        assertTrue(SeekableZstdChannel.isSeekable(archive));
+        try (InputStream in = new ZstdInputStream(Files.newInputStream(archive.toPath()))) {
+            assertArrayEquals(content, IOUtils.toByteArray(in));
+        }
+    }
+
+    @Test
+    public void testContentSizeWalkIsBounded() throws IOException {
+        byte[] frame = Zstd.compress("content of one frame".getBytes(StandardCharsets.UTF_8), 3);
+        File fewFrames = new File(TMP_ROOT, "few_frames.zst");
+        File manyFrames = new File(TMP_ROOT, "many_frames.zst");
+        try (OutputStream few = Files.newOutputStream(fewFrames.toPath());
+             OutputStream many = Files.newOutputStream(manyFrames.toPath())) {
+            for (int i = 0; i < 10_000; i++) {
+                if (i < 10) {
+                    few.write(frame);
+                }
+                many.write(frame);
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(fewFrames.toPath(), StandardOpenOption.READ)) {
+            assertEquals(10 * 20, ZstdFrameScanner.getContentSize(channel));
+        }
+        try (FileChannel channel = FileChannel.open(manyFrames.toPath(), StandardOpenOption.READ)) {
+            assertEquals(ZstdFrameHeader.UNKNOWN_CONTENT_SIZE, ZstdFrameScanner.getContentSize(channel));
+            assertEquals(10_000, ZstdFrameScanner.scan(channel, Long.MAX_VALUE).size());
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package net.quasardb.teamcity.compression.tests;
+
+import net.quasardb.teamcity.compression.cache.DecompressedCache;
+import net.quasardb.teamcity.compression.cache.impl.LruDecompressedCache;
+import net.quasardb.teamcity.compression.tests.impl.ZstdTestArchiveExtractor;
+import net.quasardb.teamcity.compression.tests.impl.ZstdTestArchiveFileSelector;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static net.quasardb.teamcity.compression.tests.Utils.mapOf;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DecompressedCacheTest extends BaseCompressionTest {
+
+    @Test
+    public void testRepeatedExtractionUsesCachedPayload() throws IOException {
+        File cacheDir = new File(TMP_ROOT, "cache");
+        DecompressedCache cache = new LruDecompressedCache(cacheDir, 1024 * 1024);
+        ZstdTestArchiveExtractor extractor = new ZstdTestArchiveExtractor() {
+            @Override
+            public DecompressedCache getDecompressedCache() {
+                return cache;
+            }
+        };
+        File zstFile = new File(TMP_ROOT, "test_folder.tar.zst");
+        File copy = new File(TMP_ROOT, "copy_of_test_folder.tar.zst");
+        Files.copy(zstFile.toPath(), copy.toPath());
+        assertEquals(cache.computeKey(zstFile), cache.computeKey(copy), "key must depend on the content only");
+
+        for (String target : new String[]{"cached1", "cached2"}) {
+            extractor.extractFiles(target.equals("cached1") ? zstFile : copy, new ZstdTestArchiveFileSelector(
+                    new File("."),
+                    mapOf(new Utils.KeyValuePair("test_folder/test_file_1.txt", TMP_ROOT.getAbsolutePath() + "/" + target + "/test_file_1.txt"))
+            ));
+            assertTrue(new File(TMP_ROOT, target + "/test_file_1.txt").exists());
+        }
+        String[] payloads = cacheDir.list();
+        assertNotNull(payloads);
+        assertEquals(1, payloads.length);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedPayloadIsEvicted() throws IOException {
+        DecompressedCache cache = new LruDecompressedCache(new File(TMP_ROOT, "lru_cache"), 250);
+        cache.store("a", new ByteArrayInputStream(new byte[100])).close();
+        cache.store("b", new ByteArrayInputStream(new byte[100])).close();
+        cache.acquire("a").close();
+        cache.store("c", new ByteArrayInputStream(new byte[100])).close();
+
+        assertNull(cache.acquire("b"));
+        DecompressedCache.Lease a = cache.acquire("a");
+        assertNotNull(a);
+        a.close();
+        assertNull(cache.store("d", new ByteArrayInputStream(new byte[300])), "payload above the budget must not be cached");
+    }
+}
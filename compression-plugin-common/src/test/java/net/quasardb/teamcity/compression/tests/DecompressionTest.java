@@ -2,13 +2,22 @@ package net.quasardb.teamcity.compression.tests;
 
 import net.quasardb.teamcity.compression.tests.impl.ZstdTestArchiveExtractor;
 import net.quasardb.teamcity.compression.tests.impl.ZstdTestArchiveFileSelector;
+import net.quasardb.teamcity.compression.utils.ZstdCompressionUtils;
 import org.junit.jupiter.api.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 
 import static net.quasardb.teamcity.compression.tests.Utils.mapOf;
-import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.*;
 
 public class DecompressionTest extends BaseCompressionTest {
 
@@ -35,6 +44,33 @@ public class DecompressionTest extends BaseCompressionTest {
         assertTrue(new File(TMP_ROOT.getAbsolutePath()+"/tar_folder2/test_file_2.txt").exists());
     }
 
+    @Test
+    public void testTarStreamingDecompression() throws IOException {
+        Set<String> stagedBefore = listStagedFiles();
+        ZstdTestArchiveExtractor extractor = new ZstdTestArchiveExtractor();
+        File zstFile = new File(TMP_ROOT.getAbsolutePath()+"/test_folder.tar.zst");
+        extractor.extractFiles(zstFile, new ZstdTestArchiveFileSelector(
+                new File("."),
+                mapOf(
+                        new Utils.KeyValuePair("test_folder/test_subfolder/test_file_3.txt", TMP_ROOT.getAbsolutePath()+"/tar_stream/test_file_3.txt")
+                )
+        ));
+        File extracted = new File(TMP_ROOT.getAbsolutePath()+"/tar_stream/test_file_3.txt");
+        assertTrue(extracted.exists());
+        assertArrayEquals(
+                Files.readAllBytes(new File(TMP_ROOT.getAbsolutePath()+"/test_folder/test_subfolder/test_file_3.txt").toPath()),
+                Files.readAllBytes(extracted.toPath()));
+        Set<String> stagedFiles = listStagedFiles();
+        stagedFiles.removeAll(stagedBefore);
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (!stagedFiles.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.yield();
+            stagedFiles = listStagedFiles();
+            stagedFiles.removeAll(stagedBefore);
+        }
+        assertEquals(Collections.emptySet(), stagedFiles, "copy of the streamed tar payload must be removed after extraction");
+    }
+
     @Test
     public void testZipDecompression() throws IOException {
         ZstdTestArchiveExtractor extractor = new ZstdTestArchiveExtractor();
@@ -61,4 +97,62 @@ public class DecompressionTest extends BaseCompressionTest {
                         new Utils.KeyValuePair("test_file.txt", TMP_ROOT.getAbsolutePath()+"/expected_new_folder/")
                 )));
     }
+
+    @Test
+    public void testRawFileIsWrittenToDestination() throws IOException {
+        Set<String> stagedBefore = listStagedFiles();
+        ZstdTestArchiveExtractor extractor = new ZstdTestArchiveExtractor();
+        File zstFile = new File(TMP_ROOT.getAbsolutePath()+"/test_file.txt.zst");
+        File destinationFolder = new File(TMP_ROOT.getAbsolutePath()+"/raw_folder");
+        extractor.extractFiles(zstFile, new ZstdTestArchiveFileSelector(
+                new File("."),
+                mapOf(
+                        new Utils.KeyValuePair("test_file.txt", destinationFolder.getAbsolutePath()+"/test_file.txt")
+                )));
+        assertArrayEquals(
+                Files.readAllBytes(new File(TMP_ROOT.getAbsolutePath()+"/test_file.txt").toPath()),
+                Files.readAllBytes(new File(destinationFolder, "test_file.txt").toPath()));
+        String[] folderFiles = destinationFolder.list();
+        assertNotNull(folderFiles);
+        assertEquals(1, folderFiles.length, "partial file must be moved into place");
+        Set<String> stagedFiles = listStagedFiles();
+        stagedFiles.removeAll(stagedBefore);
+        assertEquals(Collections.emptySet(), stagedFiles, "single file payload must not be staged");
+    }
+
+    @Test
+    public void testCompressedPayloadIsSingleFile() throws IOException {
+        ZstdTestArchiveExtractor extractor = new ZstdTestArchiveExtractor();
+        File gzipFile = new File(TMP_ROOT, "payload.txt.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(gzipFile.toPath()))) {
+            out.write(Files.readAllBytes(new File(TMP_ROOT, "test_file.txt").toPath()));
+        }
+        File zstFile = new File(TMP_ROOT, "payload.txt.gz.zst");
+        ZstdCompressionUtils.compress(gzipFile, zstFile, 3, 0);
+        File destination = new File(TMP_ROOT, "gzip_payload/payload.txt.gz");
+        extractor.extractFiles(zstFile, new ZstdTestArchiveFileSelector(
+                new File("."),
+                mapOf(new Utils.KeyValuePair("payload.txt.gz", destination.getAbsolutePath()))));
+        assertArrayEquals(Files.readAllBytes(gzipFile.toPath()), Files.readAllBytes(destination.toPath()));
+    }
+
+    /**
+     * Staged files of earlier tests may still exist, since they are deleted asynchronously.
+     */
+    @Test
+    public void testExtractionFailureKeepsCause() throws IOException {
+        File corrupt = new File(TMP_ROOT, "corrupt.tar.zst");
+        byte[] archive = Files.readAllBytes(new File(TMP_ROOT, "test_folder.tar.zst").toPath());
+        Files.write(corrupt.toPath(), Arrays.copyOf(archive, archive.length / 2));
+        ZstdTestArchiveFileSelector selector = new ZstdTestArchiveFileSelector(new File("."), mapOf());
+
+        IOException failure = assertThrows(IOException.class, () -> new ZstdTestArchiveExtractor().extractFiles(corrupt, selector));
+        assertNotNull(failure.getCause());
+    }
+
+    private static Set<String> listStagedFiles() {
+        String[] names = TMP_ROOT.list((dir, name) -> name.startsWith("zstd_temp_"));
+        assertNotNull(names);
+        return new HashSet<>(Arrays.asList(names));
+    }
 }
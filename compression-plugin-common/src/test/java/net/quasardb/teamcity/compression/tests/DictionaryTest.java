@@ -0,0 +1,108 @@
+package net.quasardb.teamcity.compression.tests;
+
+import com.github.luben.zstd.Zstd;
+import net.quasardb.teamcity.compression.dictionary.DictionaryRegistry;
+import net.quasardb.teamcity.compression.dictionary.impl.FileDictionaryRegistry;
+import net.quasardb.teamcity.compression.frame.ZstdFrameHeader;
+import net.quasardb.teamcity.compression.tests.impl.ZstdTestArchiveExtractor;
+import net.quasardb.teamcity.compression.utils.ZstdCompressionUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DictionaryTest extends BaseCompressionTest {
+
+    private static byte[] report(Random random) {
+        StringBuilder report = new StringBuilder("{\"build\":{\"id\":" + random.nextInt(100000) + ",\"status\":\"SUCCESS\",\"tests\":[");
+        for (int i = 0; i < 10; i++) {
+            report.append("{\"name\":\"net.quasardb.teamcity.compression.tests.Test").append(random.nextInt(50))
+                    .append("\",\"duration\":").append(random.nextInt(1000)).append(",\"status\":\"passed\"},");
+        }
+        return report.append("]}}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static long trainDictionary(DictionaryRegistry registry, Random random, String samplesName) throws IOException {
+        File samplesDir = new File(TMP_ROOT, samplesName);
+        assertTrue(samplesDir.mkdirs());
+        List<File> samples = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            File sample = new File(samplesDir, "report_" + i + ".json");
+            Files.write(sample.toPath(), report(random));
+            samples.add(sample);
+        }
+        return registry.train(samples, 16 * 1024);
+    }
+
+    @Test
+    public void testDictionaryIsSelectedFromFrameHeader() throws IOException {
+        Random random = new Random(42);
+        DictionaryRegistry registry = new FileDictionaryRegistry(new File(TMP_ROOT, "dictionaries"));
+        long dictionaryId = trainDictionary(registry, random, "dictionary_samples");
+        assertTrue(registry.getDictionaryIds().contains(dictionaryId));
+
+        File report = new File(TMP_ROOT, "report.json");
+        Files.write(report.toPath(), report(random));
+        File compressed = new File(TMP_ROOT, "report.json.zst");
+        ZstdCompressionUtils.compress(report, compressed, registry.getCompressDictionary(dictionaryId, 3));
+        assertTrue(compressed.length() < Zstd.compress(Files.readAllBytes(report.toPath()), 3).length, "dictionary must improve the ratio");
+
+        ZstdTestArchiveExtractor extractor = new ZstdTestArchiveExtractor() {
+            @Override
+            public DictionaryRegistry getDictionaryRegistry() {
+                return registry;
+            }
+        };
+        try (InputStream in = extractor.openDecompressedStream(compressed)) {
+            assertArrayEquals(Files.readAllBytes(report.toPath()), IOUtils.toByteArray(in));
+        }
+
+        ZstdTestArchiveExtractor withoutDictionaries = new ZstdTestArchiveExtractor() {
+            @Override
+            public DictionaryRegistry getDictionaryRegistry() {
+                return new FileDictionaryRegistry(new File(TMP_ROOT, "no_dictionaries"));
+            }
+        };
+        assertThrows(IOException.class, () -> withoutDictionaries.openDecompressedStream(compressed).close());
+    }
+
+    @Test
+    public void testCompressingStreamUsesDictionary() throws IOException {
+        Random random = new Random(7);
+        DictionaryRegistry registry = new FileDictionaryRegistry(new File(TMP_ROOT, "dictionaries"));
+        long dictionaryId = trainDictionary(registry, random, "stream_dictionary_samples");
+        byte[] report = report(random);
+        ZstdTestArchiveExtractor extractor = new ZstdTestArchiveExtractor() {
+            @Override
+            public DictionaryRegistry getDictionaryRegistry() {
+                return registry;
+            }
+        };
+
+        for (int workers : new int[]{1, 2}) {
+            File compressed = new File(TMP_ROOT, "report_" + workers + ".json.zst");
+            try (OutputStream out = ZstdCompressionUtils.newCompressingStream(Files.newOutputStream(compressed.toPath()), 3, workers,
+                    registry.getCompressDictionary(dictionaryId, 3))) {
+                out.write(report);
+            }
+            try (InputStream in = Files.newInputStream(compressed.toPath())) {
+                ZstdFrameHeader header = extractor.readFrameHeader(in);
+                assertNotNull(header);
+                assertEquals(dictionaryId, header.getDictId(), "frames must record the dictionary with " + workers + " workers");
+            }
+            try (InputStream in = extractor.openDecompressedStream(compressed)) {
+                assertArrayEquals(report, IOUtils.toByteArray(in));
+            }
+        }
+    }
+}
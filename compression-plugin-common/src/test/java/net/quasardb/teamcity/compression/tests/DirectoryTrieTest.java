@@ -0,0 +1,83 @@
+package net.quasardb.teamcity.compression.tests;
+
+import net.quasardb.teamcity.compression.index.DirectoryTrie;
+import net.quasardb.teamcity.compression.index.DirectoryTrieCache;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DirectoryTrieTest {
+
+    @Test
+    public void testFoldersAreListedInArchiveOrder() {
+        DirectoryTrie trie = DirectoryTrie.builder()
+                .add("b.txt", 3, 100, false)
+                .add("a/", 0, 200, true)
+                .add("a/z.txt", 5, 300, false)
+                .add("a//y\\x.txt", 7, 400, false)
+                .add("/c/d/e.txt", 9, 500, false)
+                .build();
+
+        assertEquals("b.txt,a,c", names(trie.list("")));
+        assertEquals("z.txt,y", names(trie.list("/a/")));
+        assertEquals("x.txt", names(trie.list("a/y")));
+        assertNull(trie.list("missing"));
+        assertNull(trie.list("b"));
+
+        DirectoryTrie.Node explicitFolder = trie.find("a");
+        assertTrue(explicitFolder.isDirectory());
+        assertEquals(200, explicitFolder.getTimestamp());
+        DirectoryTrie.Node implicitFolder = trie.find("c");
+        assertTrue(implicitFolder.isDirectory());
+        assertEquals(DirectoryTrie.SIZE_UNKNOWN, implicitFolder.getSize());
+        DirectoryTrie.Node file = trie.find("c/d/e.txt");
+        assertFalse(file.isDirectory());
+        assertEquals(9, file.getSize());
+        assertEquals(9, trie.getNodeCount());
+    }
+
+    @Test
+    public void testLargeFoldersAndSharedSegments() {
+        DirectoryTrie.Builder builder = DirectoryTrie.builder();
+        for (int i = 0; i < 1000; i++) {
+            builder.add("dir" + i + "/build.log", i, 0, false);
+        }
+        DirectoryTrie trie = builder.build();
+        assertThrows(IllegalStateException.class, () -> builder.add("late.txt", 0, 0, false));
+        assertEquals(1000, trie.list("").size());
+        assertEquals(500, trie.find("dir500/build.log").getSize());
+        assertSame(trie.find("dir1/build.log").getName(), trie.find("dir2/build.log").getName());
+    }
+
+    @Test
+    public void testCacheEvictsLeastRecentlyUsedAboveNodeBudget() {
+        DirectoryTrieCache cache = new DirectoryTrieCache(10);
+        cache.put("first", trieOf(4));
+        cache.put("second", trieOf(4));
+        assertNotNull(cache.get("first"));
+        cache.put("third", trieOf(4));
+
+        assertNotNull(cache.get("first"));
+        assertNull(cache.get("second"));
+        assertNotNull(cache.get("third"));
+
+        cache.put("too_large", trieOf(20));
+        assertNull(cache.get("too_large"));
+        assertEquals(2, cache.size());
+    }
+
+    private static DirectoryTrie trieOf(int nodes) {
+        DirectoryTrie.Builder builder = DirectoryTrie.builder();
+        for (int i = 1; i < nodes; i++) {
+            builder.add("file" + i, i, 0, false);
+        }
+        return builder.build();
+    }
+
+    private static String names(List<DirectoryTrie.Node> nodes) {
+        return nodes.stream().map(DirectoryTrie.Node::getName).collect(Collectors.joining(","));
+    }
+}
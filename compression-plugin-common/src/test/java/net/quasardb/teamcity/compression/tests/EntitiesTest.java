@@ -1,11 +1,14 @@
 package net.quasardb.teamcity.compression.tests;
 
+import net.quasardb.teamcity.compression.index.EntryIndex;
+import net.quasardb.teamcity.compression.index.EntryIndexStore;
 import net.quasardb.teamcity.compression.tests.impl.ZstdTestArchiveExtractor;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -39,6 +42,54 @@ public class EntitiesTest extends BaseCompressionTest {
         assertFalse(sizes.isEmpty());
     }
 
+    @Test
+    public void testEntryIndexIsPersisted() throws IOException {
+        ZstdTestArchiveExtractor extractor = new ZstdTestArchiveExtractor();
+        File zstFile = new File(TMP_ROOT.getAbsolutePath()+"/test_folder.tar.zst");
+        EntryIndexStore store = new EntryIndexStore(new File(TMP_ROOT, "index"), 10);
+        EntryIndex built = store.getOrBuild(zstFile, extractor::buildEntryIndex);
+        assertNotNull(built);
+
+        EntryIndex persisted = store.getOrBuild(zstFile, archive -> {
+            throw new AssertionError("payload must not be scanned again");
+        });
+        assertEquals(built.getSizes(), persisted.getSizes());
+        assertEquals(built.getPermissions(), persisted.getPermissions());
+        assertTrue(persisted.getSizes().containsKey("test_folder/test_file_1.txt"));
+
+        assertTrue(zstFile.setLastModified(zstFile.lastModified() + 10_000));
+        assertNotNull(store.getOrBuild(zstFile, extractor::buildEntryIndex), "modified archive must be indexed again");
+    }
+
+    @Test
+    public void testEntryIndexMapViews() throws IOException {
+        EntryIndex index = new EntryIndex();
+        Map<String, Long> expectedSizes = new LinkedHashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            String name = "build/output/module_" + (i / 10) + "/file_" + i + ".txt";
+            index.add(name, i, 0100644, EntryIndex.UNKNOWN_OFFSET);
+            expectedSizes.put(name, (long) i);
+        }
+        index.add("build/output/module_0/file_0.txt", 4242, 0100755, EntryIndex.UNKNOWN_OFFSET);
+        expectedSizes.put("build/output/module_0/file_0.txt", 4242L);
+
+        Map<String, Long> sizes = index.getSizes();
+        assertEquals(expectedSizes, sizes);
+        assertEquals(1000, sizes.size());
+        assertEquals(Long.valueOf(4242), sizes.get("build/output/module_0/file_0.txt"));
+        assertEquals(Long.valueOf(999), sizes.get("build/output/module_99/file_999.txt"));
+        assertNull(sizes.get("build/output/module_99"));
+        assertEquals(Integer.valueOf(0100755), index.getPermissions().get("build/output/module_0/file_0.txt"));
+        assertEquals("build/output/module_57/file_573.txt", index.getEntries().get(573).getName());
+
+        File indexFile = new File(TMP_ROOT, "map_views.idx");
+        index.write(indexFile, 1, 2);
+        EntryIndex persisted = EntryIndex.read(indexFile, 1, 2);
+        assertNotNull(persisted);
+        assertEquals(sizes, persisted.getSizes());
+        assertEquals(index.getPermissions(), persisted.getPermissions());
+    }
+
     @Test
     @Disabled
     public void testEntitiesUnixPermissionsRawFile() throws IOException {
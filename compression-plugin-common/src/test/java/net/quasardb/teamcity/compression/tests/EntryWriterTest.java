@@ -0,0 +1,185 @@
+package net.quasardb.teamcity.compression.tests;
+
+import net.quasardb.teamcity.compression.extract.EntryWriter;
+import net.quasardb.teamcity.compression.extract.impl.ParallelEntryWriter;
+import net.quasardb.teamcity.compression.extract.impl.SequentialEntryWriter;
+import net.quasardb.teamcity.compression.tests.impl.ZstdTestArchiveFileSelector;
+import net.quasardb.teamcity.compression.utils.ArchiveStreamUtils;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EntryWriterTest extends BaseCompressionTest {
+
+    @Test
+    public void testParallelWriterKeepsArchiveSemantics() throws IOException {
+        File root = new File(TMP_ROOT, "parallel_writer");
+        byte[] first = "first".getBytes(StandardCharsets.UTF_8);
+        byte[] second = "second".getBytes(StandardCharsets.UTF_8);
+        // entries of a sequential archive stream follow each other in the same stream
+        InputStream archiveStream = new SequenceInputStream(new ByteArrayInputStream(first), new ByteArrayInputStream(second));
+
+        try (EntryWriter writer = new ParallelEntryWriter(4, 1024)) {
+            writer.writeDirectory(new File(root, "dir"));
+            writer.writeSymbolicLink("dir/file.txt", new File(root, "link.txt"));
+            writer.writeFile(archiveStream, first.length, 0644, EntryWriter.UNKNOWN_TIME, new File(root, "dir/file.txt"));
+            writer.writeFile(archiveStream, second.length, 0755, EntryWriter.UNKNOWN_TIME, new File(root, "dir/file.txt"));
+            for (int i = 0; i < 100; i++) {
+                byte[] content = ("content " + i).getBytes(StandardCharsets.UTF_8);
+                writer.writeFile(() -> new ByteArrayInputStream(content), content.length, EntryWriter.UNKNOWN_MODE, EntryWriter.UNKNOWN_TIME, new File(root, "many/" + i + ".txt"));
+            }
+            writer.finish();
+        }
+
+        File file = new File(root, "dir/file.txt");
+        assertEquals("second", new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        assertTrue(file.canExecute());
+        assertTrue(Files.isSymbolicLink(new File(root, "link.txt").toPath()));
+        for (int i = 0; i < 100; i++) {
+            assertEquals("content " + i, new String(Files.readAllBytes(new File(root, "many/" + i + ".txt").toPath()), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testParallelWriterUsesGivenThreads() throws IOException {
+        File root = new File(TMP_ROOT, "parallel_writer_threads");
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        try (EntryWriter writer = new ParallelEntryWriter(2, 1024)) {
+            for (int i = 0; i < 50; i++) {
+                writer.writeFile(() -> {
+                    threads.add(Thread.currentThread().getName());
+                    return new ByteArrayInputStream(new byte[1]);
+                }, 1, EntryWriter.UNKNOWN_MODE, EntryWriter.UNKNOWN_TIME, new File(root, i + ".bin"));
+            }
+            writer.finish();
+        }
+        assertFalse(threads.isEmpty());
+        assertTrue(threads.size() <= 2, "writes ran on " + threads);
+    }
+
+    @Test
+    public void testParallelWriterKeepsLinkOrder() throws IOException {
+        File root = new File(TMP_ROOT, "parallel_writer_links");
+        byte[] content = "content".getBytes(StandardCharsets.UTF_8);
+        try (EntryWriter writer = new ParallelEntryWriter(4, 1024)) {
+            writer.writeFile(new ByteArrayInputStream(content), content.length, EntryWriter.UNKNOWN_MODE, EntryWriter.UNKNOWN_TIME, new File(root, "target.txt"));
+            writer.writeSymbolicLink("target.txt", new File(root, "link_then_file"));
+            writer.writeFile(new ByteArrayInputStream(content), content.length, EntryWriter.UNKNOWN_MODE, EntryWriter.UNKNOWN_TIME, new File(root, "link_then_file"));
+            writer.writeFile(new ByteArrayInputStream(content), content.length, EntryWriter.UNKNOWN_MODE, EntryWriter.UNKNOWN_TIME, new File(root, "file_then_link"));
+            writer.writeSymbolicLink("target.txt", new File(root, "file_then_link"));
+            writer.finish();
+        }
+        assertFalse(Files.isSymbolicLink(new File(root, "link_then_file").toPath()));
+        assertEquals("content", new String(Files.readAllBytes(new File(root, "link_then_file").toPath()), StandardCharsets.UTF_8));
+        assertTrue(Files.isSymbolicLink(new File(root, "file_then_link").toPath()));
+    }
+
+    @Test
+    public void testParallelWriterCloseWaitsForWrites() throws Exception {
+        File root = new File(TMP_ROOT, "parallel_writer_close");
+        byte[] content = new byte[64 * 1024];
+        CountDownLatch started = new CountDownLatch(1);
+        try (EntryWriter writer = new ParallelEntryWriter(2, 1024)) {
+            writer.writeFile(() -> {
+                started.countDown();
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return new ByteArrayInputStream(content);
+            }, content.length, EntryWriter.UNKNOWN_MODE, EntryWriter.UNKNOWN_TIME, new File(root, "slow.bin"));
+            started.await();
+        }
+        assertEquals(content.length, new File(root, "slow.bin").length());
+    }
+
+    @Test
+    public void testParallelWriterForgetsCompletedWrites() throws Exception {
+        File root = new File(TMP_ROOT, "parallel_writer_completed");
+        try (ParallelEntryWriter writer = new ParallelEntryWriter(2, 1024 * 1024)) {
+            for (int i = 0; i < 500; i++) {
+                byte[] content = ("entry " + i).getBytes(StandardCharsets.UTF_8);
+                writer.writeFile(new ByteArrayInputStream(content), content.length, EntryWriter.UNKNOWN_MODE, EntryWriter.UNKNOWN_TIME, new File(root, "file_" + i + ".txt"));
+            }
+            for (int i = 0; i < 500 && writer.getPendingWriteCount() > 0; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, writer.getPendingWriteCount());
+            writer.finish();
+        }
+        assertEquals(500, root.list().length);
+    }
+
+    @Test
+    public void testTarLinksStayInsideTargetDirectory() throws IOException {
+        File root = new File(TMP_ROOT, "tar_links");
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream out = new TarArchiveOutputStream(tar)) {
+            byte[] content = "content".getBytes(StandardCharsets.UTF_8);
+            TarArchiveEntry file = new TarArchiveEntry("dir/file.txt");
+            file.setSize(content.length);
+            out.putArchiveEntry(file);
+            out.write(content);
+            out.closeArchiveEntry();
+            addLink(out, "dir/hard.txt", "dir/file.txt", TarArchiveEntry.LF_LINK);
+            addLink(out, "dir/inside", "file.txt", TarArchiveEntry.LF_SYMLINK);
+            addLink(out, "dir/relative", "../../outside", TarArchiveEntry.LF_SYMLINK);
+            addLink(out, "dir/absolute", TMP_ROOT.getAbsolutePath(), TarArchiveEntry.LF_SYMLINK);
+        }
+        Map<String, String> destinations = new HashMap<>();
+        for (String name : new String[]{"dir/file.txt", "dir/hard.txt", "dir/inside", "dir/relative", "dir/absolute"}) {
+            destinations.put(name, new File(root, name).getAbsolutePath());
+        }
+
+        try (EntryWriter writer = new SequentialEntryWriter()) {
+            ArchiveStreamUtils.extractTarStream(new ByteArrayInputStream(tar.toByteArray()), new ZstdTestArchiveFileSelector(root, destinations), writer);
+        }
+
+        assertEquals("content", new String(Files.readAllBytes(new File(root, "dir/hard.txt").toPath()), StandardCharsets.UTF_8));
+        assertFalse(Files.isSymbolicLink(new File(root, "dir/hard.txt").toPath()));
+        assertTrue(Files.isSymbolicLink(new File(root, "dir/inside").toPath()));
+        assertFalse(Files.exists(new File(root, "dir/relative").toPath(), LinkOption.NOFOLLOW_LINKS));
+        assertFalse(Files.exists(new File(root, "dir/absolute").toPath(), LinkOption.NOFOLLOW_LINKS));
+    }
+
+    @Test
+    public void testTarHardLinkToSkippedEntryFails() throws IOException {
+        File root = new File(TMP_ROOT, "tar_hard_link");
+        ByteArrayOutputStream tar = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream out = new TarArchiveOutputStream(tar)) {
+            addLink(out, "hard.txt", "missing.txt", TarArchiveEntry.LF_LINK);
+        }
+        Map<String, String> destinations = new HashMap<>();
+        destinations.put("hard.txt", new File(root, "hard.txt").getAbsolutePath());
+
+        try (EntryWriter writer = new SequentialEntryWriter()) {
+            assertThrows(IOException.class, () -> ArchiveStreamUtils.extractTarStream(
+                    new ByteArrayInputStream(tar.toByteArray()), new ZstdTestArchiveFileSelector(root, destinations), writer));
+        }
+    }
+
+    private static void addLink(TarArchiveOutputStream out, String name, String target, byte type) throws IOException {
+        TarArchiveEntry link = new TarArchiveEntry(name, type);
+        link.setLinkName(target);
+        out.putArchiveEntry(link);
+        out.closeArchiveEntry();
+    }
+}
@@ -0,0 +1,102 @@
+package net.quasardb.teamcity.compression.tests;
+
+import com.github.luben.zstd.Zstd;
+import jetbrains.buildServer.util.ArchiveExtractor;
+import net.quasardb.teamcity.compression.detect.ArchiveFormat;
+import net.quasardb.teamcity.compression.detect.ArchiveFormatDetector;
+import net.quasardb.teamcity.compression.detect.ArchiveTypeDispatcher;
+import net.quasardb.teamcity.compression.tests.impl.ZstdTestArchiveExtractor;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FormatDetectionTest extends BaseCompressionTest {
+
+    @Test
+    public void testFormatsAreDetectedFromHeader() throws IOException {
+        assertEquals(ArchiveFormat.ZSTD, ArchiveFormatDetector.detect(new File(TMP_ROOT, "test_folder.tar.zst")));
+        assertEquals(ArchiveFormat.UNKNOWN, ArchiveFormatDetector.detect(new File(TMP_ROOT, "test_file.txt")));
+
+        File tar = new File(TMP_ROOT, "detect.tar");
+        Files.write(tar.toPath(), Zstd.decompress(Files.readAllBytes(new File(TMP_ROOT, "test_folder.tar.zst").toPath()), 1024 * 1024));
+        assertEquals(ArchiveFormat.TAR, ArchiveFormatDetector.detect(tar));
+        File zip = new File(TMP_ROOT, "detect.zip");
+        Files.write(zip.toPath(), Zstd.decompress(Files.readAllBytes(new File(TMP_ROOT, "test_folder.zip.zst").toPath()), 1024 * 1024));
+        assertEquals(ArchiveFormat.ZIP, ArchiveFormatDetector.detect(zip));
+    }
+
+    @Test
+    public void testExtractorIsDispatchedWithoutProbing() {
+        AtomicInteger probes = new AtomicInteger();
+        ZstdTestArchiveExtractor zstdExtractor = new ZstdTestArchiveExtractor() {
+            @Override
+            public boolean isSupported(File archive) {
+                probes.incrementAndGet();
+                return super.isSupported(archive);
+            }
+        };
+        List<ArchiveExtractor> extractors = Collections.singletonList(zstdExtractor);
+        ArchiveTypeDispatcher dispatcher = ArchiveTypeDispatcher.forOwner(new Object());
+
+        assertSame(zstdExtractor, dispatcher.getExtractor(new File(TMP_ROOT, "test_folder.tar.zst"), extractors, ArchiveFormat.ZSTD));
+        assertSame(zstdExtractor, dispatcher.getExtractor(new File(TMP_ROOT, "test_folder.zip.zst"), extractors, ArchiveFormat.ZSTD));
+        assertEquals(1, probes.get(), "second archive of the same format must not probe extractors");
+    }
+
+    @Test
+    public void testDispatchDependsOnExtensionAndSkipsMisses() {
+        AtomicInteger probes = new AtomicInteger();
+        ArchiveExtractor zipExtractor = new ZstdTestArchiveExtractor() {
+            @Override
+            public boolean isSupported(File archive) {
+                probes.incrementAndGet();
+                return archive.getName().endsWith(".zip");
+            }
+        };
+        List<ArchiveExtractor> extractors = Collections.singletonList(zipExtractor);
+        ArchiveTypeDispatcher dispatcher = ArchiveTypeDispatcher.forOwner(new Object());
+
+        assertSame(zipExtractor, dispatcher.getExtractor(new File(TMP_ROOT, "first.zip"), extractors, ArchiveFormat.ZIP));
+        assertNull(dispatcher.getExtractor(new File(TMP_ROOT, "library.jar"), extractors, ArchiveFormat.ZIP));
+        assertNull(dispatcher.getExtractor(new File(TMP_ROOT, "library.jar"), extractors, ArchiveFormat.ZIP));
+        assertSame(zipExtractor, dispatcher.getExtractor(new File(TMP_ROOT, "second.zip"), extractors, ArchiveFormat.ZIP));
+        assertEquals(3, probes.get(), "files without an extractor must be probed every time");
+    }
+
+    @Test
+    public void testStagedPayloadsAreDispatchedByArchiveName() {
+        AtomicInteger probes = new AtomicInteger();
+        ArchiveExtractor tarExtractor = new ZstdTestArchiveExtractor() {
+            @Override
+            public boolean isSupported(File archive) {
+                probes.incrementAndGet();
+                return true;
+            }
+        };
+        List<ArchiveExtractor> extractors = Collections.singletonList(tarExtractor);
+        ArchiveTypeDispatcher dispatcher = ArchiveTypeDispatcher.forOwner(new Object());
+
+        for (int i = 0; i < 1000; i++) {
+            File staged = new File(TMP_ROOT, "zstd_temp_" + i + "_decompressed");
+            assertSame(tarExtractor, dispatcher.getExtractor(staged, "artifact.tar", extractors, ArchiveFormat.TAR));
+        }
+        assertEquals(1, probes.get(), "staged payloads of one archive extension must share a dispatch");
+        assertEquals(1, dispatcher.size());
+
+        for (int i = 0; i < 1000; i++) {
+            dispatcher.getExtractor(new File(TMP_ROOT, "file." + i), extractors, ArchiveFormat.TAR);
+        }
+        assertTrue(dispatcher.size() <= 256, "the table must stay bounded");
+        dispatcher.getExtractor(new File(TMP_ROOT, "no_dot_a"), extractors, ArchiveFormat.ZIP);
+        int probed = probes.get();
+        dispatcher.getExtractor(new File(TMP_ROOT, "no_dot_b"), extractors, ArchiveFormat.ZIP);
+        assertEquals(probed, probes.get(), "names without a dot share the empty extension");
+    }
+}
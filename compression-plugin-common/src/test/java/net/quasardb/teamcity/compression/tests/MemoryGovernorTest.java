@@ -0,0 +1,83 @@
+package net.quasardb.teamcity.compression.tests;
+
+import com.github.luben.zstd.ZstdInputStream;
+import net.quasardb.teamcity.compression.config.ZstdProperties;
+import net.quasardb.teamcity.compression.memory.MemoryGovernor;
+import net.quasardb.teamcity.compression.tests.impl.ZstdTestArchiveExtractor;
+import net.quasardb.teamcity.compression.utils.ZstdCompressionUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MemoryGovernorTest extends BaseCompressionTest {
+
+    @Test
+    public void testLongWindowArchiveDecompression() throws IOException {
+        byte[] content = new byte[2 * 1024 * 1024];
+        new Random(42).nextBytes(content);
+        File source = new File(TMP_ROOT, "long_window.bin");
+        Files.write(source.toPath(), content);
+        File archive = new File(TMP_ROOT, "long_window.bin.zst");
+        ZstdCompressionUtils.compress(source, archive, 3, 28);
+
+        assertThrows(IOException.class, () -> {
+            try (InputStream in = new ZstdInputStream(Files.newInputStream(archive.toPath()))) {
+                IOUtils.toByteArray(in);
+            }
+        }, "default decoder limit must reject the window");
+        try (InputStream in = new ZstdTestArchiveExtractor().openDecompressedStream(archive)) {
+            assertArrayEquals(content, IOUtils.toByteArray(in), "the default memory budget admits the window");
+        }
+        System.setProperty(ZstdProperties.DECOMPRESS_MEMORY_BUDGET_MB, "64");
+        try {
+            assertEquals(27, ZstdProperties.getDecompressWindowLogMax());
+            assertThrows(IOException.class, () -> {
+                try (InputStream in = new ZstdTestArchiveExtractor().openDecompressedStream(archive)) {
+                    IOUtils.toByteArray(in);
+                }
+            }, "a small budget keeps zstd's own limit");
+            System.setProperty(ZstdProperties.DECOMPRESS_WINDOW_LOG_MAX, "28");
+            try (InputStream in = new ZstdTestArchiveExtractor().openDecompressedStream(archive)) {
+                assertArrayEquals(content, IOUtils.toByteArray(in));
+            }
+        } finally {
+            System.clearProperty(ZstdProperties.DECOMPRESS_MEMORY_BUDGET_MB);
+            System.clearProperty(ZstdProperties.DECOMPRESS_WINDOW_LOG_MAX);
+        }
+    }
+
+    @Test
+    public void testDecompressionsQueueAboveBudget() throws Exception {
+        MemoryGovernor governor = new MemoryGovernor(10 * 1024 * 1024);
+        MemoryGovernor.Lease first = governor.acquire(8 * 1024 * 1024, "first");
+        CompletableFuture<MemoryGovernor.Lease> second = CompletableFuture.supplyAsync(() -> {
+            try {
+                return governor.acquire(8 * 1024 * 1024, "second");
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertThrows(TimeoutException.class, () -> second.get(200, TimeUnit.MILLISECONDS), "second decompression must wait");
+
+        first.close();
+        first.close();
+        MemoryGovernor.Lease granted = second.get(5, TimeUnit.SECONDS);
+        assertEquals(2 * 1024 * 1024, governor.getAvailableBytes());
+        granted.close();
+
+        MemoryGovernor.Lease oversized = governor.acquire(100 * 1024 * 1024, "oversized");
+        assertEquals(0, governor.getAvailableBytes(), "oversized reservation must run alone");
+        oversized.close();
+    }
+}
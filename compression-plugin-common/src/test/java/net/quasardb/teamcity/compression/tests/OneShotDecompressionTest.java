@@ -0,0 +1,44 @@
+package net.quasardb.teamcity.compression.tests;
+
+import com.github.luben.zstd.Zstd;
+import net.quasardb.teamcity.compression.tests.impl.ZstdTestArchiveExtractor;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OneShotDecompressionTest extends BaseCompressionTest {
+
+    @Test
+    public void testSingleFrameIsDecompressedInOneCall() throws IOException {
+        byte[] content = new byte[1024 * 1024];
+        Arrays.fill(content, (byte) 'z');
+        File archive = new File(TMP_ROOT, "one_shot.bin.zst");
+        Files.write(archive.toPath(), Zstd.compress(content));
+
+        ZstdTestArchiveExtractor extractor = new ZstdTestArchiveExtractor();
+        assertEquals(content.length, extractor.getOneShotSize(archive));
+        File target = new File(TMP_ROOT, "one_shot.bin");
+        assertTrue(extractor.decompressOneShot(archive, target));
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void testMultipleFramesFallBackToStreaming() throws IOException {
+        byte[] content = new byte[64 * 1024];
+        Arrays.fill(content, (byte) 'z');
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        frames.write(Zstd.compress(content));
+        frames.write(Zstd.compress(content));
+        File archive = new File(TMP_ROOT, "two_frames.bin.zst");
+        Files.write(archive.toPath(), frames.toByteArray());
+
+        ZstdTestArchiveExtractor extractor = new ZstdTestArchiveExtractor();
+        assertFalse(extractor.decompressOneShot(archive, new File(TMP_ROOT, "two_frames.bin")));
+    }
+}
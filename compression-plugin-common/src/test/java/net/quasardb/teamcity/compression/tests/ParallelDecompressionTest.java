@@ -0,0 +1,76 @@
+package net.quasardb.teamcity.compression.tests;
+
+import com.github.luben.zstd.Zstd;
+import net.quasardb.teamcity.compression.buffer.DirectBufferPool;
+import net.quasardb.teamcity.compression.config.ZstdProperties;
+import net.quasardb.teamcity.compression.parallel.ParallelZstdInputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ParallelDecompressionTest extends BaseCompressionTest {
+
+    private static byte[] content(int size) {
+        byte[] content = new byte[size];
+        Random random = new Random(42);
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) ('a' + random.nextInt(4));
+        }
+        return content;
+    }
+
+    @Test
+    public void testMultiFrameDecompression() throws IOException {
+        byte[] content = content(300_000);
+        ByteArrayOutputStream multiFrame = new ByteArrayOutputStream();
+        for (int offset = 0; offset < content.length; offset += 64 * 1024) {
+            multiFrame.write(Zstd.compress(Arrays.copyOfRange(content, offset, Math.min(content.length, offset + 64 * 1024))));
+        }
+        File archive = new File(TMP_ROOT, "multi_frame.zst");
+        Files.write(archive.toPath(), multiFrame.toByteArray());
+
+        System.setProperty(ZstdProperties.DECOMPRESS_THREADS, "4");
+        try (InputStream in = ParallelZstdInputStream.open(archive)) {
+            assertNotNull(in, "multi-frame archive must be decoded in parallel");
+            assertArrayEquals(content, IOUtils.toByteArray(in));
+        } finally {
+            System.clearProperty(ZstdProperties.DECOMPRESS_THREADS);
+        }
+    }
+
+    @Test
+    public void testSingleFrameFallsBackToSequential() throws IOException {
+        File archive = new File(TMP_ROOT, "single_frame.zst");
+        Files.write(archive.toPath(), Zstd.compress(content(10_000)));
+        System.setProperty(ZstdProperties.DECOMPRESS_THREADS, "4");
+        try {
+            assertNull(ParallelZstdInputStream.open(archive));
+        } finally {
+            System.clearProperty(ZstdProperties.DECOMPRESS_THREADS);
+        }
+    }
+
+    @Test
+    public void testDirectBuffersAreReused() {
+        DirectBufferPool pool = new DirectBufferPool(1024 * 1024);
+        ByteBuffer buffer = pool.acquire(5000);
+        assertTrue(buffer.isDirect());
+        assertEquals(5000, buffer.remaining());
+        pool.release(buffer);
+        assertSame(buffer, pool.acquire(6000), "buffer of the same size class must be reused");
+
+        ByteBuffer large = pool.acquire(2 * 1024 * 1024);
+        pool.release(large);
+        assertEquals(0, pool.getRetainedBytes(), "buffers above the retained limit must not be kept");
+    }
+}
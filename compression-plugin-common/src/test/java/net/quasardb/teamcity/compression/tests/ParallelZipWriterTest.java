@@ -0,0 +1,238 @@
+package net.quasardb.teamcity.compression.tests;
+
+import net.quasardb.teamcity.compression.parallel.ParallelZipWriter;
+import net.quasardb.teamcity.compression.seekable.ZipFileArchiveInputStream;
+import net.quasardb.teamcity.compression.utils.ZipZstdSupport;
+import net.quasardb.teamcity.compression.utils.ZstdZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.UnixStat;
+import org.apache.commons.compress.archivers.zip.Zip64Mode;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.archivers.zip.ZipShort;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ParallelZipWriterTest extends BaseCompressionTest {
+
+    @Test
+    public void testEntriesKeepOrderModesAndContent() throws IOException {
+        byte[] large = new byte[3 * ParallelZipWriter.MEMORY_THRESHOLD];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) (i % 251 ^ i >>> 12);
+        }
+        File zip = new File(TMP_ROOT, "parallel.zip");
+        try (ZipArchiveOutputStream out = new ZipArchiveOutputStream(zip);
+             ParallelZipWriter writer = new ParallelZipWriter(out, Deflater.DEFAULT_COMPRESSION, 4)) {
+            for (int i = 0; i < 50; i++) {
+                ZipArchiveEntry entry = new ZipArchiveEntry("dir/file_" + i + ".txt");
+                entry.setUnixMode(UnixStat.FILE_FLAG | 0640);
+                byte[] content = ("content " + i).getBytes(StandardCharsets.UTF_8);
+                writer.add(entry, () -> new ByteArrayInputStream(content));
+            }
+            ZipArchiveEntry link = new ZipArchiveEntry("dir/link");
+            link.setUnixMode(UnixStat.LINK_FLAG | 0777);
+            writer.add(link, () -> new ByteArrayInputStream("file_0.txt".getBytes(StandardCharsets.UTF_8)));
+            writer.add(new ZipArchiveEntry("large.bin"), () -> new ByteArrayInputStream(large));
+            writer.add(new ZipArchiveEntry("empty.txt"), () -> new ByteArrayInputStream(new byte[0]));
+            writer.finish();
+            out.finish();
+        }
+
+        try (ZipFile zipFile = ZipFile.builder().setFile(zip).get()) {
+            List<ZipArchiveEntry> entries = Collections.list(zipFile.getEntriesInPhysicalOrder());
+            assertEquals(53, entries.size());
+            for (int i = 0; i < 50; i++) {
+                ZipArchiveEntry entry = entries.get(i);
+                assertEquals("dir/file_" + i + ".txt", entry.getName());
+                assertEquals(0640, entry.getUnixMode() & 0777);
+                assertEquals("content " + i, read(zipFile, entry));
+            }
+            assertTrue(entries.get(50).isUnixSymlink());
+            assertEquals("file_0.txt", zipFile.getUnixSymlink(entries.get(50)));
+            try (InputStream in = zipFile.getInputStream(entries.get(51))) {
+                assertArrayEquals(large, IOUtils.toByteArray(in));
+            }
+            assertEquals(0, entries.get(52).getSize());
+        }
+    }
+
+    @Test
+    public void testZstdEntriesAreReadBack() throws IOException {
+        byte[] large = new byte[2 * ParallelZipWriter.MEMORY_THRESHOLD];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) (i % 7);
+        }
+        File zip = new File(TMP_ROOT, "zstd_entries.zip");
+        try (ZstdZipArchiveOutputStream out = new ZstdZipArchiveOutputStream(Files.newOutputStream(zip.toPath()));
+             ParallelZipWriter writer = new ParallelZipWriter(out, 3, 2)) {
+            out.putArchiveEntry(new ZipArchiveEntry("dir/"));
+            out.closeArchiveEntry();
+            writer.add(new ZipArchiveEntry("dir/small.txt"), () -> new ByteArrayInputStream("small".getBytes(StandardCharsets.UTF_8)));
+            ZipArchiveEntry link = new ZipArchiveEntry("dir/link");
+            link.setUnixMode(UnixStat.LINK_FLAG | 0777);
+            writer.add(link, () -> new ByteArrayInputStream("small.txt".getBytes(StandardCharsets.UTF_8)));
+            writer.add(new ZipArchiveEntry("large.bin"), () -> new ByteArrayInputStream(large));
+            writer.finish();
+            out.finish();
+        }
+
+        try (ZipFile zipFile = ZipFile.builder().setFile(zip).get();
+             ZipFileArchiveInputStream archive = new ZipFileArchiveInputStream(zipFile, () -> {})) {
+            List<ZipArchiveEntry> entries = Collections.list(zipFile.getEntriesInPhysicalOrder());
+            assertEquals(4, entries.size());
+            assertEquals(ZipZstdSupport.ZSTD_METHOD, entries.get(1).getMethod());
+            assertEquals("small.txt", zipFile.getUnixSymlink(entries.get(2)));
+
+            ZipArchiveEntry entry = archive.positionAt("large.bin");
+            assertEquals(ZipZstdSupport.ZSTD_METHOD, entry.getMethod());
+            assertTrue(entry.getCompressedSize() < entry.getSize());
+            assertTrue(archive.canReadEntryData(entry));
+            assertArrayEquals(large, IOUtils.toByteArray(archive));
+            try (InputStream in = ZipZstdSupport.getInputStream(zipFile, entries.get(1))) {
+                assertEquals("small", IOUtils.toString(in, StandardCharsets.UTF_8));
+            }
+        }
+        // local headers carry the method as well, so that streaming readers see it
+        try (ZipArchiveInputStream in = new ZipArchiveInputStream(Files.newInputStream(zip.toPath()))) {
+            assertTrue(in.getNextEntry().isDirectory());
+            ZipArchiveEntry small = in.getNextEntry();
+            assertEquals(ZipZstdSupport.ZSTD_METHOD, small.getMethod());
+            assertFalse(in.canReadEntryData(small));
+            assertEquals("dir/link", in.getNextEntry().getName());
+            assertEquals("large.bin", in.getNextEntry().getName());
+        }
+    }
+
+    @Test
+    public void testZip64AndDataDescriptorsAreReadBack() throws IOException {
+        byte[] streamed = new byte[ParallelZipWriter.MEMORY_THRESHOLD + 17];
+        for (int i = 0; i < streamed.length; i++) {
+            streamed[i] = (byte) (i % 13);
+        }
+        byte[] deflatedContent = "deflated content".getBytes(StandardCharsets.UTF_8);
+        byte[] deflated = deflate(deflatedContent);
+        CRC32 crc = new CRC32();
+        crc.update(deflatedContent);
+
+        File zip = new File(TMP_ROOT, "zip64.zip");
+        try (ZstdZipArchiveOutputStream out = new ZstdZipArchiveOutputStream(Files.newOutputStream(zip.toPath()), 3)) {
+            out.setUseZip64(Zip64Mode.Always);
+            out.putArchiveEntry(new ZipArchiveEntry("dir/"));
+            out.closeArchiveEntry();
+            ZipArchiveEntry entry = new ZipArchiveEntry("dir/streamed.bin");
+            entry.setUnixMode(UnixStat.FILE_FLAG | 0750);
+            out.putArchiveEntry(entry);
+            out.write(streamed, 0, 1000);
+            out.write(streamed, 1000, streamed.length - 1000);
+            out.closeArchiveEntry();
+            ZipArchiveEntry raw = new ZipArchiveEntry("dir/deflated.txt");
+            raw.setMethod(ZipEntry.DEFLATED);
+            raw.setSize(deflatedContent.length);
+            raw.setCompressedSize(deflated.length);
+            raw.setCrc(crc.getValue());
+            out.addRawArchiveEntry(raw, new ByteArrayInputStream(deflated));
+            out.finish();
+        }
+
+        try (ZipFile zipFile = ZipFile.builder().setFile(zip).get()) {
+            List<ZipArchiveEntry> entries = Collections.list(zipFile.getEntriesInPhysicalOrder());
+            assertEquals(3, entries.size());
+            assertTrue(entries.get(0).isDirectory());
+
+            ZipArchiveEntry entry = entries.get(1);
+            assertEquals(ZipZstdSupport.ZSTD_METHOD, entry.getMethod());
+            assertTrue(entry.getGeneralPurposeBit().usesDataDescriptor());
+            assertNotNull(entry.getExtraField(new ZipShort(0x0001)));
+            assertEquals(streamed.length, entry.getSize());
+            assertEquals(0750, entry.getUnixMode() & 0777);
+            try (InputStream in = ZipZstdSupport.getInputStream(zipFile, entry)) {
+                assertArrayEquals(streamed, IOUtils.toByteArray(in));
+            }
+
+            ZipArchiveEntry raw = entries.get(2);
+            assertEquals(ZipEntry.DEFLATED, raw.getMethod());
+            assertFalse(raw.getGeneralPurposeBit().usesDataDescriptor());
+            assertNotNull(raw.getExtraField(new ZipShort(0x0001)));
+            assertEquals(crc.getValue(), raw.getCrc());
+            assertEquals("deflated content", read(zipFile, raw));
+        }
+        // the zip64 records are understood by the JDK as well, which only refuses the zstd method
+        File deflatedZip = new File(TMP_ROOT, "zip64_deflated.zip");
+        try (ZstdZipArchiveOutputStream out = new ZstdZipArchiveOutputStream(Files.newOutputStream(deflatedZip.toPath()), 3)) {
+            out.setUseZip64(Zip64Mode.Always);
+            out.putArchiveEntry(new ZipArchiveEntry("dir/"));
+            out.closeArchiveEntry();
+            ZipArchiveEntry raw = new ZipArchiveEntry("dir/deflated.txt");
+            raw.setMethod(ZipEntry.DEFLATED);
+            raw.setSize(deflatedContent.length);
+            raw.setCompressedSize(deflated.length);
+            raw.setCrc(crc.getValue());
+            out.addRawArchiveEntry(raw, new ByteArrayInputStream(deflated));
+        }
+        try (java.util.zip.ZipFile zipFile = new java.util.zip.ZipFile(deflatedZip)) {
+            assertEquals(2, zipFile.size());
+            try (InputStream in = zipFile.getInputStream(zipFile.getEntry("dir/deflated.txt"))) {
+                assertEquals("deflated content", IOUtils.toString(in, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    @Test
+    public void testFailureOfOneEntryIsReported() throws IOException {
+        File zip = new File(TMP_ROOT, "failing.zip");
+        List<String> opened = Collections.synchronizedList(new ArrayList<>());
+        try (ZipArchiveOutputStream out = new ZipArchiveOutputStream(zip);
+             ParallelZipWriter writer = new ParallelZipWriter(out, Deflater.DEFAULT_COMPRESSION, 2)) {
+            writer.add(new ZipArchiveEntry("ok.txt"), () -> {
+                opened.add("ok.txt");
+                return new ByteArrayInputStream(new byte[16]);
+            });
+            writer.add(new ZipArchiveEntry("missing.txt"), () -> {
+                throw new IOException("missing.txt is gone");
+            });
+            IOException e = assertThrows(IOException.class, writer::finish);
+            assertEquals("missing.txt is gone", e.getMessage());
+        }
+        assertEquals(Collections.singletonList("ok.txt"), opened);
+    }
+
+    private static byte[] deflate(byte[] content) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream();
+             DeflaterOutputStream deflating = new DeflaterOutputStream(out, deflater)) {
+            deflating.write(content);
+            deflating.finish();
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static String read(ZipFile zipFile, ZipArchiveEntry entry) throws IOException {
+        try (InputStream in = zipFile.getInputStream(entry)) {
+            return IOUtils.toString(in, StandardCharsets.UTF_8);
+        }
+    }
+}
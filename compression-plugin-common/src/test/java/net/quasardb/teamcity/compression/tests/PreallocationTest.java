@@ -0,0 +1,72 @@
+package net.quasardb.teamcity.compression.tests;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdOutputStream;
+import net.quasardb.teamcity.compression.config.ZstdProperties;
+import net.quasardb.teamcity.compression.tests.impl.ZstdTestArchiveExtractor;
+import net.quasardb.teamcity.compression.tests.impl.ZstdTestArchiveFileSelector;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static net.quasardb.teamcity.compression.tests.Utils.mapOf;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PreallocationTest extends BaseCompressionTest {
+
+    @Test
+    public void testDecompressedSizeIsReadFromFrameHeaders() throws IOException {
+        byte[] content = new byte[64 * 1024];
+        Arrays.fill(content, (byte) 'p');
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        frames.write(Zstd.compress(content));
+        frames.write(Zstd.compress(content));
+        File multiFrame = new File(TMP_ROOT, "preallocated_frames.bin.zst");
+        Files.write(multiFrame.toPath(), frames.toByteArray());
+
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        try (OutputStream out = new ZstdOutputStream(streamed)) {
+            out.write(content);
+        }
+        File unknownSize = new File(TMP_ROOT, "preallocated_stream.bin.zst");
+        Files.write(unknownSize.toPath(), streamed.toByteArray());
+
+        ZstdTestArchiveExtractor extractor = new ZstdTestArchiveExtractor();
+        assertEquals(2L * content.length, extractor.getDecompressedSize(multiFrame));
+        assertEquals(-1, extractor.getDecompressedSize(unknownSize));
+    }
+
+    @Test
+    public void testPayloadIsTruncatedToWrittenSize() throws IOException {
+        byte[] content = new byte[10000];
+        Arrays.fill(content, (byte) 'p');
+        File target = new File(TMP_ROOT, "preallocated_payload.bin");
+
+        ZstdTestArchiveExtractor extractor = new ZstdTestArchiveExtractor();
+        extractor.writePayload(new ByteArrayInputStream(content), target, 2 * content.length);
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void testExtractionFailsFastWithoutFreeSpace() throws IOException {
+        File destinationFolder = new File(TMP_ROOT, "no_space_folder");
+        System.setProperty(ZstdProperties.STAGING_MIN_FREE_MB, String.valueOf(Long.MAX_VALUE / (1024 * 1024 * 2)));
+        try {
+            ZstdTestArchiveExtractor extractor = new ZstdTestArchiveExtractor();
+            assertThrows(IOException.class, () -> extractor.extractFiles(new File(TMP_ROOT, "test_file.txt.zst"), new ZstdTestArchiveFileSelector(
+                    new File("."),
+                    mapOf(new Utils.KeyValuePair("test_file.txt", destinationFolder.getAbsolutePath() + "/test_file.txt"))
+            )));
+        } finally {
+            System.clearProperty(ZstdProperties.STAGING_MIN_FREE_MB);
+        }
+        String[] written = destinationFolder.list();
+        assertTrue(written == null || written.length == 0, "nothing must be written when the disk is full");
+    }
+}
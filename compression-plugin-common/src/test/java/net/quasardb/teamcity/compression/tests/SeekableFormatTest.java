@@ -0,0 +1,71 @@
+package net.quasardb.teamcity.compression.tests;
+
+import com.github.luben.zstd.ZstdInputStream;
+import net.quasardb.teamcity.compression.seekable.SeekableZstdChannel;
+import net.quasardb.teamcity.compression.tests.impl.ZstdTestArchiveExtractor;
+import net.quasardb.teamcity.compression.utils.ZstdCompressionUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SeekableFormatTest extends BaseCompressionTest {
+
+    private static byte[] decompress(File zstFile) throws IOException {
+        try (InputStream in = new ZstdInputStream(Files.newInputStream(zstFile.toPath()))) {
+            return IOUtils.toByteArray(in);
+        }
+    }
+
+    private static File createSeekableTar(String name) throws IOException {
+        File tar = new File(TMP_ROOT, name + ".tar");
+        Files.write(tar.toPath(), decompress(new File(TMP_ROOT, "test_folder.tar.zst")));
+        File seekable = new File(TMP_ROOT, name + ".tar.zst");
+        ZstdCompressionUtils.compressSeekable(tar, seekable, 3, 1024);
+        return seekable;
+    }
+
+    @Test
+    public void testSeekableArchiveIsRegularZstd() throws IOException {
+        File seekable = createSeekableTar("seekable_regular");
+        assertArrayEquals(decompress(new File(TMP_ROOT, "test_folder.tar.zst")), decompress(seekable));
+        assertTrue(new ZstdTestArchiveExtractor().isSupported(seekable));
+    }
+
+    @Test
+    public void testRandomAccessRead() throws IOException {
+        File seekable = createSeekableTar("seekable_random");
+        byte[] expected = decompress(seekable);
+        try (SeekableZstdChannel channel = SeekableZstdChannel.open(seekable)) {
+            assertNotNull(channel);
+            assertTrue(channel.getSeekTable().getFrameCount() > 1);
+            assertEquals(expected.length, channel.size());
+
+            ByteBuffer buffer = ByteBuffer.allocate(1500);
+            channel.position(2000);
+            channel.read(buffer);
+            assertArrayEquals(Arrays.copyOfRange(expected, 2000, 3500), buffer.array());
+        }
+    }
+
+    @Test
+    public void testEntitiesSizeFromSeekTable() throws IOException {
+        File seekable = createSeekableTar("seekable_entities");
+        Map<String, Long> sizes = new ZstdTestArchiveExtractor().getEntitiesSize(seekable);
+        long expectedSize = new File(TMP_ROOT, "test_folder/test_subfolder/test_file_3.txt").length();
+        assertEquals(expectedSize, sizes.get("test_folder/test_subfolder/test_file_3.txt"));
+    }
+
+    @Test
+    public void testRegularArchiveIsNotSeekable() {
+        assertFalse(SeekableZstdChannel.isSeekable(new File(TMP_ROOT, "test_folder.tar.zst")));
+    }
+}
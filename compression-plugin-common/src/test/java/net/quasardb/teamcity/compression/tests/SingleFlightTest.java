@@ -0,0 +1,134 @@
+package net.quasardb.teamcity.compression.tests;
+
+import net.quasardb.teamcity.compression.flight.SingleFlight;
+import org.junit.jupiter.api.Test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SingleFlightTest {
+
+    private static final int FOLLOWERS = 3;
+
+    private static class Payload implements Closeable {
+        private final AtomicInteger closed = new AtomicInteger();
+
+        @Override
+        public void close() {
+            closed.incrementAndGet();
+        }
+    }
+
+    private static class Caller extends Thread {
+        private final SingleFlight<Payload> flights;
+        private final SingleFlight.Producer<Payload> producer;
+        private final AtomicReference<SingleFlight<Payload>.Lease> lease = new AtomicReference<>();
+        private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+        Caller(SingleFlight<Payload> flights, SingleFlight.Producer<Payload> producer) {
+            this.flights = flights;
+            this.producer = producer;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                lease.set(flights.join("archive", producer));
+            } catch (Exception e) {
+                failure.set(e);
+            }
+        }
+
+        void awaitBlocked() {
+            while (getState() != State.WAITING && getState() != State.TIMED_WAITING && isAlive()) {
+                Thread.yield();
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentCallersShareOneProduction() throws Exception {
+        SingleFlight<Payload> flights = new SingleFlight<>();
+        AtomicInteger produced = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        Payload payload = new Payload();
+
+        List<Caller> callers = new ArrayList<>();
+        Caller leader = new Caller(flights, () -> {
+            produced.incrementAndGet();
+            await(release);
+            return payload;
+        });
+        leader.start();
+        leader.awaitBlocked();
+        callers.add(leader);
+        for (int i = 0; i < FOLLOWERS; i++) {
+            Caller follower = new Caller(flights, () -> {
+                produced.incrementAndGet();
+                return new Payload();
+            });
+            follower.start();
+            follower.awaitBlocked();
+            callers.add(follower);
+        }
+        release.countDown();
+
+        for (Caller caller : callers) {
+            caller.join(TimeUnit.SECONDS.toMillis(10));
+            assertNull(caller.failure.get());
+            assertSame(payload, caller.lease.get().get());
+        }
+        assertEquals(1, produced.get());
+        for (Caller caller : callers) {
+            assertEquals(0, payload.closed.get(), "payload must stay open while it is held");
+            caller.lease.get().close();
+        }
+        assertEquals(1, payload.closed.get());
+        assertEquals(0, flights.size());
+    }
+
+    @Test
+    public void testFailureIsReportedToWaiters() throws Exception {
+        SingleFlight<Payload> flights = new SingleFlight<>();
+        CountDownLatch release = new CountDownLatch(1);
+
+        Caller leader = new Caller(flights, () -> {
+            await(release);
+            throw new IOException("corrupted frame");
+        });
+        leader.start();
+        leader.awaitBlocked();
+        Caller follower = new Caller(flights, Payload::new);
+        follower.start();
+        follower.awaitBlocked();
+        release.countDown();
+        leader.join(TimeUnit.SECONDS.toMillis(10));
+        follower.join(TimeUnit.SECONDS.toMillis(10));
+
+        assertEquals("corrupted frame", leader.failure.get().getMessage());
+        assertTrue(follower.failure.get().getMessage().contains("corrupted frame"));
+        assertEquals(0, flights.size());
+
+        try (SingleFlight<Payload>.Lease retry = flights.join("archive", Payload::new)) {
+            assertNotNull(retry.get());
+        }
+        assertEquals(0, flights.size());
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+}
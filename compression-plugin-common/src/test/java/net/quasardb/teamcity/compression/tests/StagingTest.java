@@ -0,0 +1,170 @@
+package net.quasardb.teamcity.compression.tests;
+
+import jetbrains.buildServer.util.ArchiveFileSelector;
+import net.quasardb.teamcity.compression.filesystem.StagingManager;
+import net.quasardb.teamcity.compression.tests.impl.ZstdTestArchiveExtractor;
+import net.quasardb.teamcity.compression.tests.impl.ZstdTestArchiveFileSelector;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static net.quasardb.teamcity.compression.tests.Utils.mapOf;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StagingTest extends BaseCompressionTest {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    @Test
+    public void testQuotaIsEnforced() throws IOException {
+        File directory = Files.createTempDirectory(TMP_ROOT.toPath(), "quota").toFile();
+        StagingManager stagingManager = new StagingManager(1024 * 1024, 0, HOUR);
+
+        File staged = stagingManager.createTempFile(directory, ".tmp", 768 * 1024);
+        assertThrows(IOException.class, () -> stagingManager.createTempFile(directory, ".tmp", 512 * 1024));
+
+        stagingManager.delete(staged);
+        awaitDeleted(staged);
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (stagingManager.getStagedBytes() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.yield();
+        }
+        assertNotNull(stagingManager.createTempFile(directory, ".tmp", 512 * 1024));
+    }
+
+    @Test
+    public void testOrphansAreSwept() throws IOException {
+        File directory = Files.createTempDirectory(TMP_ROOT.toPath(), "orphans").toFile();
+        StagingManager stagingManager = new StagingManager(0, 0, HOUR);
+
+        File orphan = new File(directory, StagingManager.TEMP_FILE_PREFIX + "crashed_decompressed");
+        Files.write(orphan.toPath(), new byte[16]);
+        orphan.setLastModified(System.currentTimeMillis() - 2 * HOUR);
+        File recent = new File(directory, StagingManager.TEMP_FILE_PREFIX + "running_decompressed");
+        Files.write(recent.toPath(), new byte[16]);
+        File staged = stagingManager.createTempFile(directory, "_decompressed", StagingManager.UNKNOWN_SIZE);
+        staged.setLastModified(System.currentTimeMillis() - 2 * HOUR);
+        File unrelated = new File(directory, "artifact.txt");
+        Files.write(unrelated.toPath(), new byte[16]);
+        unrelated.setLastModified(System.currentTimeMillis() - 2 * HOUR);
+
+        stagingManager.sweepOrphans(directory);
+        assertFalse(orphan.exists());
+        assertTrue(recent.exists());
+        assertTrue(staged.exists());
+        assertTrue(unrelated.exists());
+    }
+
+    @Test
+    public void testStreamTempFileIsDeletedOnClose() throws Exception {
+        File tempDirectory = new File(System.getProperty("java.io.tmpdir"));
+        int tempFilesBefore = countTempFiles(tempDirectory);
+
+        ZstdTestArchiveExtractor extractor = new ZstdTestArchiveExtractor();
+        try (InputStream in = Files.newInputStream(new File(TMP_ROOT, "test_folder.zip.zst").toPath());
+             ArchiveInputStream<?> archive = extractor.decompressAndGetInputStream(in)) {
+            assertNotNull(archive.getNextEntry());
+            assertTrue(countTempFiles(tempDirectory) > tempFilesBefore);
+        }
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (countTempFiles(tempDirectory) > tempFilesBefore && System.currentTimeMillis() < deadline) {
+            Thread.yield();
+        }
+        assertEquals(tempFilesBefore, countTempFiles(tempDirectory));
+    }
+
+    @Test
+    public void testTarStreamIsNotStaged() throws Exception {
+        File tempDirectory = new File(System.getProperty("java.io.tmpdir"));
+        int tempFilesBefore = countTempFiles(tempDirectory);
+
+        ZstdTestArchiveExtractor extractor = new ZstdTestArchiveExtractor();
+        try (InputStream in = Files.newInputStream(new File(TMP_ROOT, "test_folder.tar.zst").toPath());
+             ArchiveInputStream<?> archive = extractor.decompressAndGetInputStream(in)) {
+            assertInstanceOf(TarArchiveInputStream.class, archive);
+            assertNotNull(archive.getNextEntry());
+            assertTrue(countTempFiles(tempDirectory) <= tempFilesBefore);
+        }
+    }
+
+    @Test
+    public void testConcurrentTarExtractionsDecompressOnce() throws Exception {
+        AtomicInteger decompressions = new AtomicInteger();
+        ZstdTestArchiveExtractor extractor = new ZstdTestArchiveExtractor() {
+            @Override
+            public InputStream openDecompressedStream(@NotNull File archive) throws IOException {
+                decompressions.incrementAndGet();
+                return super.openDecompressedStream(archive);
+            }
+        };
+        File archive = new File(TMP_ROOT, "test_folder.tar.zst");
+        CountDownLatch streaming = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ZstdTestArchiveFileSelector leaderSelector = new ZstdTestArchiveFileSelector(new File("."),
+                mapOf(new Utils.KeyValuePair("test_folder/test_file_1.txt", TMP_ROOT.getAbsolutePath() + "/shared_leader/test_file_1.txt"))) {
+            @Override
+            public File getDestinationFile(@NotNull String archiveEntryName) {
+                streaming.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.getDestinationFile(archiveEntryName);
+            }
+        };
+        ZstdTestArchiveFileSelector followerSelector = new ZstdTestArchiveFileSelector(new File("."),
+                mapOf(new Utils.KeyValuePair("test_folder/test_file_1.txt", TMP_ROOT.getAbsolutePath() + "/shared_follower/test_file_1.txt")));
+
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        Thread leader = new Thread(() -> extract(extractor, archive, leaderSelector, failure));
+        leader.start();
+        assertTrue(streaming.await(10, TimeUnit.SECONDS));
+        Thread follower = new Thread(() -> extract(extractor, archive, followerSelector, failure));
+        follower.start();
+        while (follower.getState() != Thread.State.WAITING && follower.isAlive()) {
+            Thread.yield();
+        }
+        release.countDown();
+        leader.join(TimeUnit.SECONDS.toMillis(10));
+        follower.join(TimeUnit.SECONDS.toMillis(10));
+
+        assertNull(failure.get());
+        assertEquals(1, decompressions.get(), "the follower must replay the payload staged by the leader");
+        byte[] expected = Files.readAllBytes(new File(TMP_ROOT, "test_folder/test_file_1.txt").toPath());
+        assertArrayEquals(expected, Files.readAllBytes(new File(TMP_ROOT, "shared_leader/test_file_1.txt").toPath()));
+        assertArrayEquals(expected, Files.readAllBytes(new File(TMP_ROOT, "shared_follower/test_file_1.txt").toPath()));
+    }
+
+    private static void extract(ZstdTestArchiveExtractor extractor, File archive, ArchiveFileSelector selector, AtomicReference<Exception> failure) {
+        try {
+            extractor.extractFiles(archive, selector);
+        } catch (Exception e) {
+            failure.set(e);
+        }
+    }
+
+    private static int countTempFiles(File directory) {
+        String[] names = directory.list((dir, name) -> name.startsWith(StagingManager.TEMP_FILE_PREFIX));
+        return names != null ? names.length : 0;
+    }
+
+    private static void awaitDeleted(File file) {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (file.exists() && System.currentTimeMillis() < deadline) {
+            Thread.yield();
+        }
+        assertFalse(file.exists());
+    }
+}
@@ -0,0 +1,131 @@
+package net.quasardb.teamcity.compression.tests;
+
+import net.quasardb.teamcity.compression.cache.ZipFileCache;
+import net.quasardb.teamcity.compression.seekable.ZipFileArchiveInputStream;
+import net.quasardb.teamcity.compression.tests.impl.ZstdTestArchiveExtractor;
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ZipFileCacheTest extends BaseCompressionTest {
+
+    @Test
+    public void testEntriesAreLookedUpThroughCentralDirectory() throws IOException {
+        File zip = createZip("lookup.zip", 100);
+        ZipFileCache cache = new ZipFileCache(2);
+
+        ZipFileCache.Lease lease = cache.acquire(zip, "UTF-8");
+        try (ZipFileArchiveInputStream stream = new ZipFileArchiveInputStream(lease.getZipFile(), lease)) {
+            ZipArchiveEntry entry = stream.positionAt("folder/entry_73.txt");
+            assertNotNull(entry);
+            assertEquals("content of entry 73", IOUtils.toString(stream, StandardCharsets.UTF_8));
+            assertNotNull(stream.positionAt("folder"));
+            assertNull(stream.positionAt("folder/missing.txt"));
+
+            ZipArchiveEntry first = stream.getNextEntry();
+            assertEquals("folder/", first.getName());
+            assertEquals("folder/entry_0.txt", stream.getNextEntry().getName());
+            assertEquals("content of entry 0", IOUtils.toString(stream, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testZipFilesAreSharedAndClosedAfterEviction() throws IOException {
+        File first = createZip("first.zip", 1);
+        File second = createZip("second.zip", 1);
+        ZipFileCache cache = new ZipFileCache(1);
+
+        try (ZipFileCache.Lease lease = cache.acquire(first, "UTF-8");
+             ZipFileCache.Lease shared = cache.acquire(first, "UTF-8")) {
+            assertSame(lease.getZipFile(), shared.getZipFile());
+
+            cache.acquire(second, "UTF-8").close();
+            assertEquals(1, cache.size());
+            // evicted while in use, still readable until released
+            assertNotEquals(-1, lease.getZipFile().getInputStream(lease.getZipFile().getEntry("folder/entry_0.txt")).read());
+        }
+        ZipFileCache.Lease reopened = cache.acquire(first, "UTF-8");
+        reopened.close();
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testIdleZipFilesAreClosed() throws Exception {
+        File zip = createZip("idle.zip", 1);
+        ZipFileCache closing = new ZipFileCache(4, 0);
+        closing.acquire(zip, "UTF-8").close();
+        assertEquals(0, closing.size());
+
+        ZipFileCache cache = new ZipFileCache(4, 50);
+        ZipFileCache.Lease lease = cache.acquire(zip, "UTF-8");
+        Thread.sleep(150);
+        // still in use, not idle
+        assertEquals(1, cache.size());
+        lease.close();
+        for (int i = 0; i < 100 && cache.size() > 0; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testReplacedZipFileIsReopened() throws IOException {
+        File zip = createZip("replaced.zip", 1);
+        ZipFileCache cache = new ZipFileCache(4, 60_000);
+        try (ZipFileCache.Lease old = cache.acquire(zip, "UTF-8")) {
+            createZip("replaced.zip", 2);
+            assertTrue(zip.setLastModified(zip.lastModified() + 2000));
+            try (ZipFileCache.Lease current = cache.acquire(zip, "UTF-8")) {
+                assertNotSame(old.getZipFile(), current.getZipFile());
+                assertNotNull(current.getZipFile().getEntry("folder/entry_1.txt"));
+                assertEquals(1, cache.size());
+            }
+        }
+    }
+
+    @Test
+    public void testStagedZipPayloadIsRandomAccess() throws Exception {
+        ZstdTestArchiveExtractor extractor = new ZstdTestArchiveExtractor();
+        String name = null;
+        try (InputStream in = Files.newInputStream(new File(TMP_ROOT, "test_folder.zip.zst").toPath());
+             ArchiveInputStream<?> archive = extractor.decompressAndGetInputStream(in)) {
+            assertInstanceOf(ZipFileArchiveInputStream.class, archive);
+            for (ArchiveEntry entry = archive.getNextEntry(); entry != null; entry = archive.getNextEntry()) {
+                if (!entry.isDirectory()) {
+                    name = entry.getName();
+                }
+            }
+        }
+        assertNotNull(name);
+        try (InputStream in = Files.newInputStream(new File(TMP_ROOT, "test_folder.zip.zst").toPath());
+             ZipFileArchiveInputStream archive = (ZipFileArchiveInputStream) extractor.decompressAndGetInputStream(in)) {
+            assertNotNull(archive.positionAt(name));
+            assertTrue(IOUtils.toByteArray(archive).length > 0);
+        }
+    }
+
+    private static File createZip(String name, int entries) throws IOException {
+        File zip = new File(TMP_ROOT, name);
+        try (ZipArchiveOutputStream out = new ZipArchiveOutputStream(zip)) {
+            out.putArchiveEntry(new ZipArchiveEntry("folder/"));
+            out.closeArchiveEntry();
+            for (int i = 0; i < entries; i++) {
+                out.putArchiveEntry(new ZipArchiveEntry("folder/entry_" + i + ".txt"));
+                out.write(("content of entry " + i).getBytes(StandardCharsets.UTF_8));
+                out.closeArchiveEntry();
+            }
+        }
+        return zip;
+    }
+}
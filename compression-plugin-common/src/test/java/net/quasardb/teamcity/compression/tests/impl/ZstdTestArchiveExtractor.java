@@ -28,7 +28,7 @@ public class ZstdTestArchiveExtractor implements ZstdExtractor {
     }
 
     @Override
-    public ArchiveExtractor getArchiveType(@NotNull File archive) {
+    public ArchiveExtractor getArchiveType(@NotNull File archive, @NotNull String name) {
         Logger.debug("Call isSupportedArchiveType for " + archive.getName());
         try {
             try (InputStream inputStream = new BufferedInputStream(Files.newInputStream(archive.toPath()))) {
@@ -3,6 +3,7 @@ package net.quasardb.teamcity.compression.extractor;
 import com.github.luben.zstd.util.ZstdVersion;
 import jetbrains.buildServer.ExtensionHolder;
 import net.quasardb.teamcity.compression.ZstdExtractor;
+import net.quasardb.teamcity.compression.filesystem.StagingManager;
 import net.quasardb.teamcity.compression.logging.Logger;
 
 import static net.quasardb.teamcity.compression.utils.Downloader.downloadFile;
@@ -20,6 +21,7 @@ public class ZstdServerArchiveExtractor implements ZstdExtractor {
         Logger.info("ZSTD Server Extractor loaded");
         loadNativeZstdLib();
         Logger.info("ZSTD Server Lib version: " + ZstdVersion.VERSION);
+        StagingManager.getInstance().sweepOrphansAsync();
     }
 
     @Override